@@ -33,11 +33,17 @@ class InventoryService {
 
 	private ItemRepository repository;
 	private ItemByExampleRepository exampleRepository;
+	private ItemSearchIndex searchIndex;
+	private ItemExampleSearch exampleSearch;
 
 	InventoryService(ItemRepository repository, //
-			ItemByExampleRepository exampleRepository) {
+			ItemByExampleRepository exampleRepository, //
+			ItemSearchIndex searchIndex, //
+			ItemExampleSearch exampleSearch) {
 		this.repository = repository;
 		this.exampleRepository = exampleRepository;
+		this.searchIndex = searchIndex;
+		this.exampleSearch = exampleSearch;
 	}
 
 	List<Item> getItems() {
@@ -47,6 +53,11 @@ class InventoryService {
 
 	// tag::code-2[]
 	Iterable<Item> search(String partialName, String partialDescription, boolean useAnd) {
+		return searchIndex.search(partialName, partialDescription, useAnd); // ranked, and no table scan
+	}
+
+	// the same search as derived queries, one table scan each; kept as the baseline for ItemSearchIndex
+	Iterable<Item> searchByQuery(String partialName, String partialDescription, boolean useAnd) {
 		if (partialName != null) {
 			if (partialDescription != null) {
 				if (useAnd) {
@@ -58,7 +69,7 @@ class InventoryService {
 							partialName, partialDescription);
 				}
 			} else {
-				return repository.findByNameContaining(partialName);
+				return repository.findByNameContainingIgnoreCase(partialName);
 			}
 		} else {
 			if (partialDescription != null) {
@@ -72,6 +83,11 @@ class InventoryService {
 
 	// tag::code-3[]
 	Iterable<Item> searchByExample(String name, String description, boolean useAnd) {
+		return exampleSearch.search(name, description, useAnd, true); // compiled once per matcher shape
+	}
+
+	// the same search through Spring Data's query by example; kept as the baseline for ItemExampleSearch
+	Iterable<Item> searchByExampleMatcher(String name, String description, boolean useAnd) {
 		Item item = new Item(name, description, 0.0); // <1>
 
 		ExampleMatcher matcher = (useAnd // <2>
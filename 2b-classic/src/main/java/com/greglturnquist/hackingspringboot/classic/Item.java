@@ -19,11 +19,13 @@ package com.greglturnquist.hackingspringboot.classic;
 import java.util.Objects;
 
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
 // tag::code[]
 @Entity
+@EntityListeners(ItemIndexingListener.class)
 public class Item {
 
 	private @Id @GeneratedValue Integer id;
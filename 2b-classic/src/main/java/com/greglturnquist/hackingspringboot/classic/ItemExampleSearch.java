@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiPredicate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.repository.query.EscapeCharacter;
+import org.springframework.stereotype.Component;
+
+/**
+ * The "contains" query by example that {@link InventoryService#searchByExampleMatcher} runs through
+ * {@link ItemByExampleRepository}, compiled once per matcher shape instead of once per call.
+ * <p>
+ * A shape is all-or-any, which of name and description are set, and whether case matters. The search values never
+ * change the query, so each shape gets one criteria query with parameters and one plain Java predicate. Spring Data,
+ * by contrast, walks the probe and the metamodel and builds a fresh criteria query every time.
+ * <p>
+ * With {@code items.example-search.in-memory} set, the predicate is run against the items cached in
+ * {@link ItemSearchIndex} and the database is not queried at all.
+ */
+@Component
+class ItemExampleSearch {
+
+	private final EntityManager entityManager;
+	private final ItemSearchIndex catalog;
+	private final boolean inMemory;
+	private final ConcurrentMap<Shape, Compiled> compiled = new ConcurrentHashMap<>();
+
+	ItemExampleSearch(EntityManager entityManager, ItemSearchIndex catalog,
+			@Value("${items.example-search.in-memory:false}") boolean inMemory) {
+		this.entityManager = entityManager;
+		this.catalog = catalog;
+		this.inMemory = inMemory;
+	}
+
+	/**
+	 * Items whose name and/or description contain the given values. A {@literal null} value is left out of the
+	 * match, as Spring Data does with a {@literal null} probe property; with neither set, every item matches.
+	 */
+	List<Item> search(String name, String description, boolean useAnd, boolean ignoreCase) {
+		return this.inMemory //
+				? scan(name, description, useAnd, ignoreCase) //
+				: query(name, description, useAnd, ignoreCase);
+	}
+
+	List<Item> query(String name, String description, boolean useAnd, boolean ignoreCase) {
+		Compiled search = compile(name, description, useAnd, ignoreCase);
+		TypedQuery<Item> query = this.entityManager.createQuery(search.criteria);
+		if (name != null) {
+			query.setParameter(search.name, search.pattern(name));
+		}
+		if (description != null) {
+			query.setParameter(search.description, search.pattern(description));
+		}
+		return query.getResultList();
+	}
+
+	List<Item> scan(String name, String description, boolean useAnd, boolean ignoreCase) {
+		Compiled search = compile(name, description, useAnd, ignoreCase);
+		return this.catalog.scan(ignoreCase, search.predicate(name, description));
+	}
+
+	/**
+	 * How many shapes have been compiled so far.
+	 */
+	int shapes() {
+		return this.compiled.size();
+	}
+
+	private Compiled compile(String name, String description, boolean useAnd, boolean ignoreCase) {
+		Shape shape = new Shape(useAnd, name != null, description != null, ignoreCase);
+		return this.compiled.computeIfAbsent(shape, this::compile);
+	}
+
+	private Compiled compile(Shape shape) {
+		CriteriaBuilder builder = this.entityManager.getCriteriaBuilder();
+		CriteriaQuery<Item> criteria = builder.createQuery(Item.class);
+		Root<Item> item = criteria.from(Item.class);
+
+		List<Predicate> predicates = new ArrayList<>();
+		ParameterExpression<String> name = null;
+		ParameterExpression<String> description = null;
+		if (shape.name) {
+			name = builder.parameter(String.class, "name");
+			predicates.add(contains(builder, item.get("name"), name, shape.ignoreCase));
+		}
+		if (shape.description) {
+			description = builder.parameter(String.class, "description");
+			predicates.add(contains(builder, item.get("description"), description, shape.ignoreCase));
+		}
+
+		Predicate[] restrictions = predicates.toArray(new Predicate[0]);
+		if (restrictions.length > 0) {
+			criteria.where(shape.useAnd ? builder.and(restrictions) : builder.or(restrictions));
+		}
+		return new Compiled(shape, criteria.select(item), name, description);
+	}
+
+	private static Predicate contains(CriteriaBuilder builder, Expression<String> path,
+			ParameterExpression<String> pattern, boolean ignoreCase) {
+		return builder.like(ignoreCase ? builder.lower(path) : path, pattern,
+				EscapeCharacter.DEFAULT.getEscapeCharacter());
+	}
+
+	private static final class Shape {
+
+		private final boolean useAnd;
+		private final boolean name;
+		private final boolean description;
+		private final boolean ignoreCase;
+
+		Shape(boolean useAnd, boolean name, boolean description, boolean ignoreCase) {
+			this.useAnd = useAnd;
+			this.name = name;
+			this.description = description;
+			this.ignoreCase = ignoreCase;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (o == null || getClass() != o.getClass())
+				return false;
+			Shape shape = (Shape) o;
+			return useAnd == shape.useAnd && name == shape.name && description == shape.description
+					&& ignoreCase == shape.ignoreCase;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(useAnd, name, description, ignoreCase);
+		}
+	}
+
+	private static final class Compiled {
+
+		private final Shape shape;
+		private final CriteriaQuery<Item> criteria;
+		private final ParameterExpression<String> name;
+		private final ParameterExpression<String> description;
+
+		Compiled(Shape shape, CriteriaQuery<Item> criteria, ParameterExpression<String> name,
+				ParameterExpression<String> description) {
+			this.shape = shape;
+			this.criteria = criteria;
+			this.name = name;
+			this.description = description;
+		}
+
+		String pattern(String value) {
+			return "%" + EscapeCharacter.DEFAULT.escape(fold(value)) + "%";
+		}
+
+		/**
+		 * The same match in Java, over the name and description (case folded if the shape ignores case).
+		 */
+		BiPredicate<String, String> predicate(String name, String description) {
+			String nameValue = fold(name);
+			String descriptionValue = fold(description);
+			if (!this.shape.name && !this.shape.description) {
+				return (itemName, itemDescription) -> true;
+			}
+			if (this.shape.useAnd) {
+				return (itemName, itemDescription) -> contains(itemName, nameValue, true)
+						&& contains(itemDescription, descriptionValue, true);
+			}
+			return (itemName, itemDescription) -> contains(itemName, nameValue, false)
+					|| contains(itemDescription, descriptionValue, false);
+		}
+
+		private String fold(String value) {
+			return value == null || !this.shape.ignoreCase ? value : ItemSearchIndex.fold(value);
+		}
+
+		// an unset value takes no part in the match, so it passes an AND and fails an OR
+		private static boolean contains(String text, String value, boolean unset) {
+			return value == null ? unset : text != null && text.contains(value);
+		}
+	}
+}
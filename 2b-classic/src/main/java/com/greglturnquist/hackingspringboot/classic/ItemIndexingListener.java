@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * JPA entity listener that feeds every {@link Item} write into {@link ItemSearchIndex}, however the write was made.
+ * Inside a transaction the index is only touched once it commits, so a rollback never shows up in search results.
+ * <p>
+ * Hibernate creates this through Spring. The index is looked up lazily, because this listener is built along with the
+ * entity manager factory that the index's repository needs.
+ */
+class ItemIndexingListener {
+
+	private final ObjectProvider<ItemSearchIndex> index;
+
+	ItemIndexingListener(ObjectProvider<ItemSearchIndex> index) {
+		this.index = index;
+	}
+
+	@PostPersist
+	@PostUpdate
+	void saved(Item item) {
+		afterCommit(() -> this.index.ifAvailable(index -> index.index(item)));
+	}
+
+	@PostRemove
+	void removed(Item item) {
+		Integer id = item.getId();
+		afterCommit(() -> this.index.ifAvailable(index -> index.remove(id)));
+	}
+
+	private static void afterCommit(Runnable action) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+}
@@ -18,6 +18,7 @@ package com.greglturnquist.hackingspringboot.classic;
 
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
@@ -48,4 +49,7 @@ public interface ItemRepository extends CrudRepository<Item, String> {
 	// search by name OR description
 	List<Item> findByNameContainingOrDescriptionContainingAllIgnoreCase(String partialName, String partialDesc);
 	// end::code-3[]
+
+	// keyset pages, for loading ItemSearchIndex
+	List<Item> findByIdGreaterThanOrderByIdAsc(Integer id, Pageable pageable);
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory inverted index over {@link Item} names and descriptions, answering the same case-insensitive
+ * "contains" searches as {@link ItemRepository}'s derived queries without scanning the table.
+ * <p>
+ * Each field is case folded and split into overlapping three-character grams, padded at both ends so that short
+ * values still produce one. A query of three or more characters looks up each of its own grams and only checks the
+ * items under the rarest one. Shorter queries take the union of every gram that contains them. Either way, candidates
+ * are confirmed against the folded text, so results are exactly those of a {@code like '%x%'}.
+ * <p>
+ * The index is filled from the repository at startup, then kept current by {@link ItemIndexingListener}. Updates and
+ * deletes leave a tombstone, and the index is compacted once those outnumber the live items.
+ */
+@Component
+class ItemSearchIndex implements SmartInitializingSingleton {
+
+	private static final int GRAM = 3;
+	private static final char BOUNDARY = '\0';
+	private static final int LOAD_PAGE_SIZE = 1000;
+	private static final int MIN_COMPACTION = 1024;
+
+	private final ItemRepository repository;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private Documents documents = new Documents(); // guarded by lock
+
+	ItemSearchIndex(ItemRepository repository) {
+		this.repository = repository;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		rebuild();
+	}
+
+	/**
+	 * Reloads the whole index, one keyset page of items at a time.
+	 */
+	void rebuild() {
+		Documents fresh = new Documents();
+		Integer lastId = Integer.MIN_VALUE;
+		List<Item> page;
+		do {
+			page = this.repository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, LOAD_PAGE_SIZE));
+			page.forEach(fresh::add);
+			lastId = page.isEmpty() ? lastId : page.get(page.size() - 1).getId();
+		} while (page.size() == LOAD_PAGE_SIZE);
+
+		this.lock.writeLock().lock();
+		try {
+			this.documents = fresh;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	void index(Item item) {
+		this.lock.writeLock().lock();
+		try {
+			this.documents.remove(item.getId());
+			this.documents.add(item);
+			compactIfNeeded();
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	void remove(Integer id) {
+		this.lock.writeLock().lock();
+		try {
+			this.documents.remove(id);
+			compactIfNeeded();
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.documents.live.cardinality();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Items whose name contains {@code partialName} and/or whose description contains {@code partialDescription},
+	 * ignoring case. A {@literal null} term is left out; with neither, every item matches. Best matches come first:
+	 * whole-field matches, then matches at the start of the field, then at the start of a word, with the name
+	 * counting for more than the description.
+	 */
+	List<Item> search(String partialName, String partialDescription, boolean useAnd) {
+		String name = partialName == null ? null : fold(partialName);
+		String description = partialDescription == null ? null : fold(partialDescription);
+
+		this.lock.readLock().lock();
+		try {
+			Documents docs = this.documents;
+			BitSet matches;
+			if (name != null && description != null) {
+				matches = docs.names.matching(name, docs.size);
+				BitSet byDescription = docs.descriptions.matching(description, docs.size);
+				if (useAnd) {
+					matches.and(byDescription);
+				} else {
+					matches.or(byDescription);
+				}
+			} else if (name != null) {
+				matches = docs.names.matching(name, docs.size);
+			} else if (description != null) {
+				matches = docs.descriptions.matching(description, docs.size);
+			} else {
+				matches = (BitSet) docs.live.clone();
+			}
+			matches.and(docs.live);
+
+			return matches.stream() //
+					.mapToObj(ordinal -> new Hit(ordinal, docs.score(ordinal, name, description), docs.nameLength(ordinal),
+							docs.ids[ordinal])) //
+					.sorted(Hit.BEST_FIRST) //
+					.map(hit -> docs.toItem(hit.ordinal)) //
+					.collect(Collectors.toList());
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Every item whose name and description pass {@code test}, in id order, case folded first if {@code folded} is
+	 * set. A plain scan with no gram lookups, for callers that bring their own predicate.
+	 */
+	List<Item> scan(boolean folded, BiPredicate<String, String> test) {
+		this.lock.readLock().lock();
+		try {
+			Documents docs = this.documents;
+			String[] names = folded ? docs.names.folded : docs.originalNames;
+			String[] descriptions = folded ? docs.descriptions.folded : docs.originalDescriptions;
+
+			List<Item> items = new ArrayList<>();
+			for (int ordinal = docs.live.nextSetBit(0); ordinal >= 0; ordinal = docs.live.nextSetBit(ordinal + 1)) {
+				if (test.test(names[ordinal], descriptions[ordinal])) {
+					items.add(docs.toItem(ordinal));
+				}
+			}
+			items.sort(Comparator.comparing(Item::getId));
+			return items;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	private void compactIfNeeded() {
+		int live = this.documents.live.cardinality();
+		int dead = this.documents.size - live;
+		if (dead > MIN_COMPACTION && dead > live) {
+			this.documents = this.documents.compact();
+		}
+	}
+
+	static String fold(String text) {
+		return text.toLowerCase(Locale.ROOT);
+	}
+
+	private static long gram(CharSequence text, int start) {
+		return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+	}
+
+	private static String ungram(long gram) {
+		return new String(new char[] { (char) (gram >>> 32), (char) (gram >>> 16), (char) gram });
+	}
+
+	private static final class Hit {
+
+		static final Comparator<Hit> BEST_FIRST = Comparator.<Hit> comparingInt(hit -> -hit.score) //
+				.thenComparingInt(hit -> hit.nameLength) //
+				.thenComparingInt(hit -> hit.id);
+
+		private final int ordinal;
+		private final int score;
+		private final int nameLength;
+		private final int id;
+
+		Hit(int ordinal, int score, int nameLength, int id) {
+			this.ordinal = ordinal;
+			this.score = score;
+			this.nameLength = nameLength;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Every item added so far, by ordinal. An item that changes gets a new ordinal, so posting lists stay sorted.
+	 */
+	private static final class Documents {
+
+		private int[] ids = new int[1024];
+		private String[] originalNames = new String[1024];
+		private String[] originalDescriptions = new String[1024];
+		private double[] prices = new double[1024];
+		private final BitSet live = new BitSet();
+		private final Map<Integer, Integer> ordinals = new HashMap<>();
+		private final Field names = new Field();
+		private final Field descriptions = new Field();
+		private int size;
+
+		void add(Item item) {
+			if (this.size == this.ids.length) {
+				int capacity = this.size + (this.size >> 1);
+				this.ids = Arrays.copyOf(this.ids, capacity);
+				this.originalNames = Arrays.copyOf(this.originalNames, capacity);
+				this.originalDescriptions = Arrays.copyOf(this.originalDescriptions, capacity);
+				this.prices = Arrays.copyOf(this.prices, capacity);
+			}
+			int ordinal = this.size++;
+			this.ids[ordinal] = item.getId();
+			this.originalNames[ordinal] = item.getName();
+			this.originalDescriptions[ordinal] = item.getDescription();
+			this.prices[ordinal] = item.getPrice();
+			this.names.add(ordinal, item.getName());
+			this.descriptions.add(ordinal, item.getDescription());
+			this.live.set(ordinal);
+			this.ordinals.put(item.getId(), ordinal);
+		}
+
+		void remove(Integer id) {
+			Integer ordinal = this.ordinals.remove(id);
+			if (ordinal != null) {
+				this.live.clear(ordinal);
+			}
+		}
+
+		Documents compact() {
+			Documents compacted = new Documents();
+			this.live.stream().forEach(ordinal -> compacted.add(toItem(ordinal)));
+			return compacted;
+		}
+
+		Item toItem(int ordinal) {
+			Item item = new Item(this.originalNames[ordinal], this.originalDescriptions[ordinal], this.prices[ordinal]);
+			item.setId(this.ids[ordinal]);
+			return item;
+		}
+
+		int nameLength(int ordinal) {
+			String name = this.names.text(ordinal);
+			return name == null ? Integer.MAX_VALUE : name.length();
+		}
+
+		int score(int ordinal, String name, String description) {
+			int score = 0;
+			if (name != null) {
+				score += 2 * placement(this.names.text(ordinal), name);
+			}
+			if (description != null) {
+				score += placement(this.descriptions.text(ordinal), description);
+			}
+			return score;
+		}
+
+		private static int placement(String text, String query) {
+			if (text == null || query.isEmpty()) {
+				return 0;
+			}
+			if (text.equals(query)) {
+				return 4;
+			}
+			int best = 0;
+			for (int at = text.indexOf(query); at >= 0 && best < 3; at = text.indexOf(query, at + 1)) {
+				best = Math.max(best, at == 0 ? 3 : Character.isLetterOrDigit(text.charAt(at - 1)) ? 1 : 2);
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * The folded text of one field, and its gram postings.
+	 */
+	private static final class Field {
+
+		private String[] folded = new String[1024];
+		private final Map<Long, Postings> grams = new HashMap<>();
+
+		void add(int ordinal, String text) {
+			if (ordinal == this.folded.length) {
+				this.folded = Arrays.copyOf(this.folded, ordinal + (ordinal >> 1));
+			}
+			if (text == null) {
+				return;
+			}
+			String folded = fold(text);
+			this.folded[ordinal] = folded;
+
+			StringBuilder padded = new StringBuilder(folded.length() + 2).append(BOUNDARY).append(folded)
+					.append(BOUNDARY);
+			for (int start = 0; start + GRAM <= padded.length(); start++) {
+				this.grams.computeIfAbsent(gram(padded, start), gram -> new Postings()).add(ordinal);
+			}
+		}
+
+		String text(int ordinal) {
+			return this.folded[ordinal];
+		}
+
+		BitSet matching(String query, int size) {
+			BitSet matches = new BitSet();
+			if (query.isEmpty()) {
+				for (int ordinal = 0; ordinal < size; ordinal++) {
+					if (this.folded[ordinal] != null) {
+						matches.set(ordinal);
+					}
+				}
+			} else if (query.length() >= GRAM) {
+				Postings rarest = null;
+				for (int start = 0; start + GRAM <= query.length(); start++) {
+					Postings postings = this.grams.get(gram(query, start));
+					if (postings == null) {
+						return matches;
+					}
+					if (rarest == null || postings.size < rarest.size) {
+						rarest = postings;
+					}
+				}
+				confirm(rarest, query, matches);
+			} else {
+				List<Postings> containing = new ArrayList<>();
+				this.grams.forEach((gram, postings) -> {
+					if (ungram(gram).contains(query)) {
+						containing.add(postings);
+					}
+				});
+				containing.forEach(postings -> confirm(postings, query, matches));
+			}
+			return matches;
+		}
+
+		private void confirm(Postings candidates, String query, BitSet matches) {
+			for (int i = 0; i < candidates.size; i++) {
+				int ordinal = candidates.ordinals[i];
+				if (!matches.get(ordinal) && this.folded[ordinal].contains(query)) {
+					matches.set(ordinal);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ascending ordinals, each recorded once.
+	 */
+	private static final class Postings {
+
+		private int[] ordinals = new int[4];
+		private int size;
+
+		void add(int ordinal) {
+			if (this.size > 0 && this.ordinals[this.size - 1] == ordinal) {
+				return;
+			}
+			if (this.size == this.ordinals.length) {
+				this.ordinals = Arrays.copyOf(this.ordinals, this.size << 1);
+			}
+			this.ordinals[this.size++] = ordinal;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Checks {@link ItemExampleSearch}, against the database and against the cached items, with the Spring Data query by
+ * example it stands in for, and counts the statements each takes at 10k items. The benchmark times all three at 10k
+ * and 100k items.
+ */
+@DataJpaTest(properties = { "spring.datasource.url=jdbc:h2:file:./target/example-search;DB_CLOSE_ON_EXIT=FALSE",
+		"spring.jpa.hibernate.ddl-auto=create-drop", "spring.jpa.properties.hibernate.generate_statistics=true",
+		"logging.level.org.springframework=INFO", "logging.level.org.springframework.data=INFO",
+		"logging.level.org.hibernate=INFO", "logging.level.com.greglturnquist=INFO" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ ItemSearchIndex.class, ItemExampleSearch.class, InventoryService.class })
+public class ItemExampleSearchTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ItemExampleSearchTest.class);
+
+	private static final int FIRST_ID = 10_000_000;
+
+	private static final int ROUNDS = 20;
+
+	private static final Object[][] SEARCHES = { { "widget 4242", null, false }, { null, "aisle 17 ", false },
+			{ "widget 99", "aisle 99 ", true }, { "widget 777", "aisle 5 ", false } };
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired ItemExampleSearch exampleSearch;
+
+	@Autowired ItemSearchIndex index;
+
+	@Autowired ItemRepository repository;
+
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	@Autowired EntityManagerFactory entityManagerFactory;
+
+	List<Item> saved = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		this.repository.deleteAll(this.saved);
+		if (this.jdbcTemplate.update("delete from item where id >= ?", FIRST_ID) > 0) {
+			this.index.rebuild();
+		}
+	}
+
+	@Test
+	void findsWhatSpringDataFinds() {
+		save("Alf ALARM clock", "kids clock");
+		save("Smurf TV tray", "kids TV tray");
+		save("TV", null);
+		save("100% cotton_towel", "bath");
+		save("100 cotton towels", "not what 100% means");
+
+		String[][] searches = { { "alarm", null }, { "TV", null }, { "tv", "tray" }, { "v", "o" }, { null, "KIDS" },
+				{ "", null }, { null, null }, { "100%", null }, { "n_t", "100%" }, { "no such item", null } };
+		for (String[] search : searches) {
+			for (boolean useAnd : new boolean[] { true, false }) {
+				String description = String.format("%s and=%s", Arrays.toString(search), useAnd);
+				Set<Integer> expected = ids(this.inventoryService.searchByExampleMatcher(search[0], search[1], useAnd));
+
+				assertThat(ids(this.inventoryService.searchByExample(search[0], search[1], useAnd))).as(description)
+						.isEqualTo(expected);
+				assertThat(ids(this.exampleSearch.scan(search[0], search[1], useAnd, true))).as(description)
+						.isEqualTo(expected);
+				assertThat(ids(this.exampleSearch.scan(search[0], search[1], useAnd, false))).as(description)
+						.isEqualTo(ids(this.exampleSearch.query(search[0], search[1], useAnd, false)));
+			}
+		}
+	}
+
+	@Test
+	void compilesEachShapeOnce() {
+		save("Lava lamp", "groovy");
+
+		this.inventoryService.searchByExample("lava", null, true);
+		int shapes = this.exampleSearch.shapes();
+		assertThat(ids(this.inventoryService.searchByExample("LAMP", null, true))).hasSize(1);
+		assertThat(this.inventoryService.searchByExample("plasma", null, true)).isEmpty();
+		assertThat(this.exampleSearch.shapes()).isEqualTo(shapes);
+
+		this.inventoryService.searchByExample("lava", "groovy", false);
+		assertThat(this.exampleSearch.shapes()).isBetween(shapes, shapes + 1);
+		shapes = this.exampleSearch.shapes();
+		assertThat(this.inventoryService.searchByExample("plasma", "GROOVY", false)).hasSize(1);
+		assertThat(this.exampleSearch.shapes()).isEqualTo(shapes);
+	}
+
+	@Test
+	void compiledSearchesTakeOneStatementAndScansNone() {
+		insertWidgets(10_000);
+		Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		for (Object[] search : SEARCHES) {
+			String name = (String) search[0];
+			String description = (String) search[1];
+			boolean useAnd = (Boolean) search[2];
+			Set<Integer> expected = ids(this.inventoryService.searchByExampleMatcher(name, description, useAnd));
+			assertThat(expected).isNotEmpty();
+
+			statistics.clear();
+			assertThat(ids(this.exampleSearch.query(name, description, useAnd, true))).isEqualTo(expected);
+			assertThat(statistics.getPrepareStatementCount()).isOne();
+
+			statistics.clear();
+			assertThat(ids(this.exampleSearch.scan(name, description, useAnd, true))).isEqualTo(expected);
+			assertThat(statistics.getPrepareStatementCount()).isZero();
+		}
+	}
+
+	@Tag("benchmark")
+	@ParameterizedTest
+	@ValueSource(ints = { 10_000, 100_000 })
+	void compiledSearchesAgainstQueryByExample(int rows) {
+		insertWidgets(rows);
+
+		long matcherNanos = 0;
+		long compiledNanos = 0;
+		long inMemoryNanos = 0;
+		for (Object[] search : SEARCHES) {
+			String name = (String) search[0];
+			String description = (String) search[1];
+			boolean useAnd = (Boolean) search[2];
+
+			Set<Integer> expected = ids(this.inventoryService.searchByExampleMatcher(name, description, useAnd));
+			assertThat(ids(this.exampleSearch.scan(name, description, useAnd, true))).isEqualTo(expected);
+
+			long matcher = time(() -> this.inventoryService.searchByExampleMatcher(name, description, useAnd));
+			long compiled = time(() -> this.exampleSearch.query(name, description, useAnd, true));
+			long inMemory = time(() -> this.exampleSearch.scan(name, description, useAnd, true));
+			log.info("{} items, {} matches for name={} description={} and={}: query by example {} us, "
+					+ "compiled {} us, in memory {} us", rows, expected.size(), name, description, useAnd,
+					matcher / 1000 / ROUNDS, compiled / 1000 / ROUNDS, inMemory / 1000 / ROUNDS);
+			matcherNanos += matcher;
+			compiledNanos += compiled;
+			inMemoryNanos += inMemory;
+		}
+
+		log.info("{} items: query by example {} ms, compiled {} ms, in memory {} ms, over {} rounds", rows,
+				matcherNanos / 1_000_000, compiledNanos / 1_000_000, inMemoryNanos / 1_000_000, ROUNDS);
+	}
+
+	private void insertWidgets(int rows) {
+		this.jdbcTemplate.update("insert into item (id, name, description, price) " //
+				+ "select x, 'Widget ' || (x - ?), 'aisle ' || mod(x, 1000) || ' shelf', 9.99 from system_range(?, ?)",
+				FIRST_ID, FIRST_ID, FIRST_ID + rows - 1);
+		this.index.rebuild();
+	}
+
+	private Item save(String name, String description) {
+		Item item = this.repository.save(new Item(name, description, 1.0));
+		this.saved.add(item);
+		return item;
+	}
+
+	private static long time(Runnable search) {
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			search.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static Set<Integer> ids(Iterable<Item> items) {
+		return StreamSupport.stream(items.spliterator(), false) //
+				.map(Item::getId) //
+				.collect(Collectors.toCollection(TreeSet::new));
+	}
+}
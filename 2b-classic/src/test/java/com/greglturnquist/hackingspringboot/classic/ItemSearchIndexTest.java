@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checks {@link ItemSearchIndex} against the derived queries it replaces, at 10k items without a single statement.
+ * The benchmark races the two at 100k and 1M items. The database is file-backed, so a million rows do not sit on the
+ * heap next to the index. Tests run outside a transaction, since the index only hears about commits.
+ */
+@DataJpaTest(properties = { "spring.datasource.url=jdbc:h2:file:./target/search-index;DB_CLOSE_ON_EXIT=FALSE",
+		"spring.jpa.hibernate.ddl-auto=create-drop", "spring.jpa.properties.hibernate.generate_statistics=true",
+		"logging.level.org.springframework=INFO", "logging.level.org.hibernate=INFO",
+		"logging.level.com.greglturnquist=INFO" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ ItemSearchIndex.class, ItemExampleSearch.class, InventoryService.class })
+public class ItemSearchIndexTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ItemSearchIndexTest.class);
+
+	private static final int FIRST_ID = 10_000_000;
+
+	private static final int ROUNDS = 5;
+
+	private static final Object[][] SEARCHES = { { "widget 4242", null, false }, { null, "aisle 17 ", false },
+			{ "widget 99", "aisle 99 ", true }, { "widget 777", "aisle 5 ", false } };
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired ItemSearchIndex index;
+
+	@Autowired ItemRepository repository;
+
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	@Autowired TransactionTemplate transactionTemplate;
+
+	@Autowired EntityManagerFactory entityManagerFactory;
+
+	List<Item> saved = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		this.repository.deleteAll(this.saved);
+		if (this.jdbcTemplate.update("delete from item where id >= ?", FIRST_ID) > 0) {
+			this.index.rebuild();
+		}
+	}
+
+	@Test
+	void findsWhatTheDerivedQueriesFind() {
+		save("Alf ALARM clock", "kids clock");
+		save("Smurf TV tray", "kids TV tray");
+		save("TV", null);
+		save("Clockwork orange", "a book, not a clock");
+
+		String[][] searches = { { "alarm", null }, { "TV", null }, { "tv", "tray" }, { "t", null }, { "v", "o" },
+				{ null, "kids" }, { null, "CLOCK" }, { "", null }, { null, null }, { "no such item", null } };
+		for (String[] search : searches) {
+			for (boolean useAnd : new boolean[] { true, false }) {
+				assertThat(ids(this.inventoryService.search(search[0], search[1], useAnd))) //
+						.as("%s and=%s", Arrays.toString(search), useAnd) //
+						.isEqualTo(ids(this.inventoryService.searchByQuery(search[0], search[1], useAnd)));
+			}
+		}
+	}
+
+	@Test
+	void bestMatchesComeFirst() {
+		save("Anticlockwise spinner", "clock");
+		save("Alarm clock", "loud");
+		save("Clock radio", "music");
+		save("clock", "plain");
+
+		assertThat(this.inventoryService.search("CLOCK", null, false)) //
+				.extracting(Item::getName) //
+				.containsExactly("clock", "Clock radio", "Alarm clock", "Anticlockwise spinner");
+		// the name counts for more than the description
+		assertThat(this.inventoryService.search("spin", "clock", false)) //
+				.extracting(Item::getName) //
+				.startsWith("Anticlockwise spinner");
+	}
+
+	@Test
+	void writesShowUpOnceCommitted() {
+		Item item = save("Lava lamp", "groovy");
+		assertThat(this.index.search("lava", null, false)).extracting(Item::getId).containsExactly(item.getId());
+
+		item.setName("Plasma lamp");
+		this.repository.save(item);
+		assertThat(this.index.search("lava", null, false)).isEmpty();
+		assertThat(this.index.search("plasma", null, false)).extracting(Item::getName).containsExactly("Plasma lamp");
+
+		this.transactionTemplate.executeWithoutResult(status -> {
+			this.repository.save(new Item("Rolled back lamp", "never committed", 1.0));
+			status.setRollbackOnly();
+		});
+		assertThat(this.index.search("rolled back", null, false)).isEmpty();
+
+		this.repository.delete(item);
+		this.saved.remove(item);
+		assertThat(this.index.search("plasma", null, false)).isEmpty();
+	}
+
+	@Test
+	void searchesAgreeWithTheDerivedQueriesWithoutTheDatabase() {
+		insertWidgets(10_000);
+		Statistics statistics = statistics();
+
+		for (Object[] search : SEARCHES) {
+			String name = (String) search[0];
+			String description = (String) search[1];
+			boolean useAnd = (Boolean) search[2];
+
+			statistics.clear();
+			Set<Integer> expected = ids(this.inventoryService.searchByQuery(name, description, useAnd));
+			assertThat(statistics.getPrepareStatementCount()).isPositive();
+
+			statistics.clear();
+			assertThat(ids(this.inventoryService.search(name, description, useAnd))) //
+					.as("%s", Arrays.toString(search)) //
+					.isEqualTo(expected) //
+					.isNotEmpty();
+			assertThat(statistics.getPrepareStatementCount()).isZero();
+		}
+	}
+
+	@Tag("benchmark")
+	@ParameterizedTest
+	@ValueSource(ints = { 100_000, 1_000_000 })
+	void indexAgainstTheDerivedQueries(int rows) {
+		insertWidgets(rows);
+
+		long indexNanos = 0;
+		long queryNanos = 0;
+		for (Object[] search : SEARCHES) {
+			String name = (String) search[0];
+			String description = (String) search[1];
+			boolean useAnd = (Boolean) search[2];
+
+			Set<Integer> expected = ids(this.inventoryService.searchByQuery(name, description, useAnd));
+			assertThat(ids(this.inventoryService.search(name, description, useAnd))).isEqualTo(expected);
+
+			long indexed = time(() -> this.inventoryService.search(name, description, useAnd));
+			long queried = time(() -> this.inventoryService.searchByQuery(name, description, useAnd));
+			log.info("{} items, {} matches for name={} description={} and={}: index {} us, derived query {} us", rows,
+					expected.size(), name, description, useAnd, indexed / 1000, queried / 1000);
+			indexNanos += indexed;
+			queryNanos += queried;
+		}
+
+		log.info("{} items: index {} ms, derived queries {} ms, over {} rounds", rows, indexNanos / 1_000_000,
+				queryNanos / 1_000_000, ROUNDS);
+	}
+
+	private void insertWidgets(int rows) {
+		this.jdbcTemplate.update("insert into item (id, name, description, price) " //
+				+ "select x, 'Widget ' || (x - ?), 'aisle ' || mod(x, 1000) || ' shelf', 9.99 from system_range(?, ?)",
+				FIRST_ID, FIRST_ID, FIRST_ID + rows - 1);
+		long start = System.nanoTime();
+		this.index.rebuild();
+		log.info("{} items: index built in {} ms", rows, (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private Statistics statistics() {
+		return this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	private Item save(String name, String description) {
+		Item item = this.repository.save(new Item(name, description, 1.0));
+		this.saved.add(item);
+		return item;
+	}
+
+	private static long time(Runnable search) {
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			search.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static Set<Integer> ids(Iterable<Item> items) {
+		return StreamSupport.stream(items.spliterator(), false) //
+				.map(Item::getId) //
+				.collect(Collectors.toCollection(TreeSet::new));
+	}
+}
@@ -23,8 +23,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
+import org.springframework.hateoas.Affordance;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.IanaLinkRelations;
@@ -40,8 +40,11 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.greglturnquist.hackingspringboot.classic.LinkTemplates.LinkTemplate;
+
 /**
  * @author Greg Turnquist
  */
@@ -49,10 +52,14 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class AffordancesItemController {
 
-	private final ItemRepository repository;
+	private final ItemCatalog catalog;
+	private final LinkTemplate itemLink;
+	private final LinkTemplate itemsLink;
 
-	public AffordancesItemController(ItemRepository repository) {
-		this.repository = repository;
+	public AffordancesItemController(ItemCatalog catalog, LinkTemplates linkTemplates) {
+		this.catalog = catalog;
+		this.itemLink = linkTemplates.forMethod(AffordancesItemController.class, "findOne");
+		this.itemsLink = linkTemplates.forMethod(AffordancesItemController.class, "findAll");
 	}
 	// end::intro[]
 
@@ -76,32 +83,64 @@ public class AffordancesItemController {
 	CollectionModel<EntityModel<Item>> findAll() {
 		AffordancesItemController controller = methodOn(AffordancesItemController.class);
 
-		Link aggregateRoot = linkTo(controller.findAll()) //
-				.withSelfRel() //
+		Link aggregateRoot = this.itemsLink.expand(IanaLinkRelations.SELF) //
 				.andAffordance(afford(controller.addNewItem(null))); // <1>
 
+		Affordance updateAffordance = afford(controller.updateItem(null, null));
+
+		Link aggregateLink = this.itemsLink.expand(IanaLinkRelations.ITEM);
+
 		List<EntityModel<Item>> entityModels = //
-				StreamSupport.stream(this.repository.findAll().spliterator(), false) // <2>
-						.map(item -> findOne(item.getId())) // <3>
+				this.catalog.findAll().stream() // <2>
+						.map(item -> EntityModel.of(item, //
+								this.itemLink.expand(IanaLinkRelations.SELF, item.getId()).andAffordance(updateAffordance), //
+								aggregateLink)) // <3>
 						.collect(Collectors.toList());
 
 		return CollectionModel.of(entityModels, aggregateRoot); // <4>
 	}
 	// end::find-all[]
 
+	// tag::paged[]
+	@GetMapping(value = "/affordances/items", params = "page")
+	CollectionModel<EntityModel<Item>> findPage(@RequestParam int page, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findPage(page, size));
+	}
+
+	@GetMapping(value = "/affordances/items", params = "after")
+	CollectionModel<EntityModel<Item>> findAfter(@RequestParam Integer after, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findAfter(after, size));
+	}
+
+	@GetMapping(value = "/affordances/items", params = "before")
+	CollectionModel<EntityModel<Item>> findBefore(@RequestParam Integer before, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findBefore(before, size));
+	}
+
+	private CollectionModel<EntityModel<Item>> toModel(ItemPage page) {
+		Affordance updateAffordance = afford(methodOn(AffordancesItemController.class).updateItem(null, null));
+		Link aggregateLink = this.itemsLink.expand(IanaLinkRelations.ITEM);
+
+		return page.toModel(item -> EntityModel.of(item, //
+				this.itemLink.expand(IanaLinkRelations.SELF, item.getId()).andAffordance(updateAffordance), //
+				aggregateLink));
+	}
+	// end::paged[]
+
 	// tag::find-one[]
 	@GetMapping("/affordances/items/{id}") // <1>
 	EntityModel<Item> findOne(@PathVariable Integer id) {
 		AffordancesItemController controller = methodOn(AffordancesItemController.class); // <2>
 
-		Link selfLink = linkTo(controller.findOne(id)) //
-				.withSelfRel() //
+		Link selfLink = this.itemLink.expand(IanaLinkRelations.SELF, id) //
 				.andAffordance(afford(controller.updateItem(null, id))); // <3>
 
-		Link aggregateLink = linkTo(controller.findAll()) //
-				.withRel(IanaLinkRelations.ITEM);
+		Link aggregateLink = this.itemsLink.expand(IanaLinkRelations.ITEM);
 
-		return this.repository.findById(id) //
+		return this.catalog.findById(id) //
 				.map(item -> EntityModel.of(item, selfLink, aggregateLink)) //
 				.orElseThrow(() -> new IllegalStateException("Couldn't find item " + id));
 	}
@@ -111,7 +150,7 @@ public class AffordancesItemController {
 	@PostMapping("/affordances/items") // <1>
 	ResponseEntity<?> addNewItem(@RequestBody EntityModel<Item> itemEntity) { // <2>
 		Item content = itemEntity.getContent(); // <3>
-		Item savedItem = this.repository.save(content); // <4>
+		Item savedItem = this.catalog.save(content); // <4>
 		EntityModel<Item> newModel = findOne(savedItem.getId()); // <5>
 
 		return ResponseEntity // <6>
@@ -128,7 +167,7 @@ public class AffordancesItemController {
 		Item newItem = new Item(id, content.getName(), // <3>
 				content.getDescription(), content.getPrice());
 
-		this.repository.save(newItem); // <4>
+		this.catalog.save(newItem); // <4>
 
 		return ResponseEntity.noContent() //
 				.location(findOne(id).getRequiredLink(IanaLinkRelations.SELF).toUri()) // <5>
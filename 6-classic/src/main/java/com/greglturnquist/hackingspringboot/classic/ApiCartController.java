@@ -17,6 +17,7 @@
 package com.greglturnquist.hackingspringboot.classic;
 
 import java.util.Arrays;
+import java.util.List;
 
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -37,29 +38,29 @@ public class ApiCartController {
 	}
 
 	@GetMapping("/api/carts")
-	Iterable<Cart> findAll() {
-		Iterable<Cart> carts = this.service.getAllCarts();
+	List<CartView> findAll() {
+		List<CartView> carts = this.service.getAllCartViews();
 
-		if (carts.iterator().hasNext()) {
+		if (!carts.isEmpty()) {
 			return carts;
 		} else {
-			return Arrays.asList(this.service.newCart());
+			return Arrays.asList(CartView.of(this.service.newCart()));
 		}
 	}
 
 	@GetMapping("/api/carts/{id}")
-	Cart findOne(@PathVariable String id) {
-		return this.service.getCart(id) //
+	CartView findOne(@PathVariable String id) {
+		return this.service.getCartView(id) //
 				.orElseThrow(() -> new IllegalStateException("Could find cart " + id));
 	}
 
 	@PostMapping("/api/carts/{cartId}/add/{itemId}")
-	Cart addToCart(@PathVariable String cartId, @PathVariable Integer itemId) {
+	CartView addToCart(@PathVariable String cartId, @PathVariable Integer itemId) {
 		return this.service.addItemToCart(cartId, itemId);
 	}
 
 	@DeleteMapping("/api/carts/{cartId}/remove/{itemId}")
-	Cart removeFromCart(@PathVariable String cartId, @PathVariable Integer itemId) {
+	CartView removeFromCart(@PathVariable String cartId, @PathVariable Integer itemId) {
 		return this.service.removeOneFromCart(cartId, itemId);
 	}
 }
@@ -18,13 +18,16 @@ package com.greglturnquist.hackingspringboot.classic;
 
 import java.net.URI;
 import java.util.Optional;
+import java.util.function.Function;
 
+import org.springframework.hateoas.CollectionModel;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -34,24 +37,48 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController // <1>
 public class ApiItemController {
 
-	private final ItemRepository repository; // <2>
+	private final ItemCatalog catalog; // <2>
 
-	public ApiItemController(ItemRepository repository) {
-		this.repository = repository; // <3>
+	public ApiItemController(ItemCatalog catalog) {
+		this.catalog = catalog; // <3>
 	}
 	// end::intro[]
 
 	// tag::all-items[]
 	@GetMapping("/api/items") // <1>
 	Iterable<Item> findAll() { // <2>
-		return this.repository.findAll(); // <3>
+		return this.catalog.findAll(); // <3>
 	}
 	// end::all-items[]
 
+	// tag::paged[]
+	@GetMapping(value = "/api/items", params = "page")
+	CollectionModel<Item> findPage(@RequestParam int page, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findPage(page, size));
+	}
+
+	@GetMapping(value = "/api/items", params = "after")
+	CollectionModel<Item> findAfter(@RequestParam Integer after, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findAfter(after, size));
+	}
+
+	@GetMapping(value = "/api/items", params = "before")
+	CollectionModel<Item> findBefore(@RequestParam Integer before, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findBefore(before, size));
+	}
+
+	private static CollectionModel<Item> toModel(ItemPage page) {
+		return page.toModel(Function.identity());
+	}
+	// end::paged[]
+
 	// tag::one-item[]
 	@GetMapping("/api/items/{id}") // <1>
 	Optional<Item> findOne(@PathVariable Integer id) { // <2>
-		return this.repository.findById(id); // <3>
+		return this.catalog.findById(id); // <3>
 	}
 	// end::one-item[]
 
@@ -59,7 +86,7 @@ public class ApiItemController {
 	@PostMapping("/api/items") // <1>
 	ResponseEntity<?> addNewItem(@RequestBody Item item) { // <2>
 
-		Item savedItem = this.repository.save(item);
+		Item savedItem = this.catalog.save(item);
 
 		return ResponseEntity // <3>
 				.created(URI.create("/api/items/" + //
@@ -77,7 +104,7 @@ public class ApiItemController {
 		Item newItem = new Item(id, item.getName(), item.getDescription(), // <4>
 				item.getPrice());
 
-		this.repository.save(newItem); // <5>
+		this.catalog.save(newItem); // <5>
 
 		return ResponseEntity.created(URI.create("/api/items/" + id)).build(); // <6>
 	}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Adds and removes cart lines as an upsert against the {@code cart_item} row. The common case (the item is already in
+ * the cart) is a single {@code UPDATE}; only the first click on an item pays for an insert. That insert bumps the
+ * cart's version, so a concurrent insert of the same line fails with an optimistic locking error, and a concurrent
+ * creation of the same cart with a duplicate key, instead of producing a second line. Callers retry both.
+ * <p>
+ * {@link #setQuantities(Map)} writes absolute quantities for many carts in one transaction, for
+ * {@link CartWriteBuffer}.
+ */
+@Service
+class AtomicCartService {
+
+	private final ItemRepository itemRepository;
+	private final CartRepository cartRepository;
+	private final CartItemRepository cartItemRepository;
+
+	AtomicCartService(ItemRepository itemRepository, CartRepository cartRepository,
+			CartItemRepository cartItemRepository) {
+		this.itemRepository = itemRepository;
+		this.cartRepository = cartRepository;
+		this.cartItemRepository = cartItemRepository;
+	}
+
+	@Transactional
+	public void addOne(String cartId, Integer itemId) {
+		if (this.cartItemRepository.incrementQuantity(cartId, itemId) > 0) {
+			return;
+		}
+
+		this.itemRepository.findById(itemId).ifPresent(item -> {
+			Cart cart = this.cartRepository.findVersionedById(cartId) //
+					.orElseGet(() -> this.cartRepository.save(new Cart(cartId)));
+
+			// the cart's creator may have committed this very line since our update missed it
+			if (this.cartItemRepository.existsByCartIdAndItemId(cartId, itemId)) {
+				this.cartItemRepository.incrementQuantity(cartId, itemId);
+				return;
+			}
+
+			CartItem cartItem = new CartItem(item);
+			cartItem.setCart(cart);
+			cart.getCartItems().add(cartItem); // the cart may outlive this transaction in an open session
+			this.cartItemRepository.save(cartItem);
+		});
+	}
+
+	@Transactional
+	public void removeOne(String cartId, Integer itemId) {
+		if (this.cartItemRepository.decrementQuantity(cartId, itemId) == 0) {
+			this.cartItemRepository.deleteLastOne(cartId, itemId);
+		}
+	}
+
+	@Transactional
+	public void setQuantities(Map<String, Map<Integer, Integer>> quantitiesByCart) {
+		quantitiesByCart.forEach((cartId, quantities) -> {
+			List<Integer> missing = new ArrayList<>();
+
+			quantities.forEach((itemId, quantity) -> {
+				if (quantity <= 0) {
+					this.cartItemRepository.deleteLine(cartId, itemId);
+				} else if (this.cartItemRepository.setQuantity(cartId, itemId, quantity) == 0) {
+					missing.add(itemId);
+				}
+			});
+
+			if (!missing.isEmpty()) {
+				Cart cart = this.cartRepository.findVersionedById(cartId) //
+						.orElseGet(() -> this.cartRepository.save(new Cart(cartId)));
+
+				this.itemRepository.findAllById(missing).forEach(item -> {
+					CartItem cartItem = new CartItem(item);
+					cartItem.setCart(cart);
+					cartItem.setQuantity(quantities.get(item.getId()));
+					this.cartItemRepository.save(cartItem);
+				});
+			}
+		});
+	}
+}
@@ -23,6 +23,9 @@ import javax.persistence.CascadeType;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
+import javax.persistence.Version;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
  * @author Greg Turnquist
@@ -33,6 +36,7 @@ class Cart {
 
 	private @Id String id;
 	private @OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, orphanRemoval = true) List<CartItem> cartItems;
+	private @JsonIgnore @Version Long version;
 
 	protected Cart() {}
 
@@ -62,6 +66,10 @@ class Cart {
 		this.cartItems = cartItems;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o)
@@ -23,6 +23,9 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import javax.persistence.Version;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
  * @author Greg Turnquist
@@ -32,9 +35,10 @@ import javax.persistence.ManyToOne;
 class CartItem {
 
 	private @Id @GeneratedValue Integer id;
-	private @ManyToOne(fetch = FetchType.LAZY) Cart cart;
+	private @JsonIgnore @ManyToOne(fetch = FetchType.LAZY) Cart cart;
 	private @ManyToOne(fetch = FetchType.LAZY) Item item;
 	private int quantity;
+	private @JsonIgnore @Version Long version;
 
 	protected CartItem() {}
 
@@ -92,13 +96,13 @@ class CartItem {
 		if (!(o instanceof CartItem))
 			return false;
 		CartItem cartItem = (CartItem) o;
-		return quantity == cartItem.quantity && Objects.equals(id, cartItem.id) && Objects.equals(cart, cartItem.cart)
-				&& Objects.equals(item, cartItem.item);
+		// not the cart: it compares its lines, which would compare their cart again
+		return quantity == cartItem.quantity && Objects.equals(id, cartItem.id) && Objects.equals(item, cartItem.item);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(id, cart, item, quantity);
+		return Objects.hash(id, item, quantity);
 	}
 
 	@Override
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Single-statement mutations of one {@link CartItem} row, addressed by cart and item instead of by loading the whole
+ * {@link Cart} aggregate. Updates are {@code versioned}, so they bump the row's version just as a managed update would.
+ */
+public interface CartItemRepository extends CrudRepository<CartItem, Integer> {
+
+	@Modifying(clearAutomatically = true)
+	@Query("update versioned CartItem ci set ci.quantity = ci.quantity + 1 where ci.cart.id = ?1 and ci.item.id = ?2")
+	int incrementQuantity(String cartId, Integer itemId);
+
+	@Modifying(clearAutomatically = true)
+	@Query("update versioned CartItem ci set ci.quantity = ci.quantity - 1 " //
+			+ "where ci.cart.id = ?1 and ci.item.id = ?2 and ci.quantity > 1")
+	int decrementQuantity(String cartId, Integer itemId);
+
+	@Modifying(clearAutomatically = true)
+	@Query("update versioned CartItem ci set ci.quantity = ?3 where ci.cart.id = ?1 and ci.item.id = ?2")
+	int setQuantity(String cartId, Integer itemId, int quantity);
+
+	boolean existsByCartIdAndItemId(String cartId, Integer itemId);
+
+	@Modifying(clearAutomatically = true)
+	@Query("delete from CartItem ci where ci.cart.id = ?1 and ci.item.id = ?2 and ci.quantity <= 1")
+	int deleteLastOne(String cartId, Integer itemId);
+
+	@Modifying(clearAutomatically = true)
+	@Query("delete from CartItem ci where ci.cart.id = ?1 and ci.item.id = ?2")
+	int deleteLine(String cartId, Integer itemId);
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Serializes mutations of the same cart inside this JVM. Cart ids hash onto a fixed array of locks, so memory stays
+ * at {@code cart.locks.stripes} locks however many carts there are. Two carts only wait on each other when they share
+ * a stripe. The time spent waiting for a stripe is recorded as the {@code cart.lock.wait} histogram.
+ * <p>
+ * This only covers callers in the same JVM. The versioned updates and {@link OptimisticRetry} still protect carts
+ * shared between instances.
+ */
+@Component
+class CartLocks {
+
+	private final ReentrantLock[] stripes;
+	private final int mask;
+	private final Timer waits;
+
+	CartLocks(@Value("${cart.locks.stripes:1024}") int stripes, MeterRegistry meterRegistry) {
+		int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+		this.stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+		this.mask = size - 1;
+		this.waits = Timer.builder("cart.lock.wait") //
+				.description("Time spent waiting for a cart's lock stripe") //
+				.publishPercentileHistogram() //
+				.register(meterRegistry);
+	}
+
+	int stripes() {
+		return this.stripes.length;
+	}
+
+	<T> T withLock(String cartId, Supplier<T> mutation) {
+		ReentrantLock lock = stripeFor(cartId);
+
+		long start = System.nanoTime();
+		lock.lock();
+		this.waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		try {
+			return mutation.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void run(String cartId, Runnable mutation) {
+		withLock(cartId, () -> {
+			mutation.run();
+			return null;
+		});
+	}
+
+	ReentrantLock stripeFor(String cartId) {
+		int hash = cartId.hashCode();
+		return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+	}
+}
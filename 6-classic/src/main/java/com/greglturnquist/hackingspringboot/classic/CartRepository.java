@@ -15,6 +15,13 @@
  */
 package com.greglturnquist.hackingspringboot.classic;
 
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
 /**
@@ -22,6 +29,16 @@ import org.springframework.data.repository.CrudRepository;
  */
 // tag::code[]
 public interface CartRepository extends CrudRepository<Cart, String> {
+	// end::code[]
+
+	// cart, lines and items in one statement, for read-only rendering
+	@Query("select distinct c from Cart c left join fetch c.cartItems ci left join fetch ci.item where c.id = ?1")
+	Optional<Cart> findCartWithItemsById(String id);
+
+	@Query("select distinct c from Cart c left join fetch c.cartItems ci left join fetch ci.item")
+	List<Cart> findAllCartsWithItems();
 
+	// bumps the cart's version on commit, so two transactions adding the same new line cannot both succeed
+	@Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+	Optional<Cart> findVersionedById(String id);
 }
-// end::code[]
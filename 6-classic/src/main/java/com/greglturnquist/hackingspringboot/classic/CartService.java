@@ -27,17 +27,23 @@ class CartService {
 
 	private final ItemRepository itemRepository;
 	private final CartRepository cartRepository;
+	private final CartLocks cartLocks;
 
 	CartService(ItemRepository itemRepository, // <2>
-			CartRepository cartRepository) {
+			CartRepository cartRepository, CartLocks cartLocks) {
 		this.itemRepository = itemRepository;
 		this.cartRepository = cartRepository;
+		this.cartLocks = cartLocks;
 	}
 
 	Cart addToCart(String cartId, Integer id) { // <3>
+		return this.cartLocks.withLock(cartId, () -> merge(cartId, id));
+	}
+
+	private Cart merge(String cartId, Integer id) {
 
 		Cart cart = this.cartRepository.findById(cartId) //
-				.orElseGet(() -> new Cart("My Cart")); // <3>
+				.orElseGet(() -> new Cart(cartId)); // <3>
 
 		cart.getCartItems().stream() //
 				.filter(cartItem -> cartItem.getItem().getId().equals(id)) //
@@ -50,6 +56,7 @@ class CartService {
 					this.itemRepository.findById(id) //
 							.map(item -> new CartItem(item)) //
 							.map(cartItem -> {
+								cartItem.setCart(cart);
 								cart.getCartItems().add(cartItem);
 								return cart;
 							}) //
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Write-behind mode for cart clicks, switched on with {@code cart.write-behind.enabled=true}. A click changes the
+ * cart's quantities in memory and marks the line dirty. Repeated clicks on one line coalesce, so ten adds become a
+ * single {@code UPDATE} with the final quantity. Dirty carts are written by {@link AtomicCartService#setQuantities}
+ * in transactions of up to {@code cart.write-behind.batch-size} carts. This happens every
+ * {@code cart.write-behind.interval}, as soon as {@code cart.write-behind.max-dirty} lines are waiting, and once more
+ * on shutdown.
+ * <p>
+ * Carts stay in memory until they are written, and reads of a buffered cart are answered from here, so a shopper
+ * always sees their own clicks. Written carts are dropped and reloaded on their next click. Whatever is buffered when
+ * the JVM dies is lost; that window is the price of the saved writes, and why this mode is opt-in. The flushed
+ * quantities are absolute, so a concurrent writer to the same line from outside this buffer loses.
+ * <p>
+ * A cart whose write fails is kept and tried again on the next flush, up to {@code cart.write-behind.max-failures}
+ * times in a row. After that its unsaved quantities are logged at ERROR and dropped, and the cart is reloaded from the
+ * database on its next click, so one cart that can never be written is not retried forever.
+ */
+@Component
+@ConditionalOnProperty(name = CartWriteBuffer.ENABLED, havingValue = "true")
+class CartWriteBuffer {
+
+	static final String ENABLED = "cart.write-behind.enabled";
+
+	private static final Logger log = LoggerFactory.getLogger(CartWriteBuffer.class);
+
+	private final CartRepository cartRepository;
+	private final ItemCatalog itemCatalog;
+	private final AtomicCartService atomicCartService;
+	private final int maxDirty;
+	private final int batchSize;
+	private final int maxFailures;
+
+	private final Map<String, BufferedCart> carts = new ConcurrentHashMap<>();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicInteger dirty = new AtomicInteger();
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private final ScheduledExecutorService flusher;
+
+	private final Counter clicks;
+	private final Counter writes;
+	private final Counter failures;
+	private final Counter dropped;
+	private final Timer flushes;
+
+	CartWriteBuffer(CartRepository cartRepository, ItemCatalog itemCatalog, AtomicCartService atomicCartService,
+			@Value("${cart.write-behind.interval:1s}") Duration interval,
+			@Value("${cart.write-behind.max-dirty:500}") int maxDirty,
+			@Value("${cart.write-behind.batch-size:100}") int batchSize,
+			@Value("${cart.write-behind.max-failures:5}") int maxFailures, MeterRegistry meterRegistry) {
+		this.cartRepository = cartRepository;
+		this.itemCatalog = itemCatalog;
+		this.atomicCartService = atomicCartService;
+		this.maxDirty = maxDirty;
+		this.batchSize = batchSize;
+		this.maxFailures = maxFailures;
+
+		this.clicks = Counter.builder("cart.write-behind.clicks") //
+				.description("Cart clicks absorbed by the write-behind buffer") //
+				.register(meterRegistry);
+		this.writes = Counter.builder("cart.write-behind.writes") //
+				.description("Cart lines written by write-behind flushes") //
+				.register(meterRegistry);
+		this.failures = Counter.builder("cart.write-behind.failures") //
+				.description("Cart writes that failed") //
+				.register(meterRegistry);
+		this.dropped = Counter.builder("cart.write-behind.dropped") //
+				.description("Carts whose unsaved quantities were dropped after repeated failed writes") //
+				.register(meterRegistry);
+		this.flushes = Timer.builder("cart.write-behind.flush") //
+				.description("Time taken by one write-behind flush") //
+				.register(meterRegistry);
+		meterRegistry.gauge("cart.write-behind.dirty", this.dirty);
+
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("cart-write-behind-"));
+		this.flusher.scheduleWithFixedDelay(this::flushQuietly, interval.toMillis(), interval.toMillis(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	void add(String cartId, Integer itemId) {
+		this.itemCatalog.findById(itemId).ifPresent(item -> update(cartId, cart -> cart.add(item)));
+	}
+
+	void remove(String cartId, Integer itemId) {
+		update(cartId, cart -> cart.remove(itemId));
+	}
+
+	Optional<Cart> getCart(String cartId) {
+		return buffered(cartId).map(BufferedCart::toCart);
+	}
+
+	Optional<CartView> getCartView(String cartId) {
+		return buffered(cartId).map(BufferedCart::toView);
+	}
+
+	int dirtyLines() {
+		return this.dirty.get();
+	}
+
+	/**
+	 * Writes every dirty line now. Runs on the flusher thread and on shutdown; callers never wait for it.
+	 */
+	synchronized void flush() {
+		this.flushRequested.set(false);
+		this.flushes.record(() -> {
+			List<BufferedCart> pending = this.carts.values().stream() //
+					.filter(BufferedCart::isDirty) //
+					.collect(Collectors.toList());
+
+			for (int from = 0; from < pending.size(); from += this.batchSize) {
+				write(pending.subList(from, Math.min(from + this.batchSize, pending.size())));
+			}
+
+			this.carts.values().forEach(this::evictIfClean);
+		});
+	}
+
+	@PreDestroy
+	void shutdown() throws InterruptedException {
+		this.flusher.shutdown();
+		this.flusher.awaitTermination(10, TimeUnit.SECONDS);
+		flush();
+	}
+
+	private void update(String cartId, CartMutation mutation) {
+		for (;;) {
+			BufferedCart cart = buffer(cartId);
+			synchronized (cart) {
+				if (cart.evicted) {
+					continue; // the flusher dropped this copy after writing it; start over from a fresh one
+				}
+				if (mutation.apply(cart)) {
+					this.dirty.incrementAndGet();
+				}
+			}
+			break;
+		}
+		this.clicks.increment();
+
+		if (this.dirty.get() >= this.maxDirty && !this.flusher.isShutdown()
+				&& this.flushRequested.compareAndSet(false, true)) {
+			this.flusher.execute(this::flushQuietly);
+		}
+	}
+
+	/**
+	 * The buffered copy of a cart, loading it if there is none. The load runs outside the map, so it holds up no other
+	 * cart. If any copy was evicted meanwhile, the load may predate that copy's write, so it is thrown away and redone.
+	 */
+	private BufferedCart buffer(String cartId) {
+		for (;;) {
+			BufferedCart cart = this.carts.get(cartId);
+			if (cart != null) {
+				return cart;
+			}
+
+			long evictionsBefore = this.evictions.get();
+			BufferedCart loaded = load(cartId);
+			cart = this.carts.compute(cartId, (id, current) -> current != null
+					|| this.evictions.get() != evictionsBefore ? current : loaded);
+			if (cart != null) {
+				return cart;
+			}
+		}
+	}
+
+	private Optional<BufferedCart> buffered(String cartId) {
+		return Optional.ofNullable(this.carts.get(cartId)).flatMap(cart -> {
+			synchronized (cart) {
+				return cart.evicted ? Optional.empty() : Optional.of(cart.copy());
+			}
+		});
+	}
+
+	private BufferedCart load(String cartId) {
+		BufferedCart cart = new BufferedCart(cartId);
+		this.cartRepository.findCartWithItemsById(cartId).ifPresent(existing -> existing.getCartItems() //
+				.forEach(cartItem -> cart.quantities.put(cartItem.getItem().getId(),
+						new BufferedLine(cartItem.getItem(), cartItem.getQuantity()))));
+		return cart;
+	}
+
+	private void write(List<BufferedCart> batch) {
+		Map<String, Map<Integer, Integer>> quantities = new LinkedHashMap<>();
+		batch.forEach(cart -> quantities.put(cart.id, cart.takeDirty()));
+		int lines = quantities.values().stream().mapToInt(Map::size).sum();
+
+		try {
+			this.atomicCartService.setQuantities(quantities);
+			this.writes.increment(lines);
+			this.dirty.addAndGet(-lines);
+			batch.forEach(BufferedCart::written);
+		} catch (RuntimeException e) {
+			// lines clicked again while in flight are dirty already and counted twice until now
+			this.dirty.addAndGet(-lines);
+			batch.forEach(cart -> this.dirty.addAndGet(cart.restoreDirty(quantities.get(cart.id).keySet())));
+
+			if (batch.size() == 1) {
+				this.failures.increment();
+				BufferedCart cart = batch.get(0);
+				if (cart.failed() < this.maxFailures) {
+					log.warn("Could not write cart {}, keeping it for the next flush", cart.id, e);
+				} else {
+					drop(cart, e);
+				}
+				return;
+			}
+			// retry cart by cart, so one bad cart doesn't hold up the rest
+			batch.forEach(cart -> write(Collections.singletonList(cart)));
+		}
+	}
+
+	private void drop(BufferedCart cart, RuntimeException cause) {
+		Map<Integer, Integer> unsaved;
+		synchronized (cart) {
+			unsaved = cart.takeDirty();
+			evict(cart);
+		}
+		this.dirty.addAndGet(-unsaved.size());
+		this.dropped.increment();
+		log.error("Could not write cart {} after {} attempts, dropping its unsaved quantities {} (item id=quantity)",
+				cart.id, this.maxFailures, unsaved, cause);
+	}
+
+	private void evictIfClean(BufferedCart cart) {
+		synchronized (cart) {
+			if (!cart.isDirty()) {
+				evict(cart);
+			}
+		}
+	}
+
+	/**
+	 * Counted before the copy leaves the map, so a load that started earlier cannot miss it. Callers hold the cart.
+	 */
+	private void evict(BufferedCart cart) {
+		cart.evicted = true;
+		this.evictions.incrementAndGet();
+		this.carts.remove(cart.id, cart);
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			log.warn("Write-behind flush failed", e);
+		}
+	}
+
+	private interface CartMutation {
+
+		/**
+		 * @return whether a clean line became dirty
+		 */
+		boolean apply(BufferedCart cart);
+	}
+
+	/**
+	 * One cart's current quantities, plus which lines differ from the database. Guarded by its own monitor.
+	 */
+	private static final class BufferedCart {
+
+		private final String id;
+		private final Map<Integer, BufferedLine> quantities = new LinkedHashMap<>();
+		private final Set<Integer> dirtyItems = new LinkedHashSet<>();
+		private int failures;
+		private boolean evicted;
+
+		BufferedCart(String id) {
+			this.id = id;
+		}
+
+		synchronized boolean add(Item item) {
+			this.quantities.computeIfAbsent(item.getId(), itemId -> new BufferedLine(item, 0)).quantity++;
+			return this.dirtyItems.add(item.getId());
+		}
+
+		synchronized boolean remove(Integer itemId) {
+			BufferedLine line = this.quantities.get(itemId);
+			if (line == null || line.quantity == 0) {
+				return false;
+			}
+			line.quantity--;
+			return this.dirtyItems.add(itemId);
+		}
+
+		synchronized boolean isDirty() {
+			return !this.dirtyItems.isEmpty();
+		}
+
+		synchronized Map<Integer, Integer> takeDirty() {
+			Map<Integer, Integer> changes = new HashMap<>();
+			this.dirtyItems.forEach(itemId -> changes.put(itemId, this.quantities.get(itemId).quantity));
+			this.dirtyItems.clear();
+			return changes;
+		}
+
+		/**
+		 * Marks lines dirty again after a failed write. Lines clicked since {@link #takeDirty()} are already dirty and
+		 * are only counted once.
+		 *
+		 * @return how many lines became dirty again
+		 */
+		synchronized int restoreDirty(Set<Integer> itemIds) {
+			int before = this.dirtyItems.size();
+			this.dirtyItems.addAll(itemIds);
+			return this.dirtyItems.size() - before;
+		}
+
+		synchronized void written() {
+			this.failures = 0;
+		}
+
+		/**
+		 * @return how many writes of this cart in a row have failed
+		 */
+		synchronized int failed() {
+			return ++this.failures;
+		}
+
+		synchronized BufferedCart copy() {
+			BufferedCart copy = new BufferedCart(this.id);
+			this.quantities.forEach(
+					(itemId, line) -> copy.quantities.put(itemId, new BufferedLine(line.item, line.quantity)));
+			return copy;
+		}
+
+		Cart toCart() {
+			Cart cart = new Cart(this.id);
+			lines().forEach(line -> {
+				CartItem cartItem = new CartItem(line.item);
+				cartItem.setCart(cart);
+				cartItem.setQuantity(line.quantity);
+				cart.getCartItems().add(cartItem);
+			});
+			return cart;
+		}
+
+		CartView toView() {
+			return new CartView(this.id, lines().stream() //
+					.map(line -> new CartView.Line(line.item.getId(), line.item.getName(), line.item.getPrice(),
+							line.quantity)) //
+					.collect(Collectors.toList()));
+		}
+
+		private List<BufferedLine> lines() {
+			return this.quantities.values().stream() //
+					.filter(line -> line.quantity > 0) //
+					.collect(Collectors.toCollection(ArrayList::new));
+		}
+	}
+
+	private static final class BufferedLine {
+
+		private final Item item;
+		private int quantity;
+
+		BufferedLine(Item item, int quantity) {
+			this.item = item;
+			this.quantity = quantity;
+		}
+	}
+}
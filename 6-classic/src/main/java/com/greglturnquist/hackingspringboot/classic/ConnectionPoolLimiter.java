@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Admits no more concurrent database calls than the connection pool has connections. Callers beyond that wait here,
+ * bounded by {@code requests.database.acquire-timeout}, rather than in Hikari's queue while holding whatever they
+ * hold. This matters most when requests are no longer capped by Tomcat's worker pool (see
+ * {@link RequestExecutionConfig}); without it, every request would go straight for a connection.
+ * <p>
+ * Calls nested inside an admitted call on the same thread pass straight through, so one request never waits for a
+ * second permit while holding the first.
+ */
+@Component
+class ConnectionPoolLimiter {
+
+	private final Semaphore permits;
+	private final int limit;
+	private final Duration acquireTimeout;
+	private final ThreadLocal<Boolean> admitted = ThreadLocal.withInitial(() -> false);
+
+	private final Timer waits;
+	private final Counter rejected;
+
+	ConnectionPoolLimiter(DataSource dataSource, @Value("${requests.database.max-concurrency:0}") int maxConcurrency,
+			@Value("${requests.database.acquire-timeout:5s}") Duration acquireTimeout, MeterRegistry meterRegistry) {
+		this.limit = maxConcurrency > 0 ? maxConcurrency : poolSize(dataSource);
+		this.permits = new Semaphore(this.limit, true);
+		this.acquireTimeout = acquireTimeout;
+
+		this.waits = Timer.builder("db.limiter.wait") //
+				.description("Time spent waiting for a database call slot") //
+				.publishPercentileHistogram() //
+				.register(meterRegistry);
+		this.rejected = Counter.builder("db.limiter.rejected") //
+				.description("Database calls turned away after waiting the full acquire timeout") //
+				.register(meterRegistry);
+		meterRegistry.gauge("db.limiter.active", this, limiter -> limiter.limit - limiter.permits.availablePermits());
+	}
+
+	int limit() {
+		return this.limit;
+	}
+
+	<T> T call(Supplier<T> databaseCall) {
+		if (this.admitted.get()) {
+			return databaseCall.get();
+		}
+
+		acquire();
+		this.admitted.set(true);
+		try {
+			return databaseCall.get();
+		} finally {
+			this.admitted.set(false);
+			this.permits.release();
+		}
+	}
+
+	void run(Runnable databaseCall) {
+		call(() -> {
+			databaseCall.run();
+			return null;
+		});
+	}
+
+	private void acquire() {
+		long start = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = this.permits.tryAcquire(this.acquireTimeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransientDataAccessResourceException("Interrupted waiting for a database call slot", e);
+		} finally {
+			this.waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+
+		if (!acquired) {
+			this.rejected.increment();
+			throw new TransientDataAccessResourceException(
+					"No database call slot became free within " + this.acquireTimeout.toMillis() + " ms");
+		}
+	}
+
+	private static int poolSize(DataSource dataSource) {
+		try {
+			if (dataSource.isWrapperFor(HikariDataSource.class)) {
+				return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+			}
+		} catch (SQLException e) {
+			// fall through to Hikari's default
+		}
+		return 10;
+	}
+}
@@ -23,7 +23,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
@@ -40,8 +39,11 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.greglturnquist.hackingspringboot.classic.LinkTemplates.LinkTemplate;
+
 /**
  * @author Greg Turnquist
  */
@@ -49,10 +51,14 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class HypermediaItemController {
 
-	private final ItemRepository repository;
+	private final ItemCatalog catalog;
+	private final LinkTemplate itemLink;
+	private final LinkTemplate itemsLink;
 
-	public HypermediaItemController(ItemRepository repository) {
-		this.repository = repository;
+	public HypermediaItemController(ItemCatalog catalog, LinkTemplates linkTemplates) {
+		this.catalog = catalog;
+		this.itemLink = linkTemplates.forMethod(HypermediaItemController.class, "findOne");
+		this.itemsLink = linkTemplates.forMethod(HypermediaItemController.class, "findAll");
 	}
 	// end::intro[]
 
@@ -75,28 +81,56 @@ public class HypermediaItemController {
 	// tag::find-all[]
 	@GetMapping("/hypermedia/items")
 	CollectionModel<EntityModel<Item>> findAll() {
+		Link aggregateLink = this.itemsLink.expand(IanaLinkRelations.ITEM);
 
-		List<EntityModel<Item>> entityModels = StreamSupport.stream(this.repository.findAll().spliterator(), false)
-				.map(item -> findOne(item.getId())) //
+		List<EntityModel<Item>> entityModels = this.catalog.findAll().stream() //
+				.map(item -> EntityModel.of(item, //
+						this.itemLink.expand(IanaLinkRelations.SELF, item.getId()), //
+						aggregateLink)) //
 				.collect(Collectors.toList());
 
 		return CollectionModel.of( //
 				entityModels, //
-				linkTo(methodOn(HypermediaItemController.class).findAll()).withSelfRel());
+				aggregateLink.withSelfRel());
 	}
 	// end::find-all[]
 
+	// tag::paged[]
+	@GetMapping(value = "/hypermedia/items", params = "page")
+	CollectionModel<EntityModel<Item>> findPage(@RequestParam int page, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findPage(page, size));
+	}
+
+	@GetMapping(value = "/hypermedia/items", params = "after")
+	CollectionModel<EntityModel<Item>> findAfter(@RequestParam Integer after, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findAfter(after, size));
+	}
+
+	@GetMapping(value = "/hypermedia/items", params = "before")
+	CollectionModel<EntityModel<Item>> findBefore(@RequestParam Integer before, //
+			@RequestParam(defaultValue = ItemPage.DEFAULT_SIZE) int size) {
+		return toModel(this.catalog.findBefore(before, size));
+	}
+
+	private CollectionModel<EntityModel<Item>> toModel(ItemPage page) {
+		Link aggregateLink = this.itemsLink.expand(IanaLinkRelations.ITEM);
+
+		return page.toModel(item -> EntityModel.of(item, //
+				this.itemLink.expand(IanaLinkRelations.SELF, item.getId()), //
+				aggregateLink));
+	}
+	// end::paged[]
+
 	// tag::find-one[]
 	@GetMapping("/hypermedia/items/{id}")
 	EntityModel<Item> findOne(@PathVariable Integer id) {
-		HypermediaItemController controller = methodOn(HypermediaItemController.class); // <1>
-
-		Link selfLink = linkTo(controller.findOne(id)).withSelfRel(); // <2>
+		Link selfLink = this.itemLink.expand(IanaLinkRelations.SELF, id); // <1>
 
-		Link aggregateLink = linkTo(controller.findAll()) //
-				.withRel(IanaLinkRelations.ITEM); // <3>
+		Link aggregateLink = this.itemsLink.expand(IanaLinkRelations.ITEM); // <2>
 
-		return this.repository.findById(id) // <4>
+		return this.catalog.findById(id) // <3>
 				.map(item -> EntityModel.of(item, selfLink, aggregateLink)) //
 				.orElseThrow(() -> new IllegalStateException("Couldn't find item " + id));
 	}
@@ -114,7 +148,7 @@ public class HypermediaItemController {
 
 		Link aggregateLink = linkTo(controller.findAll()).withRel(IanaLinkRelations.ITEM);
 
-		return this.repository.findById(id) //
+		return this.catalog.findById(id) //
 				.map(item -> EntityModel.of(item, selfLink, aggregateLink)) //
 				.orElseThrow(() -> new IllegalStateException("Could not find item " + id));
 	}
@@ -124,7 +158,7 @@ public class HypermediaItemController {
 	@PostMapping("/hypermedia/items")
 	ResponseEntity<?> addNewItem(@RequestBody EntityModel<Item> itemEntity) {
 		Item content = itemEntity.getContent();
-		Item savedItem = this.repository.save(content);
+		Item savedItem = this.catalog.save(content);
 
 		return ResponseEntity.created( //
 				findOne(savedItem.getId()).getRequiredLink(IanaLinkRelations.SELF).toUri()) //
@@ -140,7 +174,7 @@ public class HypermediaItemController {
 		Item newItem = new Item(id, content.getName(), // <3>
 				content.getDescription(), content.getPrice());
 
-		this.repository.save(newItem);
+		this.catalog.save(newItem);
 
 		return ResponseEntity.noContent() //
 				.location(findOne(id).getRequiredLink(IanaLinkRelations.SELF).toUri()).build();
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of a bulk import, one entry per chunk, and why it stopped early if it did.
+ */
+public class ImportReport {
+
+	private final List<Chunk> chunks = new ArrayList<>();
+
+	private String error;
+
+	void add(Chunk chunk) {
+		this.chunks.add(chunk);
+	}
+
+	void stop(String error) {
+		this.error = error;
+	}
+
+	int size() {
+		return this.chunks.size();
+	}
+
+	public List<Chunk> getChunks() {
+		return Collections.unmodifiableList(chunks);
+	}
+
+	public int getCreated() {
+		return this.chunks.stream().mapToInt(chunk -> chunk.created ? chunk.items : 0).sum();
+	}
+
+	public int getFailed() {
+		return this.chunks.stream().mapToInt(chunk -> chunk.created ? 0 : chunk.items).sum();
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getError() {
+		return error;
+	}
+
+	public boolean isComplete() {
+		return getFailed() == 0 && this.error == null;
+	}
+
+	@Override
+	public String toString() {
+		return "ImportReport{" + "chunks=" + chunks + ", error='" + error + '\'' + '}';
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class Chunk {
+
+		private final int index;
+		private final int items;
+		private final boolean created;
+		private final Integer firstId;
+		private final Integer lastId;
+		private final String error;
+
+		private Chunk(int index, int items, boolean created, Integer firstId, Integer lastId, String error) {
+			this.index = index;
+			this.items = items;
+			this.created = created;
+			this.firstId = firstId;
+			this.lastId = lastId;
+			this.error = error;
+		}
+
+		static Chunk created(int index, List<Item> items) {
+			return new Chunk(index, items.size(), true, items.get(0).getId(), items.get(items.size() - 1).getId(), null);
+		}
+
+		static Chunk failed(int index, int items, String error) {
+			return new Chunk(index, items, false, null, null, error);
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getItems() {
+			return items;
+		}
+
+		public boolean isCreated() {
+			return created;
+		}
+
+		public Integer getFirstId() {
+			return firstId;
+		}
+
+		public Integer getLastId() {
+			return lastId;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return "Chunk{" + "index=" + index + ", items=" + items + ", created=" + created + ", firstId=" + firstId
+					+ ", lastId=" + lastId + ", error='" + error + '\'' + '}';
+		}
+	}
+}
@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 
 /**
@@ -29,83 +30,103 @@ import org.springframework.stereotype.Service;
 @Service
 class InventoryService {
 
-	private ItemRepository itemRepository;
+	private ItemCatalog itemCatalog;
 
 	private CartRepository cartRepository;
 
-	InventoryService(ItemRepository repository, CartRepository cartRepository) {
-		this.itemRepository = repository;
+	private AtomicCartService atomicCartService;
+
+	private OptimisticRetry retry;
+
+	private CartLocks cartLocks;
+
+	private CartWriteBuffer writeBuffer; // null unless write-behind is enabled
+
+	private ConnectionPoolLimiter limiter;
+
+	InventoryService(ItemCatalog itemCatalog, CartRepository cartRepository, AtomicCartService atomicCartService,
+			OptimisticRetry retry, CartLocks cartLocks, ObjectProvider<CartWriteBuffer> writeBuffer,
+			ConnectionPoolLimiter limiter) {
+		this.itemCatalog = itemCatalog;
 		this.cartRepository = cartRepository;
+		this.atomicCartService = atomicCartService;
+		this.retry = retry;
+		this.cartLocks = cartLocks;
+		this.writeBuffer = writeBuffer.getIfAvailable();
+		this.limiter = limiter;
 	}
 
-	public Iterable<Cart> getAllCarts() {
-		return this.cartRepository.findAll();
+	public List<CartView> getAllCartViews() {
+		List<CartView> views = this.limiter.call(() -> this.cartRepository.findAllCartsWithItems().stream() //
+				.map(CartView::of) //
+				.collect(Collectors.toList()));
+		if (this.writeBuffer == null) {
+			return views;
+		}
+		return views.stream() //
+				.map(view -> this.writeBuffer.getCartView(view.getId()).orElse(view)) //
+				.collect(Collectors.toList());
 	}
 
 	public Cart newCart() {
-		return this.cartRepository.save(new Cart("cart"));
+		return this.limiter.call(() -> this.cartRepository.save(new Cart("cart")));
 	}
 
 	public Optional<Cart> getCart(String cartId) {
-		return this.cartRepository.findById(cartId);
+		if (this.writeBuffer != null) {
+			Optional<Cart> buffered = this.writeBuffer.getCart(cartId);
+			if (buffered.isPresent()) {
+				return buffered;
+			}
+		}
+		return this.limiter.call(() -> this.cartRepository.findById(cartId));
+	}
+
+	public Optional<CartView> getCartView(String cartId) {
+		if (this.writeBuffer != null) {
+			Optional<CartView> buffered = this.writeBuffer.getCartView(cartId);
+			if (buffered.isPresent()) {
+				return buffered;
+			}
+		}
+		return this.limiter.call(() -> this.cartRepository.findCartWithItemsById(cartId).map(CartView::of));
 	}
 
 	public Iterable<Item> getInventory() {
-		return this.itemRepository.findAll();
+		return this.limiter.call(this.itemCatalog::findAll);
 	}
 
 	Item saveItem(Item newItem) {
-		return this.itemRepository.save(newItem);
+		return this.limiter.call(() -> this.itemCatalog.save(newItem));
 	}
 
 	void deleteItem(Integer id) {
-		this.itemRepository.deleteById(id);
+		this.limiter.run(() -> this.itemCatalog.deleteById(id));
 	}
 
-	Cart addItemToCart(String cartId, Integer itemId) {
-		Cart cart = this.cartRepository.findById(cartId) //
-				.orElseGet(() -> new Cart("My Cart")); // <3>
-
-		cart.getCartItems().stream() //
-				.filter(cartItem -> cartItem.getItem().getId().equals(itemId)) //
-				.findAny() //
-				.map(cartItem -> {
-					cartItem.increment();
-					return cart;
-				}) //
-				.orElseGet(() -> {
-					this.itemRepository.findById(itemId) //
-							.map(item -> new CartItem(item)) //
-							.map(cartItem -> {
-								cart.getCartItems().add(cartItem);
-								return cart;
-							}) //
-							.orElseGet(() -> cart);
-					return cart;
-				});
-
-		return this.cartRepository.save(cart);
+	// mutations answer with a CartView: it is read with one fetch join, so it carries no lazy proxies to serialize
+	CartView addItemToCart(String cartId, Integer itemId) {
+		if (this.writeBuffer != null) {
+			this.limiter.run(() -> this.writeBuffer.add(cartId, itemId));
+			return currentView(cartId);
+		}
+		this.cartLocks.run(cartId, () -> this.retry.run("add", //
+				() -> this.limiter.run(() -> this.atomicCartService.addOne(cartId, itemId))));
+		return currentView(cartId);
 	}
 
-	Cart removeOneFromCart(String cartId, Integer itemId) {
-
-		Cart cart = this.cartRepository.findById(cartId) //
-				.orElseGet(() -> new Cart("My Cart")); // <3>
-
-		cart.getCartItems().stream() //
-				.filter(cartItem -> cartItem.getItem().getId().equals(itemId)) //
-				.findAny() //
-				.ifPresent(cartItem -> {
-					cartItem.decrement();
-				});
-
-		List<CartItem> updatedCartItems = cart.getCartItems().stream() //
-				.filter(cartItem -> cartItem.getQuantity() > 0) //
-				.collect(Collectors.toList());
-
-		cart.setCartItems(updatedCartItems);
+	CartView removeOneFromCart(String cartId, Integer itemId) {
+		if (this.writeBuffer != null) {
+			this.limiter.run(() -> this.writeBuffer.remove(cartId, itemId));
+			return currentView(cartId);
+		}
+		this.cartLocks.run(cartId, () -> this.retry.run("remove", //
+				() -> this.limiter.run(() -> this.atomicCartService.removeOne(cartId, itemId))));
+		return currentView(cartId);
+	}
 
-		return this.cartRepository.save(cart);
+	private CartView currentView(String cartId) {
+		return getCartView(cartId).orElseGet(() -> CartView.empty(cartId));
 	}
 }
 // end::code[]
@@ -20,13 +20,16 @@ import java.util.Objects;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 
 // tag::code[]
 @Entity
 public class Item {
 
-	private @Id @GeneratedValue Integer id;
+	private @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "item_seq") //
+	@SequenceGenerator(name = "item_seq", allocationSize = 50) Integer id;
 	private String name;
 	private String description;
 	private double price;
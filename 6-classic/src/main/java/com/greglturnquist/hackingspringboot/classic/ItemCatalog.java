@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read-through cache in front of {@link ItemRepository}. The whole catalog is cached as one immutable snapshot and
+ * single items are cached by id. Every write that goes through here refreshes the item entry and drops the snapshot,
+ * so the next {@link #findAll()} rebuilds it. Pages are read straight from the repository and never cached.
+ * <p>
+ * Writes also publish an {@link ItemChange} for {@link ItemChangeFeed}.
+ */
+@Component
+public class ItemCatalog {
+
+	static final String CATALOG = "catalog";
+	static final String ITEMS = "items";
+
+	private final ItemRepository repository;
+	private final ApplicationEventPublisher publisher;
+
+	public ItemCatalog(ItemRepository repository, ApplicationEventPublisher publisher) {
+		this.repository = repository;
+		this.publisher = publisher;
+	}
+
+	@Cacheable(cacheNames = CATALOG, key = "'all'")
+	public List<Item> findAll() {
+		return Collections.unmodifiableList(StreamSupport.stream(this.repository.findAll().spliterator(), false) //
+				.collect(Collectors.toList()));
+	}
+
+	// a miss is not cached, or an item created behind the catalog's back would stay missing until it expired
+	@Cacheable(cacheNames = ITEMS, key = "#id", unless = "#result == null")
+	public Optional<Item> findById(Integer id) {
+		return this.repository.findById(id);
+	}
+
+	public ItemPage findPage(int page, int size) {
+		int pageSize = ItemPage.clampSize(size);
+		return ItemPage.offset(this.repository.findAllBy( //
+				PageRequest.of(Math.max(page, 0), pageSize, Sort.by("id"))));
+	}
+
+	public ItemPage findAfter(Integer id, int size) {
+		int pageSize = ItemPage.clampSize(size);
+		List<Item> items = this.repository.findByIdGreaterThanOrderByIdAsc(id, PageRequest.of(0, pageSize + 1));
+
+		boolean hasNext = items.size() > pageSize;
+		List<Item> content = hasNext ? items.subList(0, pageSize) : items;
+		boolean hasPrevious = !content.isEmpty() && this.repository.existsByIdLessThan(content.get(0).getId());
+
+		return ItemPage.keyset(content, pageSize, hasPrevious, hasNext);
+	}
+
+	public ItemPage findBefore(Integer id, int size) {
+		int pageSize = ItemPage.clampSize(size);
+		List<Item> items = this.repository.findByIdLessThanOrderByIdDesc(id, PageRequest.of(0, pageSize + 1));
+
+		boolean hasPrevious = items.size() > pageSize;
+		List<Item> content = new ArrayList<>(hasPrevious ? items.subList(0, pageSize) : items);
+		Collections.reverse(content);
+		boolean hasNext = !content.isEmpty()
+				&& this.repository.existsByIdGreaterThan(content.get(content.size() - 1).getId());
+
+		return ItemPage.keyset(content, pageSize, hasPrevious, hasNext);
+	}
+
+	@Caching( //
+			put = @CachePut(cacheNames = ITEMS, key = "#result.id"), //
+			evict = @CacheEvict(cacheNames = CATALOG, allEntries = true))
+	public Item save(Item item) {
+		boolean created = item.getId() == null;
+		Item saved = this.repository.save(item);
+		this.publisher.publishEvent(created ? ItemChange.created(saved) : ItemChange.updated(saved));
+		return saved;
+	}
+
+	@Caching(evict = { //
+			@CacheEvict(cacheNames = ITEMS, key = "#id"), //
+			@CacheEvict(cacheNames = CATALOG, allEntries = true) })
+	public void deleteById(Integer id) {
+		this.repository.deleteById(id);
+		this.publisher.publishEvent(ItemChange.deleted(id));
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Pushes {@link ItemChange}s to server-sent event subscribers once the change has committed. Every change gets the
+ * next sequence number, and the last {@code items.changes.history} changes are kept. A client that reconnects with
+ * {@code Last-Event-ID} gets everything it missed. If it fell further behind than that, it gets a {@code reset} event
+ * telling it to reload the catalog first. Event ids start with an epoch picked at startup, so an id from before a
+ * restart, whose sequence means nothing now, is answered with a reset too.
+ * <p>
+ * Publishing never waits on a client. Each subscriber has its own queue of {@code items.changes.buffer} events,
+ * drained by one of {@code items.changes.senders} sender threads. A subscriber is dropped when a burst, such as a bulk
+ * import, overflows its queue, or when a change arrives while one send has been stuck for longer than
+ * {@code items.changes.write-timeout}. Its stream is then completed, so the client reconnects with
+ * {@code Last-Event-ID} and is replayed what it missed from the history, or told to reset if that is too far back.
+ * <p>
+ * The stream can only be completed once the send in progress returns, because a send holds the emitter. Until the
+ * container's own write timeout ends a stuck send, it holds its sender thread, but no further changes are queued for
+ * it and the other senders carry on.
+ */
+@Component
+class ItemChangeFeed {
+
+	static final String RESET = "reset";
+
+	private final int historySize;
+	private final int bufferSize;
+	private final long timeoutMillis;
+	private final long writeTimeoutNanos;
+
+	private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 16, 36);
+	private final Deque<Event> history = new ArrayDeque<>(); // guarded by this
+	private long sequence; // guarded by this
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	// a subscriber is scheduled at most once at a time, so the pool's queue never holds more tasks than subscribers
+	private final ExecutorService senders;
+
+	private final Counter published;
+	private final Counter overflowed;
+	private final Counter stalled;
+
+	ItemChangeFeed(@Value("${items.changes.history:1000}") int historySize,
+			@Value("${items.changes.buffer:256}") int bufferSize,
+			@Value("${items.changes.senders:4}") int senders,
+			@Value("${items.changes.timeout:30m}") Duration timeout,
+			@Value("${items.changes.write-timeout:10s}") Duration writeTimeout, MeterRegistry meterRegistry) {
+		this.historySize = historySize;
+		this.bufferSize = bufferSize;
+		this.timeoutMillis = timeout.toMillis();
+		this.writeTimeoutNanos = writeTimeout.toNanos();
+		this.senders = Executors.newFixedThreadPool(senders, new CustomizableThreadFactory("item-changes-"));
+
+		this.published = Counter.builder("items.changes.published") //
+				.description("Item changes sent to the change feed") //
+				.register(meterRegistry);
+		this.overflowed = dropped(meterRegistry, "overflow");
+		this.stalled = dropped(meterRegistry, "stalled");
+		meterRegistry.gaugeCollectionSize("items.changes.subscribers", Collections.emptyList(), this.subscribers);
+	}
+
+	private static Counter dropped(MeterRegistry meterRegistry, String reason) {
+		return Counter.builder("items.changes.dropped") //
+				.description("Change feed subscribers disconnected after falling behind or stalling") //
+				.tag("reason", reason) //
+				.register(meterRegistry);
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	void publish(ItemChange change) {
+		synchronized (this) {
+			Event event = event(++this.sequence, change.getType().name().toLowerCase(Locale.ROOT), change);
+			this.history.addLast(event);
+			if (this.history.size() > this.historySize) {
+				this.history.removeFirst();
+			}
+			long now = System.nanoTime();
+			this.subscribers.forEach(subscriber -> subscriber.offer(event, now));
+		}
+		this.published.increment();
+	}
+
+	SseEmitter subscribe(String lastEventId) {
+		SseEmitter emitter = new SseEmitter(this.timeoutMillis);
+		try {
+			// commits the response straight away, instead of with the first change
+			emitter.send(SseEmitter.event().comment("item changes"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return subscribe(emitter, lastEventId);
+	}
+
+	SseEmitter subscribe(SseEmitter emitter, String lastEventId) {
+		List<Event> missed = new ArrayList<>();
+		Subscriber subscriber;
+
+		synchronized (this) {
+			if (lastEventId != null) {
+				long seen = sequenceOf(lastEventId);
+				long oldest = this.history.isEmpty() ? this.sequence + 1 : this.history.peekFirst().sequence;
+				if (seen < oldest - 1 || seen > this.sequence) {
+					missed.add(event(this.sequence, RESET, null));
+				} else {
+					this.history.stream().filter(event -> event.sequence > seen).forEach(missed::add);
+				}
+			}
+			subscriber = new Subscriber(emitter, this.bufferSize + missed.size());
+			long now = System.nanoTime();
+			missed.forEach(event -> subscriber.offer(event, now));
+			this.subscribers.add(subscriber);
+		}
+
+		emitter.onCompletion(subscriber::close);
+		emitter.onTimeout(subscriber::close);
+		emitter.onError(error -> subscriber.close());
+		return emitter;
+	}
+
+	String eventId(long sequence) {
+		return this.epoch + "-" + sequence;
+	}
+
+	// -1 for an id from another run of the feed
+	private long sequenceOf(String eventId) {
+		String prefix = this.epoch + "-";
+		if (eventId.startsWith(prefix)) {
+			try {
+				return Long.parseLong(eventId.substring(prefix.length()));
+			} catch (NumberFormatException e) {
+				// not one of ours
+			}
+		}
+		return -1;
+	}
+
+	private Event event(long sequence, String name, ItemChange change) {
+		return new Event(sequence, eventId(sequence), name, change);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.subscribers.forEach(subscriber -> subscriber.emitter.complete());
+		this.senders.shutdownNow();
+	}
+
+	private static final class Event {
+
+		private final long sequence;
+		private final String id;
+		private final String name;
+		private final ItemChange change;
+
+		Event(long sequence, String id, String name, ItemChange change) {
+			this.sequence = sequence;
+			this.id = id;
+			this.name = name;
+			this.change = change;
+		}
+
+		SseEmitter.SseEventBuilder toSse() {
+			SseEmitter.SseEventBuilder builder = SseEmitter.event().id(this.id).name(this.name);
+			return this.change == null ? builder.data("") : builder.data(this.change, MediaType.APPLICATION_JSON);
+		}
+	}
+
+	private final class Subscriber implements Runnable {
+
+		private final SseEmitter emitter;
+		private final BlockingQueue<Event> queue;
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private volatile long sendingSince; // System.nanoTime() when the send in progress started, 0 between sends
+		private volatile boolean dropped;
+		private boolean completed; // only touched by the sender, which runs for one subscriber at a time
+
+		Subscriber(SseEmitter emitter, int capacity) {
+			this.emitter = emitter;
+			this.queue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+		}
+
+		// only ever called under the feed's lock
+		void offer(Event event, long now) {
+			long sendingSince = this.sendingSince;
+			if (sendingSince != 0 && now - sendingSince > ItemChangeFeed.this.writeTimeoutNanos) {
+				drop(ItemChangeFeed.this.stalled);
+			} else if (!this.queue.offer(event)) {
+				drop(ItemChangeFeed.this.overflowed);
+			}
+			schedule();
+		}
+
+		/**
+		 * Stops queueing changes for this subscriber. The sender completes its stream, once any send in progress
+		 * returns.
+		 */
+		private void drop(Counter reason) {
+			close();
+			this.dropped = true;
+			this.queue.clear();
+			reason.increment();
+		}
+
+		void close() {
+			ItemChangeFeed.this.subscribers.remove(this);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Event event;
+				while (!this.dropped && (event = this.queue.poll()) != null) {
+					this.sendingSince = System.nanoTime() | 1; // never 0
+					this.emitter.send(event.toSse());
+					this.sendingSince = 0;
+				}
+				if (this.dropped && !this.completed) {
+					this.completed = true;
+					this.emitter.complete();
+				}
+			} catch (IOException | IllegalStateException e) {
+				// the client went away, or the emitter already completed
+				close();
+				this.dropped = true;
+				this.completed = true;
+				this.queue.clear();
+			} finally {
+				this.sendingSince = 0;
+				this.draining.set(false);
+			}
+			// a drop or a change may have come in after the loop, while the sender still counted as scheduled
+			if (this.dropped ? !this.completed : !this.queue.isEmpty()) {
+				schedule();
+			}
+		}
+
+		private void schedule() {
+			if (this.draining.compareAndSet(false, true)) {
+				ItemChangeFeed.this.senders.execute(this);
+			}
+		}
+	}
+}
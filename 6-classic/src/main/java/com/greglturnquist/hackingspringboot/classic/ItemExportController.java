@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Bulk export of the catalog for offline syncs. The response is written as the rows are read, instead of being
+ * assembled into a collection first the way {@code /api/items} does.
+ */
+@RestController
+public class ItemExportController {
+
+	private final ItemExporter exporter;
+
+	public ItemExportController(ItemExporter exporter) {
+		this.exporter = exporter;
+	}
+
+	@GetMapping(value = "/api/items/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	void export(HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+		this.exporter.export(response.getOutputStream());
+	}
+}
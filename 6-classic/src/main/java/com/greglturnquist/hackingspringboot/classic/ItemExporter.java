@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Writes the whole catalog as newline-delimited JSON, one item per line. Rows come off a forward-only cursor and
+ * every item is detached once it has been written, so memory use does not depend on the size of the catalog.
+ */
+@Service
+class ItemExporter {
+
+	private final ItemRepository repository;
+	private final EntityManager entityManager;
+	private final ObjectWriter writer;
+
+	ItemExporter(ItemRepository repository, EntityManager entityManager, ObjectMapper mapper) {
+		this.repository = repository;
+		this.entityManager = entityManager;
+		this.writer = mapper.writerFor(Item.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	}
+
+	/**
+	 * Stream every item to {@code out}, leaving it open. Returns the number of items written.
+	 */
+	@Transactional(readOnly = true)
+	public long export(OutputStream out) throws IOException {
+		long count = 0;
+
+		try (Stream<Item> items = this.repository.streamAllBy();
+				JsonGenerator generator = this.writer.getFactory().createGenerator(out)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+			Iterator<Item> iterator = items.iterator();
+			while (iterator.hasNext()) {
+				Item item = iterator.next();
+				this.writer.writeValue(generator, item);
+				generator.writeRaw('\n');
+				this.entityManager.detach(item);
+				count++;
+			}
+		}
+
+		return count;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Bulk counterpart to {@code POST /api/items}. The request body is read as it arrives, so its size is not bounded by
+ * memory.
+ */
+@RestController
+public class ItemImportController {
+
+	private final ItemImporter importer;
+
+	public ItemImportController(ItemImporter importer) {
+		this.importer = importer;
+	}
+
+	@PostMapping(value = "/api/items/import",
+			consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+	ResponseEntity<ImportReport> importItems(HttpServletRequest request,
+			@RequestParam(defaultValue = "500") int chunkSize) throws IOException {
+		ImportReport report = this.importer.importItems(request.getInputStream(), chunkSize);
+
+		return ResponseEntity.status(report.isComplete() ? HttpStatus.OK : HttpStatus.MULTI_STATUS).body(report);
+	}
+}
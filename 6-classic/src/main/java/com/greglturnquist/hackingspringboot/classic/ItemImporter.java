@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Reads items off a stream, either a JSON array or newline-delimited JSON, and inserts them in chunks of a given size.
+ * Each chunk is its own transaction: its inserts go out as JDBC batches, and the persistence context is cleared
+ * afterwards. A chunk that fails is rolled back and reported, and the import carries on with the next one. Each
+ * inserted item is announced as an {@link ItemChange} once its chunk commits, and the cached catalog, along with any
+ * cached entries for the new ids, is dropped.
+ * <p>
+ * Input that cannot be read ends the import: the items read before it are still inserted, and the report says where
+ * it stopped.
+ */
+@Service
+class ItemImporter {
+
+	static final int MAX_CHUNK_SIZE = 10_000;
+
+	private final ItemRepository repository;
+	private final EntityManager entityManager;
+	private final TransactionTemplate transactionTemplate;
+	private final ObjectReader reader;
+	private final ApplicationEventPublisher publisher;
+	private final CacheManager cacheManager;
+
+	ItemImporter(ItemRepository repository, EntityManager entityManager, TransactionTemplate transactionTemplate,
+			ObjectMapper mapper, ApplicationEventPublisher publisher, CacheManager cacheManager) {
+		this.repository = repository;
+		this.entityManager = entityManager;
+		this.transactionTemplate = transactionTemplate;
+		this.reader = mapper.readerFor(Item.class);
+		this.publisher = publisher;
+		this.cacheManager = cacheManager;
+	}
+
+	public ImportReport importItems(InputStream in, int chunkSize) {
+		int size = Math.min(Math.max(chunkSize, 1), MAX_CHUNK_SIZE);
+		ImportReport report = new ImportReport();
+		List<Item> chunk = new ArrayList<>(size);
+		int read = 0;
+
+		try (MappingIterator<Item> items = this.reader.readValues(in)) {
+			while (items.hasNextValue()) {
+				Item item = items.nextValue();
+				item.setId(null); // always an insert, never a merge
+				chunk.add(item);
+				read++;
+
+				if (chunk.size() == size) {
+					report.add(persist(report.size(), chunk));
+					chunk = new ArrayList<>(size);
+				}
+			}
+		} catch (IOException e) {
+			String reason = e instanceof JsonProcessingException //
+					? ((JsonProcessingException) e).getOriginalMessage() //
+					: e.getMessage();
+			report.stop("Stopped reading after " + read + " items: " + reason);
+		}
+		if (!chunk.isEmpty()) {
+			report.add(persist(report.size(), chunk));
+		}
+
+		return report;
+	}
+
+	private ImportReport.Chunk persist(int index, List<Item> chunk) {
+		try {
+			ImportReport.Chunk created = this.transactionTemplate.execute(status -> {
+				this.repository.saveAll(chunk);
+				this.entityManager.flush();
+				this.entityManager.clear();
+				chunk.forEach(item -> this.publisher.publishEvent(ItemChange.created(item)));
+				return ImportReport.Chunk.created(index, chunk);
+			});
+			evictCached(chunk); // chunk by chunk, so a later failure cannot leave the committed ones out of the catalog
+			return created;
+		} catch (DataAccessException | PersistenceException e) {
+			return ImportReport.Chunk.failed(index, chunk.size(), NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+		}
+	}
+
+	private void evictCached(List<Item> chunk) {
+		Cache catalog = this.cacheManager.getCache(ItemCatalog.CATALOG);
+		if (catalog != null) {
+			catalog.clear();
+		}
+		Cache items = this.cacheManager.getCache(ItemCatalog.ITEMS);
+		if (items != null) {
+			chunk.forEach(item -> items.evict(item.getId()));
+		}
+	}
+}
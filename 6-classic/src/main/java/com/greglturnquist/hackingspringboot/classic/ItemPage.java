@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.data.domain.Slice;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.hateoas.Links;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * One page of the item listing plus its {@code self}, {@code prev} and {@code next} links. Offset pages navigate with
+ * {@code page}/{@code size}, keyset pages with {@code after}/{@code before} an item id. Links are built from the
+ * current request so any other query parameters survive.
+ */
+public final class ItemPage {
+
+	static final String DEFAULT_SIZE = "20";
+	static final int MAX_SIZE = 100;
+
+	private final List<Item> items;
+	private final Links links;
+
+	private ItemPage(List<Item> items, Links links) {
+		this.items = Collections.unmodifiableList(items);
+		this.links = links;
+	}
+
+	static int clampSize(int size) {
+		return Math.min(Math.max(size, 1), MAX_SIZE);
+	}
+
+	static ItemPage offset(Slice<Item> slice) {
+		List<Link> links = new ArrayList<>();
+		links.add(self());
+
+		if (slice.hasPrevious()) {
+			links.add(link(current() //
+					.replaceQueryParam("page", slice.getNumber() - 1) //
+					.replaceQueryParam("size", slice.getSize()), IanaLinkRelations.PREV));
+		}
+		if (slice.hasNext()) {
+			links.add(link(current() //
+					.replaceQueryParam("page", slice.getNumber() + 1) //
+					.replaceQueryParam("size", slice.getSize()), IanaLinkRelations.NEXT));
+		}
+
+		return new ItemPage(slice.getContent(), Links.of(links));
+	}
+
+	static ItemPage keyset(List<Item> items, int size, boolean hasPrevious, boolean hasNext) {
+		List<Link> links = new ArrayList<>();
+		links.add(self());
+
+		if (hasPrevious) {
+			links.add(link(current() //
+					.replaceQueryParam("after") //
+					.replaceQueryParam("before", items.get(0).getId()) //
+					.replaceQueryParam("size", size), IanaLinkRelations.PREV));
+		}
+		if (hasNext) {
+			links.add(link(current() //
+					.replaceQueryParam("before") //
+					.replaceQueryParam("after", items.get(items.size() - 1).getId()) //
+					.replaceQueryParam("size", size), IanaLinkRelations.NEXT));
+		}
+
+		return new ItemPage(items, Links.of(links));
+	}
+
+	public List<Item> getItems() {
+		return items;
+	}
+
+	public Links getLinks() {
+		return links;
+	}
+
+	<T> CollectionModel<T> toModel(Function<Item, T> mapper) {
+		return CollectionModel.of(this.items.stream().map(mapper).collect(Collectors.toList()), this.links);
+	}
+
+	private static UriComponentsBuilder current() {
+		return ServletUriComponentsBuilder.fromCurrentRequest();
+	}
+
+	private static Link self() {
+		return Link.of(current().build().toUriString());
+	}
+
+	private static Link link(UriComponentsBuilder builder, LinkRelation relation) {
+		return Link.of(builder.build().toUriString(), relation);
+	}
+
+	@Override
+	public String toString() {
+		return "ItemPage{" + "items=" + items + ", links=" + links + '}';
+	}
+}
@@ -16,8 +16,17 @@
 
 package com.greglturnquist.hackingspringboot.classic;
 
+import static org.hibernate.jpa.QueryHints.*;
+
 import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 // tag::code[]
@@ -39,4 +48,21 @@ public interface ItemRepository extends CrudRepository<Item, Integer> {
 	// search by name OR description
 	List<Item> findByNameContainingOrDescriptionContainingAllIgnoreCase(String partialName, String partialDesc);
 	// end::code-3[]
+
+	// offset paging; a Slice reads one extra row instead of running a count query
+	Slice<Item> findAllBy(Pageable pageable);
+
+	// keyset paging, seeking from the last id the client has seen
+	List<Item> findByIdGreaterThanOrderByIdAsc(Integer id, Pageable pageable);
+
+	List<Item> findByIdLessThanOrderByIdDesc(Integer id, Pageable pageable);
+
+	boolean existsByIdLessThan(Integer id);
+
+	boolean existsByIdGreaterThan(Integer id);
+
+	// whole catalog as a forward-only cursor, for the streaming export
+	@QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true") })
+	@Query("select i from Item i order by i.id")
+	Stream<Item> streamAllBy();
 }
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Name suggestions for a search box, answered from memory in a binary search and a short scan. Names are normalized
+ * (accents stripped, lower case, single spaces) and every word start in a name is an entry, so "clo" finds both
+ * "Clock radio" and "Alarm clock". Suggestions come back in the order of the matching text.
+ * <p>
+ * Entries live in a sorted array of (name, offset) pairs that shares each name rather than copying suffixes. Items
+ * saved or deleted since it was built go into a small sorted map, and the array is rebuilt once that map outgrows a
+ * sixteenth of it. The estimated footprint is published as {@code items.typeahead.memory}.
+ */
+@Component
+class ItemTypeahead implements SmartInitializingSingleton {
+
+	static final int MAX_LIMIT = 50;
+
+	private static final int LOAD_PAGE_SIZE = 1000;
+	private static final int MIN_MERGE = 1024;
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	private static final Pattern SPACES = Pattern.compile("\\s+");
+
+	private final ItemRepository repository;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// all guarded by lock
+	private Entries entries = Entries.of(Collections.emptyList());
+	private final Set<Integer> replaced = new HashSet<>(); // in entries, but since saved again or deleted
+	private int replacedEntries;
+	private final NavigableMap<String, Suggestion> added = new TreeMap<>(); // keyed by text from a word start, then id
+	private final Map<Integer, Suggestion> addedById = new HashMap<>();
+
+	ItemTypeahead(ItemRepository repository, MeterRegistry meterRegistry) {
+		this.repository = repository;
+
+		Gauge.builder("items.typeahead.entries", this, ItemTypeahead::size) //
+				.description("Word starts the typeahead can match") //
+				.register(meterRegistry);
+		Gauge.builder("items.typeahead.memory", this, ItemTypeahead::memoryBytes) //
+				.description("Estimated heap held by the typeahead") //
+				.baseUnit("bytes") //
+				.register(meterRegistry);
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		rebuild();
+	}
+
+	/**
+	 * Reloads every item, one keyset page at a time.
+	 */
+	void rebuild() {
+		List<Suggestion> suggestions = new ArrayList<>();
+		Integer lastId = Integer.MIN_VALUE;
+		List<Item> page;
+		do {
+			page = this.repository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, LOAD_PAGE_SIZE));
+			page.forEach(item -> suggestions.add(new Suggestion(item.getId(), item.getName())));
+			lastId = page.isEmpty() ? lastId : page.get(page.size() - 1).getId();
+		} while (page.size() == LOAD_PAGE_SIZE);
+		load(suggestions);
+	}
+
+	void load(List<Suggestion> suggestions) {
+		Entries fresh = Entries.of(suggestions);
+
+		this.lock.writeLock().lock();
+		try {
+			this.entries = fresh;
+			this.replaced.clear();
+			this.replacedEntries = 0;
+			this.added.clear();
+			this.addedById.clear();
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	void update(ItemChange change) {
+		this.lock.writeLock().lock();
+		try {
+			Integer id = change.getItemId();
+			Suggestion previous = this.addedById.remove(id);
+			if (previous != null) {
+				keys(previous).forEach(this.added::remove);
+			}
+			if (this.entries.contains(id) && this.replaced.add(id)) {
+				this.replacedEntries += this.entries.wordStartsOf(id);
+			}
+
+			if (change.getType() != ItemChange.Type.DELETED && change.getItem().getName() != null) {
+				Suggestion suggestion = new Suggestion(id, change.getItem().getName());
+				this.addedById.put(id, suggestion);
+				keys(suggestion).forEach(key -> this.added.put(key, suggestion));
+			}
+
+			if (this.added.size() > Math.max(MIN_MERGE, this.entries.size() / 16)) {
+				merge();
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Up to {@code limit} items with a word in their name that starts with {@code prefix}.
+	 */
+	List<Suggestion> suggest(String prefix, int limit) {
+		String query = normalizeQuery(prefix);
+		int max = Math.min(Math.max(limit, 1), MAX_LIMIT);
+		if (query.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		this.lock.readLock().lock();
+		try {
+			List<Hit> fromEntries = this.entries.find(query, max, this.replaced);
+			List<Hit> fromAdded = findAdded(query, max);
+			if (fromAdded.isEmpty()) {
+				return suggestions(fromEntries, max);
+			}
+			List<Hit> hits = new ArrayList<>(fromEntries);
+			hits.addAll(fromAdded);
+			hits.sort(Hit.IN_ORDER);
+			return suggestions(hits, max);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.entries.size() - this.replacedEntries + this.added.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * An estimate, assuming compressed references and compact strings.
+	 */
+	long memoryBytes() {
+		this.lock.readLock().lock();
+		try {
+			long bytes = this.entries.bytes + 16L * this.replaced.size();
+			for (Map.Entry<String, Suggestion> entry : this.added.entrySet()) {
+				bytes += 40 + stringBytes(entry.getKey());
+			}
+			for (Suggestion suggestion : this.addedById.values()) {
+				bytes += 48 + 24 + stringBytes(suggestion.getName());
+			}
+			return bytes;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	private void merge() {
+		List<Suggestion> live = this.entries.live(this.replaced);
+		live.addAll(this.addedById.values());
+		live.sort(Comparator.comparing(Suggestion::getId));
+
+		this.entries = Entries.of(live);
+		this.replaced.clear();
+		this.replacedEntries = 0;
+		this.added.clear();
+		this.addedById.clear();
+	}
+
+	private List<Hit> findAdded(String query, int max) {
+		List<Hit> hits = new ArrayList<>();
+		Set<Integer> seen = new HashSet<>();
+		for (Map.Entry<String, Suggestion> entry : this.added.tailMap(query, true).entrySet()) {
+			String key = entry.getKey();
+			if (!key.startsWith(query) || hits.size() == max) {
+				break;
+			}
+			if (seen.add(entry.getValue().getId())) {
+				hits.add(new Hit(key.substring(0, key.indexOf('\0')), entry.getValue()));
+			}
+		}
+		return hits;
+	}
+
+	private static List<Suggestion> suggestions(List<Hit> hits, int max) {
+		List<Suggestion> suggestions = new ArrayList<>(Math.min(hits.size(), max));
+		Set<Integer> seen = new HashSet<>();
+		for (Hit hit : hits) {
+			if (suggestions.size() == max) {
+				break;
+			}
+			if (seen.add(hit.suggestion.getId())) {
+				suggestions.add(hit.suggestion);
+			}
+		}
+		return suggestions;
+	}
+
+	private static List<String> keys(Suggestion suggestion) {
+		String name = normalize(suggestion.getName());
+		List<String> keys = new ArrayList<>();
+		for (int start : wordStarts(name)) {
+			keys.add(name.substring(start) + '\0' + suggestion.getId());
+		}
+		return keys;
+	}
+
+	static String normalize(String text) {
+		return SPACES.matcher(normalizeQuery(text)).replaceAll(" ").trim();
+	}
+
+	// a trailing space is kept, so that "alarm " stops at whole words
+	private static String normalizeQuery(String text) {
+		String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+		return SPACES.matcher(folded.toLowerCase(Locale.ROOT)).replaceAll(" ").replaceFirst("^ ", "");
+	}
+
+	private static int[] wordStarts(String name) {
+		int[] starts = new int[name.length()];
+		int count = 0;
+		for (int i = 0; i < name.length(); i++) {
+			if (i == 0 || !Character.isLetterOrDigit(name.charAt(i - 1)) && Character.isLetterOrDigit(name.charAt(i))) {
+				starts[count++] = i;
+			}
+		}
+		return Arrays.copyOf(starts, count);
+	}
+
+	private static int compare(String a, int from, String b) {
+		int length = Math.min(a.length() - from, b.length());
+		for (int i = 0; i < length; i++) {
+			int difference = a.charAt(from + i) - b.charAt(i);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return (a.length() - from) - b.length();
+	}
+
+	private static int compare(String a, int aFrom, String b, int bFrom) {
+		int length = Math.min(a.length() - aFrom, b.length() - bFrom);
+		for (int i = 0; i < length; i++) {
+			int difference = a.charAt(aFrom + i) - b.charAt(bFrom + i);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return (a.length() - aFrom) - (b.length() - bFrom);
+	}
+
+	private static long stringBytes(String text) {
+		boolean latin1 = text.chars().allMatch(c -> c < 256);
+		return 24 + align(16 + (long) text.length() * (latin1 ? 1 : 2));
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * One item's suggestion: its id and name as stored.
+	 */
+	public static final class Suggestion {
+
+		private final Integer id;
+		private final String name;
+
+		Suggestion(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public Integer getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (o == null || getClass() != o.getClass())
+				return false;
+			Suggestion that = (Suggestion) o;
+			return Objects.equals(id, that.id) && Objects.equals(name, that.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(id, name);
+		}
+
+		@Override
+		public String toString() {
+			return "Suggestion{" + "id=" + id + ", name='" + name + '\'' + '}';
+		}
+	}
+
+	private static final class Hit {
+
+		static final Comparator<Hit> IN_ORDER = Comparator.<Hit, String> comparing(hit -> hit.text) //
+				.thenComparing(hit -> hit.suggestion.getId());
+
+		private final String text;
+		private final Suggestion suggestion;
+
+		Hit(String text, Suggestion suggestion) {
+			this.text = text;
+			this.suggestion = suggestion;
+		}
+	}
+
+	/**
+	 * Immutable sorted entries. Items sit in slots in id order; each entry is a slot and the offset of a word start in
+	 * its normalized name, and entries are ordered by the name text from that offset on.
+	 */
+	private static final class Entries {
+
+		private final int[] ids;
+		private final String[] names;
+		private final String[] normalized;
+		private final int[] entrySlots;
+		private final int[] entryOffsets;
+		private final long bytes;
+
+		private Entries(int[] ids, String[] names, String[] normalized, int[] entrySlots, int[] entryOffsets) {
+			this.ids = ids;
+			this.names = names;
+			this.normalized = normalized;
+			this.entrySlots = entrySlots;
+			this.entryOffsets = entryOffsets;
+			this.bytes = estimateBytes();
+		}
+
+		/**
+		 * @param suggestions in ascending id order
+		 */
+		static Entries of(List<Suggestion> suggestions) {
+			List<Suggestion> named = new ArrayList<>(suggestions.size());
+			suggestions.stream().filter(suggestion -> suggestion.getName() != null).forEach(named::add);
+
+			int[] ids = new int[named.size()];
+			String[] names = new String[named.size()];
+			String[] normalized = new String[named.size()];
+			List<Long> entries = new ArrayList<>();
+			for (int slot = 0; slot < named.size(); slot++) {
+				ids[slot] = named.get(slot).getId();
+				names[slot] = named.get(slot).getName();
+				normalized[slot] = normalize(names[slot]);
+				for (int start : wordStarts(normalized[slot])) {
+					entries.add(((long) slot << 32) | start);
+				}
+			}
+
+			// sorting boxed entries costs a little garbage, but only when the array is rebuilt
+			entries.sort((a, b) -> compare(normalized[(int) (a >>> 32)], (int) (long) a, //
+					normalized[(int) (b >>> 32)], (int) (long) b));
+
+			int[] entrySlots = new int[entries.size()];
+			int[] entryOffsets = new int[entries.size()];
+			for (int i = 0; i < entries.size(); i++) {
+				entrySlots[i] = (int) (entries.get(i) >>> 32);
+				entryOffsets[i] = (int) (long) entries.get(i);
+			}
+			return new Entries(ids, names, normalized, entrySlots, entryOffsets);
+		}
+
+		int size() {
+			return this.entrySlots.length;
+		}
+
+		boolean contains(Integer id) {
+			return Arrays.binarySearch(this.ids, id) >= 0;
+		}
+
+		int wordStartsOf(Integer id) {
+			return wordStarts(this.normalized[Arrays.binarySearch(this.ids, id)]).length;
+		}
+
+		List<Hit> find(String query, int max, Set<Integer> skip) {
+			List<Hit> hits = new ArrayList<>();
+			Set<Integer> seen = new HashSet<>();
+			for (int i = lowerBound(query); i < this.entrySlots.length && hits.size() < max; i++) {
+				int slot = this.entrySlots[i];
+				int offset = this.entryOffsets[i];
+				if (!this.normalized[slot].startsWith(query, offset)) {
+					break;
+				}
+				int id = this.ids[slot];
+				if (!skip.contains(id) && seen.add(id)) {
+					hits.add(new Hit(this.normalized[slot].substring(offset), new Suggestion(id, this.names[slot])));
+				}
+			}
+			return hits;
+		}
+
+		List<Suggestion> live(Set<Integer> skip) {
+			List<Suggestion> live = new ArrayList<>(this.ids.length);
+			for (int slot = 0; slot < this.ids.length; slot++) {
+				if (!skip.contains(this.ids[slot])) {
+					live.add(new Suggestion(this.ids[slot], this.names[slot]));
+				}
+			}
+			return live;
+		}
+
+		private int lowerBound(String query) {
+			int low = 0;
+			int high = this.entrySlots.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (compare(this.normalized[this.entrySlots[middle]], this.entryOffsets[middle], query) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		private long estimateBytes() {
+			long bytes = align(16 + 4L * this.ids.length) + 2 * align(16 + 4L * this.entrySlots.length)
+					+ 2 * align(16 + 4L * this.names.length);
+			for (int slot = 0; slot < this.names.length; slot++) {
+				bytes += stringBytes(this.names[slot]);
+				if (this.normalized[slot] != this.names[slot]) {
+					bytes += stringBytes(this.normalized[slot]);
+				}
+			}
+			return bytes;
+		}
+	}
+}
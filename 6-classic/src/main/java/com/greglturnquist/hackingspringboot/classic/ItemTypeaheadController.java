@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.List;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Search-box suggestions, one request per keystroke, served by {@link ItemTypeahead} without touching the database.
+ */
+@RestController
+public class ItemTypeaheadController {
+
+	private final ItemTypeahead typeahead;
+
+	ItemTypeaheadController(ItemTypeahead typeahead) {
+		this.typeahead = typeahead;
+	}
+
+	@GetMapping("/api/items/suggestions")
+	List<ItemTypeahead.Suggestion> suggest(@RequestParam String q, @RequestParam(defaultValue = "10") int limit) {
+		return this.typeahead.suggest(q, limit);
+	}
+}
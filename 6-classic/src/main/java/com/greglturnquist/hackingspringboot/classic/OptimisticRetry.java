@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs a transactional cart update, starting over when it loses a race to a concurrent one: an optimistic locking or
+ * lock timeout failure, or a duplicate key from two first-time inserts. Each retry waits a random time, up to a limit
+ * that doubles each attempt, so contending callers spread out. The final failure is rethrown once
+ * {@code cart.retry.max-attempts} is reached.
+ * <p>
+ * Other integrity violations, such as a missing item or a value too long for its column, would fail the same way
+ * every time, so they are rethrown at once. JPA reports a duplicate key as a plain
+ * {@link DataIntegrityViolationException}, so it is recognized by its SQL state.
+ */
+@Component
+class OptimisticRetry {
+
+	private static final String UNIQUE_VIOLATION = "23505";
+
+	private final int maxAttempts;
+	private final Duration backoff;
+	private final MeterRegistry meterRegistry;
+	private final DistributionSummary attempts;
+	private final Counter exhausted;
+
+	OptimisticRetry(@Value("${cart.retry.max-attempts:5}") int maxAttempts,
+			@Value("${cart.retry.backoff:5ms}") Duration backoff, MeterRegistry meterRegistry) {
+		this.maxAttempts = maxAttempts;
+		this.backoff = backoff;
+		this.meterRegistry = meterRegistry;
+		this.attempts = DistributionSummary.builder("cart.update.attempts") //
+				.description("Attempts needed per successful cart update") //
+				.register(meterRegistry);
+		this.exhausted = Counter.builder("cart.update.retries.exhausted") //
+				.description("Cart updates that still conflicted after the last attempt") //
+				.register(meterRegistry);
+	}
+
+	void run(String operation, Runnable update) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				update.run();
+				this.attempts.record(attempt);
+				return;
+			} catch (ConcurrencyFailureException | DataIntegrityViolationException e) {
+				if (e instanceof DataIntegrityViolationException && !isDuplicateKey(e)) {
+					throw e;
+				}
+				conflicts(operation).increment();
+
+				if (attempt >= this.maxAttempts) {
+					this.exhausted.increment();
+					throw e;
+				}
+				pause(attempt, e);
+			}
+		}
+	}
+
+	private static boolean isDuplicateKey(DataAccessException e) {
+		if (e instanceof DuplicateKeyException) {
+			return true;
+		}
+		for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException) {
+				return UNIQUE_VIOLATION.equals(((SQLException) cause).getSQLState());
+			}
+		}
+		return false;
+	}
+
+	private Counter conflicts(String operation) {
+		return Counter.builder("cart.update.conflicts") //
+				.description("Cart updates that lost a race and were retried or abandoned") //
+				.tag("operation", operation) //
+				.register(this.meterRegistry);
+	}
+
+	private void pause(int attempt, DataAccessException cause) {
+		long bound = this.backoff.toNanos() << Math.min(attempt - 1, 10);
+		try {
+			TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw cause;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking variant of the item and cart API. Handlers return a {@link Mono} or {@link Flux} from
+ * {@link ReactiveInventoryService}, so the servlet thread is handed back as soon as the request is mapped. The
+ * catalog streams as NDJSON or server-sent events, written at the pace the client reads it.
+ */
+@RestController
+public class ReactiveInventoryController {
+
+	private final ReactiveInventoryService service;
+
+	ReactiveInventoryController(ReactiveInventoryService service) {
+		this.service = service;
+	}
+
+	@GetMapping(value = "/reactive/items", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<Item> streamItems() {
+		return this.service.findAllItems();
+	}
+
+	@GetMapping(value = "/reactive/items", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	Flux<ServerSentEvent<Item>> itemEvents() {
+		return this.service.findAllItems() //
+				.map(item -> ServerSentEvent.builder(item) //
+						.id(String.valueOf(item.getId())) //
+						.event("item") //
+						.build());
+	}
+
+	@GetMapping("/reactive/items/{id}")
+	Mono<ResponseEntity<Item>> findItem(@PathVariable Integer id) {
+		return this.service.findItem(id) //
+				.map(ResponseEntity::ok) //
+				.defaultIfEmpty(ResponseEntity.notFound().build());
+	}
+
+	@GetMapping("/reactive/carts/{id}")
+	Mono<ResponseEntity<CartView>> findCart(@PathVariable String id) {
+		return this.service.getCartView(id) //
+				.map(ResponseEntity::ok) //
+				.defaultIfEmpty(ResponseEntity.notFound().build());
+	}
+
+	@PostMapping("/reactive/carts/{cartId}/add/{itemId}")
+	Mono<CartView> addToCart(@PathVariable String cartId, @PathVariable Integer itemId) {
+		return this.service.addItemToCart(cartId, itemId);
+	}
+
+	@DeleteMapping("/reactive/carts/{cartId}/remove/{itemId}")
+	Mono<CartView> removeFromCart(@PathVariable String cartId, @PathVariable Integer itemId) {
+		return this.service.removeOneFromCart(cartId, itemId);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link Mono}/{@link Flux} view of the blocking JPA services. Every repository call runs on a bounded
+ * {@code jpa} scheduler, sized by {@code reactive.jpa.threads}, with at most {@code reactive.jpa.queued-tasks}
+ * waiting. Callers never block, and the database never sees more than that many of these calls at once.
+ * <p>
+ * {@link #findAllItems()} honours backpressure: it reads the catalog one keyset page at a time, and only when the
+ * subscriber has asked for more items than it already holds.
+ */
+@Service
+class ReactiveInventoryService {
+
+	private final InventoryService inventoryService;
+	private final ItemCatalog itemCatalog;
+	private final ItemRepository itemRepository;
+	private final ConnectionPoolLimiter limiter;
+	private final int pageSize;
+	private final Scheduler scheduler;
+
+	ReactiveInventoryService(InventoryService inventoryService, ItemCatalog itemCatalog, ItemRepository itemRepository,
+			ConnectionPoolLimiter limiter, @Value("${reactive.jpa.threads:10}") int threads,
+			@Value("${reactive.jpa.queued-tasks:1000}") int queuedTasks,
+			@Value("${reactive.jpa.page-size:100}") int pageSize) {
+		this.inventoryService = inventoryService;
+		this.itemCatalog = itemCatalog;
+		this.itemRepository = itemRepository;
+		this.limiter = limiter;
+		this.pageSize = pageSize;
+		this.scheduler = Schedulers.newBoundedElastic(threads, queuedTasks, "jpa");
+	}
+
+	Flux<Item> findAllItems() {
+		return Flux.<List<Item>, Integer> generate(() -> 0, (lastId, sink) -> {
+			List<Item> page = this.limiter.call(() -> this.itemRepository.findByIdGreaterThanOrderByIdAsc(lastId,
+					PageRequest.of(0, this.pageSize)));
+			if (page.isEmpty()) {
+				sink.complete();
+				return lastId;
+			}
+			sink.next(page);
+			return page.get(page.size() - 1).getId();
+		}) //
+				.subscribeOn(this.scheduler) //
+				.flatMapIterable(page -> page, 1);
+	}
+
+	Mono<Item> findItem(Integer id) {
+		return blocking(() -> this.itemCatalog.findById(id).orElse(null));
+	}
+
+	Mono<CartView> getCartView(String cartId) {
+		return blocking(() -> this.inventoryService.getCartView(cartId).orElse(null));
+	}
+
+	Mono<CartView> addItemToCart(String cartId, Integer itemId) {
+		return blocking(() -> this.inventoryService.addItemToCart(cartId, itemId));
+	}
+
+	Mono<CartView> removeOneFromCart(String cartId, Integer itemId) {
+		return blocking(() -> this.inventoryService.removeOneFromCart(cartId, itemId));
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.scheduler.dispose();
+	}
+
+	// a null result completes the Mono empty
+	private <T> Mono<T> blocking(Callable<T> call) {
+		return Mono.fromCallable(call).subscribeOn(this.scheduler);
+	}
+}
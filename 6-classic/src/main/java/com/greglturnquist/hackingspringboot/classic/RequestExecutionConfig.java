@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * With {@code requests.execution.mode=virtual}, Tomcat hands every request to a virtual thread of its own instead of
+ * its fixed worker pool, so {@code server.tomcat.threads.max} no longer caps how many requests can be blocked in JPA at
+ * once. {@link ConnectionPoolLimiter} keeps the database side bounded.
+ * <p>
+ * That needs virtual threads (Java 21+), and on an older JVM the application refuses to start. There is no platform
+ * thread stand-in: a thread per request would be unbounded, and a bounded pool would just be Tomcat's own pool, minus
+ * the accept queue that pushes back on clients.
+ */
+@Configuration
+@ConditionalOnProperty(name = RequestExecutionConfig.MODE, havingValue = "virtual")
+public class RequestExecutionConfig {
+
+	static final String MODE = "requests.execution.mode";
+
+	// not a bean of its own: an Executor bean would switch off Boot's applicationTaskExecutor
+	private final ExecutorService requestExecutor;
+
+	RequestExecutionConfig() {
+		this.requestExecutor = threadPerTask();
+	}
+
+	@Bean
+	TomcatProtocolHandlerCustomizer<?> requestExecutorCustomizer() {
+		return protocolHandler -> protocolHandler.setExecutor(this.requestExecutor);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.requestExecutor.shutdown();
+	}
+
+	static boolean virtualThreadsAvailable() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	static ExecutorService threadPerTask() {
+		if (!virtualThreadsAvailable()) {
+			throw new IllegalStateException(MODE + "=virtual needs virtual threads (Java 21+), and this JVM is Java "
+					+ System.getProperty("java.specification.version") + ". Run on Java 21+, or use " + MODE
+					+ "=platform and size server.tomcat.threads.max instead");
+		}
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Could not create a virtual thread executor", e);
+		}
+	}
+}
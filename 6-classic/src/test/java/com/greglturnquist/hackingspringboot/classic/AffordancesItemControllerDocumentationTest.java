@@ -28,6 +28,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.restdocs.RestDocumentationContextProvider;
 import org.springframework.test.web.reactive.server.WebTestClient;
@@ -40,6 +41,7 @@ import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
 // tag::intro[]
 @WebMvcTest(controllers = AffordancesItemController.class) // <1>
 @AutoConfigureRestDocs // <2>
+@Import({ ItemCatalog.class, LinkTemplates.class })
 public class AffordancesItemControllerDocumentationTest {
 
 	private WebTestClient webTestClient; // <3>
@@ -77,8 +79,6 @@ public class AffordancesItemControllerDocumentationTest {
 	@Test
 	void findAggregateRootItemAffordances() {
 		when(repository.findAll()).thenReturn(Arrays.asList( //
-				new Item("Alf alarm clock", "nothing I really need", 19.99)));
-		when(repository.findById((Integer) null)).thenReturn(Optional.of( //
 				new Item(1, "Alf alarm clock", "nothing I really need", 19.99)));
 
 		this.webTestClient.get().uri("/affordances/items") // <1>
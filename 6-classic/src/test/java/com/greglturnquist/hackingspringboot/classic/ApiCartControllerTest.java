@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+/**
+ * Drives a cart through the JSON API, click after click, and checks each answer shows the cart as it now stands. Every
+ * endpoint answers with {@link CartView}'s shape.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ApiCartControllerTest {
+
+	@Autowired MockMvc mockMvc;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired CartRepository cartRepository;
+
+	String cartId = "api " + UUID.randomUUID();
+
+	Item item;
+
+	@BeforeEach
+	void setUp() {
+		this.item = this.itemRepository.save(new Item("api-lamp", "clicked through the API", 3.5));
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.cartRepository.findById(this.cartId).ifPresent(this.cartRepository::delete);
+		this.itemRepository.delete(this.item);
+	}
+
+	@Test
+	void everyClickAnswersWithTheCurrentCart() throws Exception {
+		String add = "/api/carts/{cartId}/add/{itemId}";
+		String remove = "/api/carts/{cartId}/remove/{itemId}";
+
+		expectQuantity(post(add, this.cartId, this.item.getId()), 1);
+		expectQuantity(post(add, this.cartId, this.item.getId()), 2);
+		expectQuantity(post(add, this.cartId, this.item.getId()), 3);
+		expectQuantity(delete(remove, this.cartId, this.item.getId()), 2);
+		expectQuantity(delete(remove, this.cartId, this.item.getId()), 1);
+
+		this.mockMvc.perform(delete(remove, this.cartId, this.item.getId())) //
+				.andExpect(status().isOk()) //
+				.andExpect(jsonPath("$.id").value(this.cartId)) //
+				.andExpect(jsonPath("$.lines").isEmpty());
+	}
+
+	@Test
+	void everyEndpointAnswersWithTheSameShape() throws Exception {
+		expectQuantity(post("/api/carts/{cartId}/add/{itemId}", this.cartId, this.item.getId()), 1);
+		expectQuantity(get("/api/carts/{cartId}", this.cartId), 1);
+
+		String cart = "$[?(@.id == '" + this.cartId + "')]";
+		this.mockMvc.perform(get("/api/carts")) //
+				.andExpect(status().isOk()) //
+				.andExpect(jsonPath(cart + ".lines[0].itemName").value("api-lamp")) //
+				.andExpect(jsonPath(cart + ".lines[0].quantity").value(1)) //
+				.andExpect(jsonPath("$[*].cartItems").isEmpty());
+	}
+
+	@Test
+	void linesPointingBackAtTheirCartStillHash() {
+		Cart cart = new Cart(this.cartId);
+		CartItem cartItem = new CartItem(this.item);
+		cartItem.setCart(cart);
+		cart.getCartItems().add(cartItem);
+
+		assertThat(cart).isEqualTo(cart).hasSameHashCodeAs(cart);
+		assertThat(cartItem.hashCode()).isEqualTo(new CartItem(this.item).hashCode());
+	}
+
+	private void expectQuantity(RequestBuilder click, int quantity) throws Exception {
+		this.mockMvc.perform(click) //
+				.andExpect(status().isOk()) //
+				.andExpect(jsonPath("$.id").value(this.cartId)) //
+				.andExpect(jsonPath("$.lines.length()").value(1)) //
+				.andExpect(jsonPath("$.lines[0].itemId").value(this.item.getId())) //
+				.andExpect(jsonPath("$.lines[0].itemName").value("api-lamp")) //
+				.andExpect(jsonPath("$.lines[0].quantity").value(quantity));
+	}
+}
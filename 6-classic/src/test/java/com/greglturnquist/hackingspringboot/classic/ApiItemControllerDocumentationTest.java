@@ -28,6 +28,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.restdocs.RestDocumentationContextProvider;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.test.web.servlet.MockMvc;
@@ -39,6 +40,7 @@ import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
 // tag::intro[]
 @WebMvcTest(controllers = ApiItemController.class) // <1>
 @AutoConfigureRestDocs // <2>
+@Import(ItemCatalog.class)
 public class ApiItemControllerDocumentationTest {
 
 	private WebTestClient webTestClient; // <3>
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Hundreds of threads hammer one cart. Every call that returns normally must be reflected in the final quantities,
+ * and no item may end up with more than one line.
+ */
+@SpringBootTest
+public class CartConcurrencyStressTest {
+
+	private static final Logger log = LoggerFactory.getLogger(CartConcurrencyStressTest.class);
+
+	private static final int THREADS = 200;
+
+	private static final int CALLS_PER_THREAD = 5;
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired CartRepository cartRepository;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	String cartId = "stress-" + UUID.randomUUID();
+
+	List<Item> items = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		this.items.add(this.itemRepository.save(new Item("stress-a", "contended", 1.0)));
+		this.items.add(this.itemRepository.save(new Item("stress-b", "contended", 2.0)));
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.cartRepository.deleteById(this.cartId);
+		this.itemRepository.deleteAll(this.items);
+	}
+
+	@Test
+	void concurrentAddsAreNeitherLostNorDuplicated() throws InterruptedException {
+		int succeeded = hammer((thread, call) -> this.inventoryService.addItemToCart(this.cartId,
+				this.items.get((thread + call) % this.items.size()).getId()));
+
+		CartView cart = this.inventoryService.getCartView(this.cartId).orElseThrow(IllegalStateException::new);
+
+		log.info("{} of {} adds succeeded, {} conflicts", succeeded, THREADS * CALLS_PER_THREAD, conflicts());
+
+		assertThat(cart.getLines()).extracting(CartView.Line::getItemName) //
+				.containsExactlyInAnyOrder("stress-a", "stress-b");
+		assertThat(cart.getLines().stream().mapToInt(CartView.Line::getQuantity).sum()).isEqualTo(succeeded);
+	}
+
+	@Test
+	void concurrentRemovesAreNotLost() throws InterruptedException {
+		Integer itemId = this.items.get(0).getId();
+		for (int i = 0; i < 2 * THREADS * CALLS_PER_THREAD; i++) {
+			this.inventoryService.addItemToCart(this.cartId, itemId);
+		}
+
+		int succeeded = hammer((thread, call) -> this.inventoryService.removeOneFromCart(this.cartId, itemId));
+
+		CartView cart = this.inventoryService.getCartView(this.cartId).orElseThrow(IllegalStateException::new);
+
+		assertThat(cart.getLines()).hasSize(1);
+		assertThat(cart.getLines().get(0).getQuantity()).isEqualTo(2 * THREADS * CALLS_PER_THREAD - succeeded);
+	}
+
+	/**
+	 * Release all threads at once, each making its calls, and return how many calls completed without an exception.
+	 */
+	private int hammer(BiConsumer<Integer, Integer> call) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger succeeded = new AtomicInteger();
+
+		for (int t = 0; t < THREADS; t++) {
+			int thread = t;
+			executor.execute(() -> {
+				try {
+					start.await();
+					for (int c = 0; c < CALLS_PER_THREAD; c++) {
+						try {
+							call.accept(thread, c);
+							succeeded.incrementAndGet();
+						} catch (RuntimeException e) {
+							log.debug("Call failed after retries", e);
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(2, TimeUnit.MINUTES)).isTrue();
+
+		return succeeded.get();
+	}
+
+	private double conflicts() {
+		return this.meterRegistry.find("cart.update.conflicts").counters().stream().mapToDouble(c -> c.count()).sum();
+	}
+}
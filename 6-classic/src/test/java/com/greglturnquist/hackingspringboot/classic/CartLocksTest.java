@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Checks that {@link CartLocks} serializes one cart without serializing all of them. The throughput benchmark runs 2048
+ * mutations, each holding its lock for 100µs, from 64 threads spread over 1, 8, 64 and 512 carts, against the same
+ * work behind a single global lock.
+ */
+public class CartLocksTest {
+
+	private static final Logger log = LoggerFactory.getLogger(CartLocksTest.class);
+
+	private static final int THREADS = 64;
+	private static final int MUTATIONS = 2048;
+	private static final long HOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+	@AfterEach
+	void tearDown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	void stripeCountIsRoundedUpToAPowerOfTwo() {
+		assertThat(new CartLocks(1, this.meterRegistry).stripes()).isEqualTo(1);
+		assertThat(new CartLocks(1000, this.meterRegistry).stripes()).isEqualTo(1024);
+		assertThat(new CartLocks(1024, this.meterRegistry).stripes()).isEqualTo(1024);
+	}
+
+	@Test
+	void millionsOfCartsShareAFixedSetOfLocks() {
+		CartLocks locks = new CartLocks(1024, this.meterRegistry);
+		Set<Object> used = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		for (int i = 0; i < 2_000_000; i++) {
+			used.add(locks.stripeFor("cart-" + i));
+		}
+
+		assertThat(used).hasSize(1024);
+		assertThat(locks.stripeFor("cart-42")).isSameAs(locks.stripeFor("cart-42"));
+	}
+
+	@Test
+	void mutationsOfOneCartNeverOverlap() throws Exception {
+		CartLocks locks = new CartLocks(1024, this.meterRegistry);
+		int[] quantity = new int[1];
+
+		run(MUTATIONS, i -> locks.run("cart", () -> quantity[0]++));
+
+		assertThat(quantity[0]).isEqualTo(MUTATIONS);
+		assertThat(this.meterRegistry.get("cart.lock.wait").timer().count()).isEqualTo(MUTATIONS);
+		assertThat(this.meterRegistry.get("cart.lock.wait").timer().max(TimeUnit.NANOSECONDS)).isPositive();
+	}
+
+	@Test
+	void reentrantCallsOnTheSameCartDoNotDeadlock() {
+		CartLocks locks = new CartLocks(16, this.meterRegistry);
+
+		assertThat(locks.withLock("cart", () -> locks.withLock("cart", () -> "done"))).isEqualTo("done");
+	}
+
+	@Test
+	void distinctCartsProceedInParallel() throws Exception {
+		CartLocks locks = new CartLocks(1024, this.meterRegistry);
+		String first = "cart-a";
+		String second = otherStripe(locks, first);
+
+		CountDownLatch secondEntered = new CountDownLatch(1);
+		Future<?> holder = holdUntil(locks, first, secondEntered);
+
+		// would never get in if the first cart's lock were shared
+		Future<?> other = this.executor.submit(() -> locks.run(second, secondEntered::countDown));
+
+		assertThat(secondEntered.await(10, TimeUnit.SECONDS)).isTrue();
+		other.get(10, TimeUnit.SECONDS);
+		holder.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void aSingleGlobalLockMakesEveryCartWait() throws Exception {
+		CartLocks locks = new CartLocks(1, this.meterRegistry);
+
+		CountDownLatch release = new CountDownLatch(1);
+		Future<?> holder = holdUntil(locks, "cart-a", release);
+		CountDownLatch secondEntered = new CountDownLatch(1);
+		Future<?> other = this.executor.submit(() -> locks.run("cart-b", secondEntered::countDown));
+
+		assertThat(secondEntered.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		release.countDown();
+		assertThat(secondEntered.await(10, TimeUnit.SECONDS)).isTrue();
+		other.get(10, TimeUnit.SECONDS);
+		holder.get(10, TimeUnit.SECONDS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 1, 8, 64, 512 })
+	@Tag("benchmark")
+	void stripedThroughputAgainstAGlobalLock(int carts) throws Exception {
+		long global = elapsed(new CartLocks(1, new SimpleMeterRegistry()), carts);
+		long striped = elapsed(new CartLocks(1024, new SimpleMeterRegistry()), carts);
+
+		log.info("{} carts: global {} ops/s, striped {} ops/s", carts, opsPerSecond(global), opsPerSecond(striped));
+	}
+
+	/**
+	 * Takes the cart's lock on another thread, once it is held, and keeps it until {@code release} opens.
+	 */
+	private Future<?> holdUntil(CartLocks locks, String cartId, CountDownLatch release) throws InterruptedException {
+		CountDownLatch held = new CountDownLatch(1);
+		Future<?> holder = this.executor.submit(() -> locks.run(cartId, () -> {
+			held.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		assertThat(held.await(10, TimeUnit.SECONDS)).isTrue();
+		return holder;
+	}
+
+	private static String otherStripe(CartLocks locks, String cartId) {
+		for (int i = 0;; i++) {
+			if (locks.stripeFor("cart-" + i) != locks.stripeFor(cartId)) {
+				return "cart-" + i;
+			}
+		}
+	}
+
+	private long elapsed(CartLocks locks, int carts) throws Exception {
+		long start = System.nanoTime();
+		run(MUTATIONS, i -> locks.run("cart-" + (i % carts), () -> LockSupport.parkNanos(HOLD_NANOS)));
+		return System.nanoTime() - start;
+	}
+
+	private void run(int count, IntConsumer task) throws Exception {
+		List<Future<?>> futures = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int n = i;
+			futures.add(this.executor.submit(() -> task.accept(n)));
+		}
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+	}
+
+	private static long opsPerSecond(long nanos) {
+		return MUTATIONS * TimeUnit.SECONDS.toNanos(1) / Math.max(nanos, 1);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares the single-statement {@link AtomicCartService} against the aggregate-merge path in {@link CartService} for
+ * carts of 1, 50 and 500 lines. Statement counts come from Hibernate's statistics, so the comparison is deterministic;
+ * wall-clock figures are only logged.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class CartMutationBenchmarkTest {
+
+	private static final Logger log = LoggerFactory.getLogger(CartMutationBenchmarkTest.class);
+
+	private static final int ROUNDS = 20;
+
+	@Autowired AtomicCartService atomicCartService;
+
+	@Autowired CartService cartService;
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired TransactionTemplate transactionTemplate;
+
+	@Autowired EntityManagerFactory entityManagerFactory;
+
+	Statistics statistics;
+
+	List<Integer> itemIds;
+
+	@BeforeEach
+	void setUp() {
+		this.statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		this.itemIds = IntStream.range(0, 500) //
+				.mapToObj(i -> this.itemRepository.save(new Item("item-" + i, "benchmark item " + i, 1.99)).getId()) //
+				.collect(Collectors.toList());
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 1, 50, 500 })
+	void atomicIncrementIsOneStatementRegardlessOfCartSize(int lines) {
+		String cartId = "atomic-" + lines;
+		fill(cartId, lines);
+
+		this.statistics.clear();
+		long nanos = time(() -> this.atomicCartService.addOne(cartId, this.itemIds.get(0)));
+
+		assertThat(this.statistics.getPrepareStatementCount()).isEqualTo(ROUNDS);
+		log.info("atomic  {} lines: {} statements/click, {} ns/click", lines,
+				this.statistics.getPrepareStatementCount() / ROUNDS, nanos / ROUNDS);
+
+		assertThat(quantityOf(cartId, this.itemIds.get(0))).isEqualTo(1 + ROUNDS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 1, 50, 500 })
+	void aggregateMergeGrowsWithCartSize(int lines) {
+		String cartId = "merge-" + lines;
+		fill(cartId, lines);
+
+		this.statistics.clear();
+		long nanos = time(() -> this.transactionTemplate
+				.executeWithoutResult(status -> this.cartService.addToCart(cartId, this.itemIds.get(0))));
+
+		assertThat(this.statistics.getPrepareStatementCount()).isGreaterThan((long) ROUNDS * 2);
+		log.info("merge   {} lines: {} statements/click, {} ns/click", lines,
+				this.statistics.getPrepareStatementCount() / ROUNDS, nanos / ROUNDS);
+
+		assertThat(quantityOf(cartId, this.itemIds.get(0))).isEqualTo(1 + ROUNDS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 1, 50 })
+	void removingTheLastOneDeletesTheLine(int lines) {
+		String cartId = "remove-" + lines;
+		fill(cartId, lines);
+
+		this.atomicCartService.addOne(cartId, this.itemIds.get(0));
+		this.atomicCartService.removeOne(cartId, this.itemIds.get(0));
+		assertThat(quantityOf(cartId, this.itemIds.get(0))).isEqualTo(1);
+
+		this.atomicCartService.removeOne(cartId, this.itemIds.get(0));
+		assertThat(quantityOf(cartId, this.itemIds.get(0))).isZero();
+		assertThat(lineCount(cartId)).isEqualTo(lines - 1);
+	}
+
+	private void fill(String cartId, int lines) {
+		this.itemIds.stream().limit(lines).forEach(itemId -> this.atomicCartService.addOne(cartId, itemId));
+		assertThat(lineCount(cartId)).isEqualTo(lines);
+	}
+
+	private long time(Runnable click) {
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			click.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private int quantityOf(String cartId, Integer itemId) {
+		return this.transactionTemplate.execute(status -> this.inventoryService.getCart(cartId) //
+				.flatMap(cart -> cart.getCartItems().stream() //
+						.filter(cartItem -> cartItem.getItem().getId().equals(itemId)) //
+						.findAny()) //
+				.map(CartItem::getQuantity) //
+				.orElse(0));
+	}
+
+	private int lineCount(String cartId) {
+		return this.transactionTemplate.execute(status -> this.inventoryService.getCart(cartId) //
+				.map(cart -> cart.getCartItems().size()) //
+				.orElse(0));
+	}
+}
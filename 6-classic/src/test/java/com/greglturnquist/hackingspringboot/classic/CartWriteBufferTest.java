@@ -0,0 +1,304 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the cart API in write-behind mode. The scheduled flush is pushed out of the way, so the tests decide when
+ * buffered clicks reach the database.
+ */
+@SpringBootTest(properties = { //
+		CartWriteBuffer.ENABLED + "=true", //
+		"cart.write-behind.interval=1h", //
+		"cart.write-behind.max-dirty=3", //
+		"spring.jpa.properties.hibernate.generate_statistics=true" })
+public class CartWriteBufferTest {
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired CartWriteBuffer writeBuffer;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired ItemCatalog itemCatalog;
+
+	@Autowired CartRepository cartRepository;
+
+	@Autowired AtomicCartService atomicCartService;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	@Autowired EntityManagerFactory entityManagerFactory;
+
+	Statistics statistics;
+
+	String cartId = "buffered-" + UUID.randomUUID();
+
+	List<Item> items = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		this.statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		for (int i = 0; i < 3; i++) {
+			this.items.add(this.itemRepository.save(new Item("buffered-" + i, "write-behind item", 1.0 + i)));
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.writeBuffer.flush();
+		this.cartRepository.deleteById(this.cartId);
+		this.itemRepository.deleteAll(this.items);
+	}
+
+	@Test
+	void repeatedClicksCoalesceIntoOneWrite() {
+		Integer itemId = this.items.get(0).getId();
+		this.inventoryService.addItemToCart(this.cartId, itemId);
+
+		this.statistics.clear();
+		for (int i = 0; i < 9; i++) {
+			this.inventoryService.addItemToCart(this.cartId, itemId);
+		}
+		assertThat(this.statistics.getPrepareStatementCount()).isZero();
+
+		double writes = writes();
+		this.writeBuffer.flush();
+
+		assertThat(writes() - writes).isEqualTo(1);
+		assertThat(storedQuantity(itemId)).contains(10);
+	}
+
+	@Test
+	void shoppersReadTheirOwnBufferedClicks() {
+		Integer itemId = this.items.get(0).getId();
+		this.inventoryService.addItemToCart(this.cartId, itemId);
+		this.inventoryService.addItemToCart(this.cartId, itemId);
+
+		assertThat(storedQuantity(itemId)).isEmpty();
+		assertThat(this.inventoryService.getCartView(this.cartId)) //
+				.hasValueSatisfying(view -> assertThat(view.getLines()) //
+						.extracting(CartView.Line::getItemId, CartView.Line::getQuantity) //
+						.containsExactly(tuple(itemId, 2)));
+		assertThat(this.inventoryService.getCart(this.cartId)) //
+				.hasValueSatisfying(cart -> assertThat(cart.getCartItems()).extracting(CartItem::getQuantity) //
+						.containsExactly(2));
+	}
+
+	@Test
+	void removingTheLastOneDeletesTheLineOnFlush() {
+		Integer itemId = this.items.get(0).getId();
+		this.inventoryService.addItemToCart(this.cartId, itemId);
+		this.writeBuffer.flush();
+		assertThat(storedQuantity(itemId)).contains(1);
+
+		this.inventoryService.removeOneFromCart(this.cartId, itemId);
+		this.inventoryService.removeOneFromCart(this.cartId, itemId);
+		assertThat(this.inventoryService.getCartView(this.cartId)) //
+				.hasValueSatisfying(view -> assertThat(view.getLines()).isEmpty());
+
+		this.writeBuffer.flush();
+		assertThat(storedQuantity(itemId)).isEmpty();
+	}
+
+	@Test
+	void reachingTheDirtyLimitFlushesWithoutWaitingForTheSchedule() throws InterruptedException {
+		this.items.forEach(item -> this.inventoryService.addItemToCart(this.cartId, item.getId()));
+
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (this.writeBuffer.dirtyLines() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertThat(this.writeBuffer.dirtyLines()).isZero();
+		this.items.forEach(item -> assertThat(storedQuantity(item.getId())).contains(1));
+	}
+
+	@Test
+	void shutdownWritesWhateverIsStillBuffered() throws InterruptedException {
+		CartWriteBuffer buffer = new CartWriteBuffer(this.cartRepository, this.itemCatalog, this.atomicCartService,
+				Duration.ofHours(1), 1000, 100, 5, new SimpleMeterRegistry());
+		Integer itemId = this.items.get(1).getId();
+
+		buffer.add(this.cartId, itemId);
+		buffer.add(this.cartId, itemId);
+		assertThat(storedQuantity(itemId)).isEmpty();
+
+		buffer.shutdown();
+
+		assertThat(storedQuantity(itemId)).contains(2);
+	}
+
+	@Test
+	void aCartThatCannotBeWrittenIsDroppedAfterTheLastAttempt() throws InterruptedException {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		CartWriteBuffer buffer = new CartWriteBuffer(this.cartRepository, this.itemCatalog, this.atomicCartService,
+				Duration.ofHours(1), 1000, 100, 3, meterRegistry);
+		String unwritable = new String(new char[300]).replace('\0', 'x'); // longer than the id column
+		Integer itemId = this.items.get(0).getId();
+
+		buffer.add(unwritable, itemId);
+		buffer.add(this.cartId, itemId);
+
+		buffer.flush();
+		buffer.flush();
+		assertThat(buffer.dirtyLines()).isEqualTo(1);
+		assertThat(buffer.getCartView(unwritable)).isPresent();
+		assertThat(storedQuantity(itemId)).contains(1); // the good cart in the same batch went through
+
+		buffer.flush();
+		assertThat(buffer.dirtyLines()).isZero();
+		assertThat(buffer.getCartView(unwritable)).isEmpty();
+		assertThat(meterRegistry.get("cart.write-behind.failures").counter().count()).isEqualTo(3);
+		assertThat(meterRegistry.get("cart.write-behind.dropped").counter().count()).isEqualTo(1);
+
+		buffer.flush();
+		assertThat(meterRegistry.get("cart.write-behind.failures").counter().count()).isEqualTo(3);
+		buffer.shutdown();
+	}
+
+	@Test
+	void loadingACartHoldsUpNoOtherCart() throws Exception {
+		CountDownLatch loaded = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+		CartWriteBuffer buffer = new CartWriteBuffer(pausingLoadOf(this.cartId, loaded, resume), this.itemCatalog,
+				this.atomicCartService, Duration.ofHours(1), 1000, 100, 5, new SimpleMeterRegistry());
+		Integer itemId = this.items.get(0).getId();
+		// lands in the same bin of the still small map, which a load under the map's lock would hold
+		String neighbour = IntStream.range(0, 10_000).mapToObj(i -> "neighbour-" + i) //
+				.filter(id -> bin(id) == bin(this.cartId)).findFirst().get();
+		ExecutorService shoppers = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> paused = shoppers.submit(() -> buffer.add(this.cartId, itemId));
+			assertThat(loaded.await(10, TimeUnit.SECONDS)).isTrue();
+
+			shoppers.submit(() -> buffer.add(neighbour, itemId)).get(10, TimeUnit.SECONDS);
+			assertThat(buffer.getCartView(neighbour)).isPresent();
+
+			resume.countDown();
+			paused.get(10, TimeUnit.SECONDS);
+		} finally {
+			resume.countDown();
+			shoppers.shutdown();
+			buffer.shutdown();
+			this.cartRepository.deleteById(neighbour);
+		}
+	}
+
+	@Test
+	void aLoadThatRacedAnEvictionIsRedone() throws Exception {
+		Integer itemId = this.items.get(0).getId();
+		this.inventoryService.addItemToCart(this.cartId, itemId);
+		this.writeBuffer.flush();
+
+		CountDownLatch loaded = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+		CartWriteBuffer buffer = new CartWriteBuffer(pausingLoadOf(this.cartId, loaded, resume), this.itemCatalog,
+				this.atomicCartService, Duration.ofHours(1), 1000, 100, 5, new SimpleMeterRegistry());
+		ExecutorService shoppers = Executors.newFixedThreadPool(2);
+		try {
+			// read quantity 1, then held until another click has written 2 and the cart left the buffer
+			Future<?> paused = shoppers.submit(() -> buffer.add(this.cartId, itemId));
+			assertThat(loaded.await(10, TimeUnit.SECONDS)).isTrue();
+
+			shoppers.submit(() -> buffer.add(this.cartId, itemId)).get(10, TimeUnit.SECONDS);
+			buffer.flush();
+			assertThat(storedQuantity(itemId)).contains(2);
+
+			resume.countDown();
+			paused.get(10, TimeUnit.SECONDS);
+			buffer.flush();
+
+			assertThat(storedQuantity(itemId)).contains(3);
+		} finally {
+			resume.countDown();
+			shoppers.shutdown();
+			buffer.shutdown();
+		}
+	}
+
+	/**
+	 * The cart repository, except that the first load of the given cart reads the database and then waits for
+	 * {@code resume} before returning.
+	 */
+	private CartRepository pausingLoadOf(String cartId, CountDownLatch loaded, CountDownLatch resume) {
+		AtomicBoolean paused = new AtomicBoolean();
+		return (CartRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { CartRepository.class }, (proxy, method, args) -> {
+					Object result;
+					try {
+						result = method.invoke(this.cartRepository, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+					if (method.getName().equals("findCartWithItemsById") && cartId.equals(args[0])
+							&& paused.compareAndSet(false, true)) {
+						loaded.countDown();
+						resume.await();
+					}
+					return result;
+				});
+	}
+
+	/**
+	 * The bin of a {@link java.util.concurrent.ConcurrentHashMap} at its initial 16 bins.
+	 */
+	private static int bin(String key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & 15;
+	}
+
+	private Optional<Integer> storedQuantity(Integer itemId) {
+		return this.cartRepository.findCartWithItemsById(this.cartId) //
+				.flatMap(cart -> cart.getCartItems().stream() //
+						.filter(cartItem -> cartItem.getItem().getId().equals(itemId)) //
+						.findAny()) //
+				.map(CartItem::getQuantity);
+	}
+
+	private double writes() {
+		return this.meterRegistry.get("cart.write-behind.writes").counter().count();
+	}
+}
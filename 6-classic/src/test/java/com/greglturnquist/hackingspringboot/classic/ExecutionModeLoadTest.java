@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.util.StreamUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Load harness for {@link RequestExecutionConfig}. Boots the application once per execution mode with a Tomcat pool
+ * of 8 threads and 32 database connections, then injects 250 ms of latency per statement. 64 clients fetch a cart
+ * through the API. On Tomcat's pool, throughput is capped by the 8 workers. With a thread per request, it rises to the
+ * 32 calls that {@link ConnectionPoolLimiter} lets through at once. The latency is high enough to dominate request
+ * processing even on a single CPU. The thread-per-request run needs virtual threads, so on an older JVM the test is
+ * skipped rather than comparing two pools.
+ */
+@Tag("benchmark")
+public class ExecutionModeLoadTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ExecutionModeLoadTest.class);
+
+	private static final int CLIENTS = 64;
+	private static final int REQUESTS_PER_CLIENT = 2;
+	private static final long LATENCY_MILLIS = 250;
+
+	@Test
+	void threadPerRequestIsBoundByTheConnectionPoolInsteadOfTomcatsWorkers() throws Exception {
+		assumeTrue(RequestExecutionConfig.virtualThreadsAvailable(), "this JVM has no virtual threads");
+
+		long platform = run("platform");
+		long virtual = run("virtual");
+
+		log.info("platform threads: {} req/s, thread per request: {} req/s", perSecond(platform), perSecond(virtual));
+
+		assertThat(virtual).isLessThan(platform / 2);
+	}
+
+	private long run(String mode) throws Exception {
+		// arguments rather than default properties, which application.properties would override
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder( //
+				HackingSpringBootApplication.class, SlowDatabase.class) //
+						.run("--" + RequestExecutionConfig.MODE + "=" + mode, //
+								"--server.port=0", //
+								"--server.tomcat.threads.max=8", //
+								"--server.tomcat.threads.min-spare=8", //
+								"--spring.datasource.hikari.maximum-pool-size=32", //
+								"--spring.jmx.enabled=false")) {
+
+			Item item = context.getBean(ItemRepository.class).save(new Item("load", "load test item", 1.0));
+			context.getBean(InventoryService.class).addItemToCart("load", item.getId());
+
+			int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+			URL cart = new URL("http://localhost:" + port + "/api/carts/load");
+
+			hammer(cart); // warm up before the database slows down
+
+			context.getBean(SlowDatabase.class).latencyMillis = LATENCY_MILLIS;
+			long elapsed = hammer(cart);
+
+			MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+			assertThat(meterRegistry.get("db.limiter.rejected").counter().count()).isZero();
+			log.info("{}: limiter waited at most {} ms", mode,
+					meterRegistry.get("db.limiter.wait").timer().max(TimeUnit.MILLISECONDS));
+
+			return elapsed;
+		}
+	}
+
+	private static long hammer(URL url) throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		try {
+			long start = System.nanoTime();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < CLIENTS; i++) {
+				futures.add(clients.submit(() -> {
+					for (int request = 0; request < REQUESTS_PER_CLIENT; request++) {
+						assertThat(get(url)).isEqualTo(200);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(2, TimeUnit.MINUTES);
+			}
+			return System.nanoTime() - start;
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	private static int get(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try (InputStream body = connection.getInputStream()) {
+			StreamUtils.drain(body);
+			return connection.getResponseCode();
+		}
+	}
+
+	private static long perSecond(long nanos) {
+		return CLIENTS * REQUESTS_PER_CLIENT * TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	/**
+	 * Wraps the application's {@link DataSource} so that preparing a statement takes {@link #latencyMillis}, standing
+	 * in for a slow or remote database.
+	 */
+	static class SlowDatabase implements BeanPostProcessor {
+
+		volatile long latencyMillis;
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) {
+			if (!(bean instanceof DataSource)) {
+				return bean;
+			}
+			return new DelegatingDataSource((DataSource) bean) {
+
+				@Override
+				public Connection getConnection() throws SQLException {
+					return slow(super.getConnection());
+				}
+			};
+		}
+
+		private Connection slow(Connection connection) {
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+					(proxy, method, args) -> {
+						if (method.getName().startsWith("prepare") && this.latencyMillis > 0) {
+							Thread.sleep(this.latencyMillis);
+						}
+						try {
+							return method.invoke(connection, args);
+						} catch (InvocationTargetException e) {
+							throw e.getTargetException();
+						}
+					});
+		}
+	}
+}
@@ -29,6 +29,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.restdocs.RestDocumentationContextProvider;
 import org.springframework.test.web.reactive.server.WebTestClient;
@@ -41,6 +42,7 @@ import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
 // tag::intro[]
 @WebMvcTest(controllers = HypermediaItemController.class)
 @AutoConfigureRestDocs
+@Import({ ItemCatalog.class, LinkTemplates.class })
 public class HypermediaItemControllerDocumentationTest {
 
 	private WebTestClient webTestClient;
@@ -63,10 +65,6 @@ public class HypermediaItemControllerDocumentationTest {
 	void findingAllItems() {
 		when(repository.findAll()) //
 				.thenReturn(Arrays.asList( //
-						new Item("Alf alarm clock", //
-								"nothing I really need", 19.99)));
-		when(repository.findById((Integer) null)) //
-				.thenReturn(Optional.of( //
 						new Item(1, "Alf alarm clock", //
 								"nothing I really need", 19.99)));
 
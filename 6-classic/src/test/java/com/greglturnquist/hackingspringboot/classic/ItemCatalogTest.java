@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ItemCatalogTest {
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemCatalog catalog;
+
+	@Autowired CacheManager cacheManager;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+		this.cacheManager.getCacheNames().forEach(name -> this.cacheManager.getCache(name).clear());
+	}
+
+	@Test
+	void repeatedReadsAreServedFromTheSnapshot() {
+		double hits = cacheGets(ItemCatalog.CATALOG, "hit");
+
+		List<Item> first = this.catalog.findAll();
+		List<Item> second = this.catalog.findAll();
+
+		assertThat(second).isSameAs(first);
+		assertThat(cacheGets(ItemCatalog.CATALOG, "hit")).isEqualTo(hits + 1);
+		assertThatExceptionOfType(UnsupportedOperationException.class) //
+				.isThrownBy(() -> first.add(new Item("sneaky", "not in the catalog", 0.99)));
+	}
+
+	@Test
+	void savingRefreshesTheItemAndDropsTheSnapshot() {
+		List<Item> before = this.catalog.findAll();
+
+		Item saved = this.catalog.save(new Item("Smurf TV tray", "cached", 24.99));
+
+		assertThat(this.catalog.findAll()).isNotSameAs(before).contains(saved);
+
+		double misses = cacheGets(ItemCatalog.ITEMS, "miss");
+		assertThat(this.catalog.findById(saved.getId())).contains(saved);
+		assertThat(cacheGets(ItemCatalog.ITEMS, "miss")).isEqualTo(misses);
+	}
+
+	@Test
+	void deletingEvictsTheItem() {
+		Item saved = this.catalog.save(new Item("Alf alarm clock", "short lived", 19.99));
+		assertThat(this.catalog.findById(saved.getId())).isPresent();
+
+		this.catalog.deleteById(saved.getId());
+
+		assertThat(this.catalog.findById(saved.getId())).isEmpty();
+		assertThat(this.catalog.findAll()).doesNotContain(saved);
+	}
+
+	@Test
+	void missesAreNotCached(@Autowired JdbcTemplate jdbcTemplate) {
+		int id = 10_000_000;
+		assertThat(this.catalog.findById(id)).isEmpty();
+
+		// created without going through the catalog, as bulk imports and batches from the broker are
+		jdbcTemplate.update("insert into item (id, name, description, price) values (?, 'Lava lamp', 'uncached', 9.99)",
+				id);
+		try {
+			assertThat(this.catalog.findById(id)).get().extracting(Item::getName).isEqualTo("Lava lamp");
+		} finally {
+			jdbcTemplate.update("delete from item where id = ?", id);
+		}
+	}
+
+	@Test
+	void statisticsArePublishedThroughActuator() {
+		this.catalog.findAll();
+		this.catalog.findAll();
+
+		this.webTestClient.get().uri("/actuator/caches") //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$.cacheManagers.cacheManager.caches.catalog").exists() //
+				.jsonPath("$.cacheManagers.cacheManager.caches.items").exists();
+
+		this.webTestClient.get().uri("/actuator/metrics/cache.gets?tag=cache:catalog&tag=result:hit") //
+				.exchange() //
+				.expectStatus().isOk();
+
+		this.webTestClient.get().uri("/actuator/metrics/cache.evictions?tag=cache:items") //
+				.exchange() //
+				.expectStatus().isOk();
+	}
+
+	private double cacheGets(String cache, String result) {
+		return this.meterRegistry.get("cache.gets").tag("cache", cache).tag("result", result).functionCounter().count();
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the change feed end to end over HTTP, then checks resume, restart, and slow or stuck consumer handling against
+ * feeds of its own.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ItemChangeFeedTest {
+
+	@LocalServerPort int port;
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	List<HttpURLConnection> connections = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		this.connections.forEach(HttpURLConnection::disconnect);
+	}
+
+	@Test
+	void inventoryChangesAreStreamedAndCanBeResumed() throws Exception {
+		BufferedReader stream = open(null);
+		awaitSubscribers(1);
+
+		Item item = this.inventoryService.saveItem(new Item("feed", "streamed", 1.0));
+		item.setPrice(2.0);
+		this.inventoryService.saveItem(item);
+		this.inventoryService.deleteItem(item.getId());
+
+		Map<String, String> created = nextEvent(stream);
+		assertThat(created).containsEntry("event", "created");
+		assertThat(created.get("data")).contains("\"itemId\":" + item.getId(), "\"name\":\"feed\"");
+		assertThat(nextEvent(stream)).containsEntry("event", "updated");
+		Map<String, String> deleted = nextEvent(stream);
+		assertThat(deleted).containsEntry("event", "deleted");
+		assertThat(deleted.get("data")).isEqualTo("{\"type\":\"DELETED\",\"itemId\":" + item.getId() + "}");
+
+		// a client that only saw the first event is sent the other two on reconnect
+		BufferedReader resumed = open(created.get("id"));
+		assertThat(nextEvent(resumed)).containsEntry("event", "updated");
+		assertThat(nextEvent(resumed)).containsEntry("event", "deleted").containsEntry("id", deleted.get("id"));
+	}
+
+	@Test
+	void resumingReplaysOnlyWhatWasMissed() throws InterruptedException {
+		ItemChangeFeed feed = feed(10, 16, Duration.ofMinutes(1), new SimpleMeterRegistry());
+		for (int i = 1; i <= 5; i++) {
+			feed.publish(ItemChange.deleted(i));
+		}
+
+		RecordingEmitter emitter = new RecordingEmitter(null);
+		feed.subscribe(emitter, feed.eventId(2));
+		feed.publish(ItemChange.deleted(6));
+
+		assertThat(emitter.next()).startsWith("id:" + feed.eventId(3) + "\nevent:deleted\n");
+		assertThat(emitter.next()).startsWith("id:" + feed.eventId(4) + "\n");
+		assertThat(emitter.next()).startsWith("id:" + feed.eventId(5) + "\n");
+		assertThat(emitter.next()).startsWith("id:" + feed.eventId(6) + "\n");
+	}
+
+	@Test
+	void resumingFromBeyondTheHistoryAsksForAReset() throws InterruptedException {
+		ItemChangeFeed feed = feed(3, 16, Duration.ofMinutes(1), new SimpleMeterRegistry());
+		for (int i = 1; i <= 10; i++) {
+			feed.publish(ItemChange.deleted(i));
+		}
+
+		RecordingEmitter emitter = new RecordingEmitter(null);
+		feed.subscribe(emitter, feed.eventId(1));
+		feed.publish(ItemChange.deleted(11));
+
+		assertThat(emitter.next()).startsWith("id:" + feed.eventId(10) + "\nevent:" + ItemChangeFeed.RESET + "\n");
+		assertThat(emitter.next()).startsWith("id:" + feed.eventId(11) + "\nevent:deleted\n");
+	}
+
+	@Test
+	void resumingWithAnIdFromBeforeARestartAsksForAReset() throws InterruptedException {
+		ItemChangeFeed beforeRestart = feed(10, 16, Duration.ofMinutes(1), new SimpleMeterRegistry());
+		ItemChangeFeed afterRestart = feed(10, 16, Duration.ofMinutes(1), new SimpleMeterRegistry());
+		for (int i = 1; i <= 5; i++) {
+			beforeRestart.publish(ItemChange.deleted(i));
+		}
+		afterRestart.publish(ItemChange.deleted(6));
+
+		// ahead of the restarted sequence, and behind it: neither says what the client has seen
+		for (long seen : new long[] { 5, 1 }) {
+			RecordingEmitter emitter = new RecordingEmitter(null);
+			afterRestart.subscribe(emitter, beforeRestart.eventId(seen));
+
+			assertThat(emitter.next()).startsWith("id:" + afterRestart.eventId(1) + "\nevent:" + ItemChangeFeed.RESET);
+		}
+
+		RecordingEmitter legacy = new RecordingEmitter(null);
+		afterRestart.subscribe(legacy, "1");
+		assertThat(legacy.next()).contains("event:" + ItemChangeFeed.RESET);
+	}
+
+	@Test
+	void subscribersBehindABurstAreDroppedToResumeWithoutHoldingUpOthers() throws InterruptedException {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		int buffer = 4;
+		ItemChangeFeed feed = feed(100, buffer, Duration.ofMinutes(1), registry);
+
+		CountDownLatch stuck = new CountDownLatch(1);
+		RecordingEmitter slow = new RecordingEmitter(stuck);
+		RecordingEmitter fast = new RecordingEmitter(null);
+		feed.subscribe(slow, null);
+		feed.subscribe(fast, null);
+
+		// one event in flight plus a full buffer, and then one more, while the fast one keeps up
+		feed.publish(ItemChange.deleted(1));
+		assertThat(slow.sending.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(fast.next()).startsWith("id:" + feed.eventId(1) + "\n");
+		for (int i = 2; i <= buffer + 3; i++) {
+			feed.publish(ItemChange.deleted(i));
+			assertThat(fast.next()).startsWith("id:" + feed.eventId(i) + "\n");
+		}
+
+		assertThat(registry.get("items.changes.dropped").tag("reason", "overflow").counter().count()).isEqualTo(1);
+		assertThat(registry.get("items.changes.subscribers").gauge().value()).isEqualTo(1);
+
+		// the send in flight finishes, then the stream ends instead of carrying on
+		stuck.countDown();
+		assertThat(slow.next()).startsWith("id:" + feed.eventId(1) + "\nevent:deleted\n");
+		assertThat(slow.completed.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(slow.events).isEmpty();
+
+		// and the client picks up where it left off
+		RecordingEmitter resumed = new RecordingEmitter(null);
+		feed.subscribe(resumed, feed.eventId(1));
+		for (int i = 2; i <= buffer + 3; i++) {
+			assertThat(resumed.next()).startsWith("id:" + feed.eventId(i) + "\nevent:deleted\n");
+		}
+	}
+
+	@Test
+	void subscribersStuckInASendAreDropped() throws InterruptedException {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ItemChangeFeed feed = feed(100, 16, Duration.ofMillis(50), registry);
+
+		CountDownLatch stuck = new CountDownLatch(1);
+		RecordingEmitter stalled = new RecordingEmitter(stuck);
+		RecordingEmitter fast = new RecordingEmitter(null);
+		feed.subscribe(stalled, null);
+		feed.subscribe(fast, null);
+
+		feed.publish(ItemChange.deleted(1));
+		assertThat(stalled.sending.await(10, TimeUnit.SECONDS)).isTrue();
+		Thread.sleep(100);
+		feed.publish(ItemChange.deleted(2));
+
+		assertThat(registry.get("items.changes.dropped").tag("reason", "stalled").counter().count()).isEqualTo(1);
+		assertThat(registry.get("items.changes.subscribers").gauge().value()).isEqualTo(1);
+		assertThat(fast.next()).startsWith("id:" + feed.eventId(1) + "\n");
+		assertThat(fast.next()).startsWith("id:" + feed.eventId(2) + "\n");
+
+		stuck.countDown();
+		assertThat(stalled.completed.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(stalled.events).hasSize(1);
+	}
+
+	private static ItemChangeFeed feed(int history, int buffer, Duration writeTimeout, MeterRegistry registry) {
+		return new ItemChangeFeed(history, buffer, 2, Duration.ofMinutes(1), writeTimeout, registry);
+	}
+
+	private BufferedReader open(String lastEventId) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:" + this.port + "/api/items/changes").openConnection();
+		connection.setRequestProperty("Accept", "text/event-stream");
+		if (lastEventId != null) {
+			connection.setRequestProperty("Last-Event-ID", lastEventId);
+		}
+		connection.setReadTimeout(10_000);
+		this.connections.add(connection);
+		return new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+	}
+
+	private void awaitSubscribers(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (this.meterRegistry.get("items.changes.subscribers").gauge().value() < count) {
+			assertThat(System.nanoTime()).isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static Map<String, String> nextEvent(BufferedReader reader) throws IOException {
+		Map<String, String> fields = new LinkedHashMap<>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty()) {
+				if (!fields.isEmpty()) {
+					return fields;
+				}
+				continue;
+			}
+			if (line.startsWith(":")) {
+				continue; // a comment
+			}
+			int colon = line.indexOf(':');
+			fields.merge(line.substring(0, colon), line.substring(colon + 1), (a, b) -> a + "\n" + b);
+		}
+		throw new IOException("stream ended");
+	}
+
+	/**
+	 * Records each event as its wire text. Sends block until {@code release} opens, if there is one.
+	 */
+	static class RecordingEmitter extends SseEmitter {
+
+		final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch completed = new CountDownLatch(1);
+		private final CountDownLatch release;
+
+		RecordingEmitter(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			this.sending.countDown();
+			if (this.release != null) {
+				try {
+					this.release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			this.events.add(builder.build().stream() //
+					.map(data -> data.getData().toString()) //
+					.collect(Collectors.joining()));
+		}
+
+		@Override
+		public synchronized void complete() {
+			super.complete();
+			this.completed.countDown();
+		}
+
+		String next() throws InterruptedException {
+			return this.events.poll(10, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+/**
+ * The hypermedia collection endpoints must issue one query per request no matter how large the catalog is.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+public class ItemCollectionQueryCountTest {
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemRepository repository;
+
+	@Autowired CacheManager cacheManager;
+
+	Statistics statistics;
+
+	List<Item> created = new ArrayList<>();
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc, @Autowired EntityManagerFactory entityManagerFactory) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc) //
+				.codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024)) //
+				.build();
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.repository.deleteAll(this.created);
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "/hypermedia/items, 10", "/hypermedia/items, 1000", //
+			"/affordances/items, 10", "/affordances/items, 1000" })
+	void collectionIsOneQueryRegardlessOfSize(String uri, int size) {
+		for (int i = 0; i < size; i++) {
+			this.created.add(this.repository.save(new Item("item-" + i, "catalog item", 1.99)));
+		}
+		Integer id = this.created.get(size - 1).getId();
+		long total = this.repository.count();
+
+		this.cacheManager.getCacheNames().forEach(name -> this.cacheManager.getCache(name).clear());
+		this.statistics.clear();
+
+		this.webTestClient.get().uri(uri) //
+				.accept(MediaTypes.HAL_FORMS_JSON) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$._embedded.itemList.length()").isEqualTo(total) //
+				.jsonPath("$._embedded.itemList[?(@.id == " + id + ")]._links.self.href") //
+				.isEqualTo("http://localhost" + uri + "/" + id);
+
+		assertThat(this.statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The export endpoint must emit one JSON document per line covering the whole catalog, in id order.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ItemExportTest {
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemRepository repository;
+
+	@Autowired ObjectMapper mapper;
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+	}
+
+	@Test
+	void exportWritesOneItemPerLine() throws IOException {
+		String body = this.webTestClient.get().uri("/api/items/export") //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON) //
+				.expectBody(String.class).returnResult().getResponseBody();
+
+		List<Item> exported = new BufferedReader(new StringReader(body)).lines() //
+				.map(this::read) //
+				.collect(Collectors.toList());
+
+		List<Integer> expected = StreamSupport.stream(this.repository.findAll().spliterator(), false) //
+				.map(Item::getId) //
+				.sorted() //
+				.collect(Collectors.toList());
+
+		assertThat(body).endsWith("\n");
+		assertThat(exported).extracting(Item::getId).isEqualTo(expected);
+		assertThat(exported).extracting(Item::getName).contains("Alf alarm clock", "Smurf TV tray");
+	}
+
+	private Item read(String line) {
+		try {
+			return this.mapper.readValue(line, Item.class);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+/**
+ * Covers both accepted formats, per-chunk reporting, and compares the batched import against saving items one at a
+ * time. Statement counts come from Hibernate's statistics; rows per second are only logged.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+public class ItemImportTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ItemImportTest.class);
+
+	private static final int ROWS = 5_000;
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemImporter importer;
+
+	@Autowired ItemCatalog catalog;
+
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	Statistics statistics;
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc, @Autowired EntityManagerFactory entityManagerFactory) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.jdbcTemplate.update("delete from item where name like 'import-%'");
+	}
+
+	@Test
+	void jsonArrayIsImportedInChunks() {
+		String body = IntStream.range(0, 7) //
+				.mapToObj(i -> "{\"name\":\"import-" + i + "\",\"description\":\"bulk\",\"price\":1.5}") //
+				.collect(Collectors.joining(",", "[", "]"));
+
+		this.webTestClient.post().uri("/api/items/import?chunkSize=3") //
+				.contentType(MediaType.APPLICATION_JSON) //
+				.bodyValue(body) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$.created").isEqualTo(7) //
+				.jsonPath("$.failed").isEqualTo(0) //
+				.jsonPath("$.chunks.length()").isEqualTo(3) //
+				.jsonPath("$.chunks[0].items").isEqualTo(3) //
+				.jsonPath("$.chunks[2].items").isEqualTo(1) //
+				.jsonPath("$.chunks[2].error").doesNotExist();
+
+		assertThat(this.catalog.findAll()).filteredOn(item -> item.getName().startsWith("import-")).hasSize(7);
+	}
+
+	@Test
+	void ndjsonIsImportedAndIdsInBodyAreIgnored() {
+		String body = "{\"id\":1,\"name\":\"import-a\",\"description\":\"bulk\",\"price\":2.0}\n"
+				+ "{\"id\":2,\"name\":\"import-b\",\"description\":\"bulk\",\"price\":3.0}\n";
+
+		this.webTestClient.post().uri("/api/items/import") //
+				.contentType(MediaType.APPLICATION_NDJSON) //
+				.bodyValue(body) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody().jsonPath("$.created").isEqualTo(2);
+
+		assertThat(this.catalog.findAll()).extracting(Item::getName) //
+				.contains("Alf alarm clock", "Smurf TV tray", "import-a", "import-b");
+	}
+
+	@Test
+	void failedChunkIsReportedAndTheRestAreKept() {
+		String tooLong = new String(new char[300]).replace('\0', 'x');
+		String body = "[{\"name\":\"import-ok-1\",\"price\":1.0},{\"name\":\"import-ok-2\",\"price\":1.0}," //
+				+ "{\"name\":\"import-" + tooLong + "\",\"price\":1.0},{\"name\":\"import-ok-3\",\"price\":1.0}]";
+
+		this.webTestClient.post().uri("/api/items/import?chunkSize=2") //
+				.contentType(MediaType.APPLICATION_JSON) //
+				.bodyValue(body) //
+				.exchange() //
+				.expectStatus().isEqualTo(HttpStatus.MULTI_STATUS) //
+				.expectBody() //
+				.jsonPath("$.created").isEqualTo(2) //
+				.jsonPath("$.failed").isEqualTo(2) //
+				.jsonPath("$.chunks[0].created").isEqualTo(true) //
+				.jsonPath("$.chunks[1].created").isEqualTo(false) //
+				.jsonPath("$.chunks[1].error").exists();
+
+		assertThat(this.catalog.findAll()).extracting(Item::getName) //
+				.contains("import-ok-1", "import-ok-2") //
+				.doesNotContain("import-ok-3");
+	}
+
+	@Test
+	void unreadableInputStopsTheImportButKeepsWhatCameBefore() {
+		this.catalog.findAll(); // cached before the import, so the import has to drop it
+		String body = "[{\"name\":\"import-read-1\",\"price\":1.0},{\"name\":\"import-read-2\",\"price\":1.0}," //
+				+ "{\"name\":\"import-read-3\",\"price\":1.0},{\"name\":\"import-cut";
+
+		this.webTestClient.post().uri("/api/items/import?chunkSize=2") //
+				.contentType(MediaType.APPLICATION_JSON) //
+				.bodyValue(body) //
+				.exchange() //
+				.expectStatus().isEqualTo(HttpStatus.MULTI_STATUS) //
+				.expectBody() //
+				.jsonPath("$.created").isEqualTo(3) //
+				.jsonPath("$.failed").isEqualTo(0) //
+				.jsonPath("$.complete").isEqualTo(false) //
+				.jsonPath("$.chunks.length()").isEqualTo(2) //
+				.jsonPath("$.error").value(error -> assertThat((String) error) //
+						.startsWith("Stopped reading after 3 items"));
+
+		assertThat(this.catalog.findAll()).extracting(Item::getName) //
+				.contains("import-read-1", "import-read-2", "import-read-3");
+	}
+
+	@Test
+	void importedIdsAreNotServedFromTheCache(@Autowired CacheManager cacheManager) {
+		// whatever ids the import is handed, they are already cached as something else
+		Cache items = cacheManager.getCache(ItemCatalog.ITEMS);
+		long next = this.jdbcTemplate.queryForObject(
+				"select current_value from information_schema.sequences where sequence_name = 'ITEM_SEQ'", Long.class);
+		for (int id = (int) next - 50; id <= next + 50; id++) {
+			items.put(id, new Item("stale", "cached before the import", 0.0));
+		}
+
+		String body = "[{\"name\":\"import-fresh-1\",\"price\":1.0},{\"name\":\"import-fresh-2\",\"price\":1.0}]";
+		this.webTestClient.post().uri("/api/items/import") //
+				.contentType(MediaType.APPLICATION_JSON) //
+				.bodyValue(body) //
+				.exchange() //
+				.expectStatus().isOk();
+
+		assertThat(this.catalog.findAll()).filteredOn(item -> item.getName().startsWith("import-fresh")) //
+				.hasSize(2) //
+				.allSatisfy(item -> assertThat(this.catalog.findById(item.getId())).contains(item));
+	}
+
+	@Test
+	void batchedImportUsesFarFewerStatementsThanSavingOneByOne() throws IOException {
+		this.statistics.clear();
+		long start = System.nanoTime();
+		for (int i = 0; i < ROWS; i++) {
+			this.catalog.save(new Item("import-single-" + i, "bulk", 1.0));
+		}
+		long singleNanos = System.nanoTime() - start;
+		long singleStatements = this.statistics.getPrepareStatementCount();
+
+		String ndjson = IntStream.range(0, ROWS) //
+				.mapToObj(i -> "{\"name\":\"import-bulk-" + i + "\",\"description\":\"bulk\",\"price\":1.0}") //
+				.collect(Collectors.joining("\n"));
+
+		this.statistics.clear();
+		start = System.nanoTime();
+		ImportReport report = this.importer.importItems( //
+				new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), 1_000);
+		long bulkNanos = System.nanoTime() - start;
+		long bulkStatements = this.statistics.getPrepareStatementCount();
+
+		log.info("one by one: {} rows/s, {} statements", ROWS * 1_000_000_000L / singleNanos, singleStatements);
+		log.info("batched:    {} rows/s, {} statements", ROWS * 1_000_000_000L / bulkNanos, bulkStatements);
+
+		assertThat(report.getCreated()).isEqualTo(ROWS);
+		assertThat(report.getChunks()).hasSize(5);
+		assertThat(singleStatements).isGreaterThanOrEqualTo(ROWS);
+		assertThat(bulkStatements).isLessThan(ROWS / 10);
+	}
+}
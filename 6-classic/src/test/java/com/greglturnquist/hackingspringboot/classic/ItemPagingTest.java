@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+import com.jayway.jsonpath.JsonPath;
+
+/**
+ * Walks the offset and keyset listings end to end by following their {@code next} and {@code prev} links.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ItemPagingTest {
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemRepository repository;
+
+	List<Item> created = new ArrayList<>();
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+
+		for (int i = 0; i < 45; i++) {
+			this.created.add(this.repository.save(new Item("paged-" + i, "paged item", 1.00 + i)));
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.repository.deleteAll(this.created);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "/api/items", "/hypermedia/items", "/affordances/items" })
+	void keysetPagesCoverEveryItemOnceInBothDirections(String path) {
+		List<Integer> allIds = allIds();
+
+		List<Integer> forward = new ArrayList<>();
+		String last = null;
+		String next = path + "?after=0&size=10";
+		while (next != null) {
+			String body = get(next);
+			forward.addAll(ids(body));
+			last = next;
+			next = link(body, "next");
+		}
+		assertThat(forward).isEqualTo(allIds);
+
+		List<Integer> backward = new ArrayList<>();
+		String body = get(last);
+		String prev = link(body, "prev");
+		while (prev != null) {
+			body = get(prev);
+			backward.addAll(0, ids(body));
+			prev = link(body, "prev");
+		}
+		assertThat(backward).isEqualTo(allIds.subList(0, allIds.size() - ids(get(last)).size()));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "/api/items", "/hypermedia/items", "/affordances/items" })
+	void offsetPagesCoverEveryItemOnce(String path) {
+		List<Integer> pages = new ArrayList<>();
+		String next = path + "?page=0&size=7";
+		String body = null;
+		while (next != null) {
+			body = get(next);
+			pages.addAll(ids(body));
+			next = link(body, "next");
+		}
+		assertThat(pages).isEqualTo(allIds());
+		assertThat(link(body, "prev")).contains("page=" + ((allIds().size() - 1) / 7 - 1)).contains("size=7");
+	}
+
+	@Test
+	void firstPageHasNoPrevAndSizeIsCapped() {
+		String body = get("/api/items?page=0&size=100000");
+
+		assertThat(link(body, "prev")).isNull();
+		assertThat(ids(body)).hasSizeLessThanOrEqualTo(ItemPage.MAX_SIZE);
+		assertThat(link(body, "self")).endsWith("/api/items?page=0&size=100000");
+	}
+
+	@Test
+	void keysetLinksKeepOtherParameters() {
+		Integer afterFirst = this.created.get(0).getId();
+		String body = get("/hypermedia/items?after=" + afterFirst + "&size=5&view=compact");
+
+		assertThat(link(body, "next")).contains("view=compact").contains("size=5").doesNotContain("before=");
+		assertThat(link(body, "prev")).contains("before=" + ids(body).get(0)).doesNotContain("after=");
+	}
+
+	@Test
+	void unpagedListingIsUnchanged() {
+		this.webTestClient.get().uri("/api/items").exchange() //
+				.expectStatus().isOk() //
+				.expectBody().jsonPath("$.length()").isEqualTo(allIds().size());
+	}
+
+	private List<Integer> allIds() {
+		return StreamSupport.stream(this.repository.findAll().spliterator(), false) //
+				.map(Item::getId) //
+				.sorted() //
+				.collect(Collectors.toList());
+	}
+
+	private String get(String uri) {
+		return new String(this.webTestClient.get().uri(uri) //
+				.accept(MediaTypes.HAL_JSON) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody().returnResult().getResponseBody());
+	}
+
+	private static List<Integer> ids(String body) {
+		Map<String, List<Map<String, Object>>> embedded = JsonPath.read(body, "$._embedded");
+		return embedded.values().iterator().next().stream() //
+				.map(item -> (Integer) item.get("id")) //
+				.collect(Collectors.toList());
+	}
+
+	private static String link(String body, String rel) {
+		List<String> hrefs = JsonPath.read(body, "$._links[?(@." + rel + ")]." + rel + ".href");
+		return hrefs.isEmpty() ? null : hrefs.get(0).replace("http://localhost", "");
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Checks suggestions over HTTP as items come and go, and lookups against a typeahead of 20k names. The benchmark
+ * measures lookups against 100k and 1M names, left to {@code mvn test -Pbenchmarks}.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ItemTypeaheadTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ItemTypeaheadTest.class);
+
+	private static final String[] WORDS = { "alarm", "clock", "radio", "smurf", "tv", "tray", "lamp", "lava", "desk",
+			"chair", "kids", "garden", "hose", "crème", "brûlée", "torch", "kettle", "mug", "spoon", "widget" };
+
+	WebTestClient webTestClient;
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	List<Item> saved = new ArrayList<>();
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.saved.forEach(item -> this.inventoryService.deleteItem(item.getId()));
+	}
+
+	@Test
+	void suggestionsFollowSavesAndDeletes() {
+		Item alarm = save("Zebra alarm clock");
+		Item radio = save("Zebra clock radio");
+		save("Crème brûlée zebra torch");
+
+		this.webTestClient.get().uri("/api/items/suggestions?q={q}", "ZEBRA CL") //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$.length()").isEqualTo(1) //
+				.jsonPath("$[0].id").isEqualTo(radio.getId()) //
+				.jsonPath("$[0].name").isEqualTo("Zebra clock radio");
+
+		assertThat(names("zebra")).containsExactly("Zebra alarm clock", "Zebra clock radio", "Crème brûlée zebra torch");
+		assertThat(names("creme bru")).containsExactly("Crème brûlée zebra torch");
+
+		alarm.setName("Zebra kettle");
+		this.inventoryService.saveItem(alarm);
+		assertThat(names("zebra a")).isEmpty();
+		assertThat(names("zebra k")).containsExactly("Zebra kettle");
+
+		this.inventoryService.deleteItem(radio.getId());
+		this.saved.remove(radio);
+		assertThat(names("zebra clock")).isEmpty();
+		assertThat(this.meterRegistry.get("items.typeahead.memory").gauge().value()).isPositive();
+	}
+
+	@Test
+	void incrementalUpdatesMatchAFreshBuild() {
+		ItemTypeahead typeahead = new ItemTypeahead(null, new SimpleMeterRegistry());
+		typeahead.load(names(5000, 1));
+		Random random = new Random(7);
+
+		// enough changes to merge into the sorted entries more than once
+		List<ItemTypeahead.Suggestion> expected = new ArrayList<>(names(5000, 1));
+		for (int i = 0; i < 6000; i++) {
+			int id = 1 + random.nextInt(7000);
+			expected.removeIf(suggestion -> suggestion.getId() == id);
+			if (random.nextInt(4) == 0) {
+				typeahead.update(ItemChange.deleted(id));
+			} else {
+				Item item = new Item(randomName(random), "", 1.0);
+				item.setId(id);
+				typeahead.update(ItemChange.updated(item));
+				expected.add(new ItemTypeahead.Suggestion(id, item.getName()));
+			}
+		}
+
+		ItemTypeahead fresh = new ItemTypeahead(null, new SimpleMeterRegistry());
+		expected.sort((a, b) -> a.getId() - b.getId());
+		fresh.load(expected);
+		for (String word : WORDS) {
+			for (String prefix : new String[] { word.substring(0, 1), word.substring(0, 2), word + " " }) {
+				assertThat(typeahead.suggest(prefix, ItemTypeahead.MAX_LIMIT)).as(prefix) //
+						.isEqualTo(fresh.suggest(prefix, ItemTypeahead.MAX_LIMIT));
+			}
+		}
+		assertThat(typeahead.size()).isEqualTo(fresh.size());
+	}
+
+	@Test
+	void lookupsFindOnlyNamesWithAMatchingWord() {
+		lookUp(20_000);
+	}
+
+	@Tag("benchmark")
+	@ParameterizedTest
+	@ValueSource(ints = { 100_000, 1_000_000 })
+	void lookupsTakeMicroseconds(int items) {
+		lookUp(items);
+	}
+
+	private void lookUp(int items) {
+		ItemTypeahead typeahead = new ItemTypeahead(null, new SimpleMeterRegistry());
+		long start = System.nanoTime();
+		typeahead.load(names(items, 1));
+		long buildMillis = (System.nanoTime() - start) / 1_000_000;
+
+		Random random = new Random(42);
+		List<String> prefixes = IntStream.range(0, 10_000) //
+				.mapToObj(i -> {
+					String name = ItemTypeahead.normalize(randomName(random));
+					return name.substring(0, 1 + random.nextInt(name.length()));
+				}) //
+				.collect(Collectors.toList());
+
+		// checking every answer doubles as the warm up
+		long found = 0;
+		for (String prefix : prefixes) {
+			List<ItemTypeahead.Suggestion> suggestions = typeahead.suggest(prefix, 10);
+			assertThat(suggestions).as(prefix).hasSizeLessThanOrEqualTo(10) //
+					.extracting(suggestion -> " " + ItemTypeahead.normalize(suggestion.getName())) //
+					.allSatisfy(name -> assertThat(name).contains(" " + prefix));
+			found += suggestions.size();
+		}
+		assertThat(found).isPositive();
+
+		int rounds = 5;
+		start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			for (String prefix : prefixes) {
+				typeahead.suggest(prefix, 10);
+			}
+		}
+		double micros = (System.nanoTime() - start) / 1_000.0 / (rounds * prefixes.size());
+
+		log.info("{} names: built in {} ms, {} entries, ~{} MB, {} suggestions, {} us per top-10 lookup", items,
+				buildMillis, typeahead.size(), typeahead.memoryBytes() / (1024 * 1024), found,
+				String.format("%.2f", micros));
+	}
+
+	private Item save(String name) {
+		Item item = this.inventoryService.saveItem(new Item(name, "typeahead", 1.0));
+		this.saved.add(item);
+		return item;
+	}
+
+	private List<String> names(String prefix) {
+		return this.webTestClient.get().uri("/api/items/suggestions?q={q}", prefix) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBodyList(JsonNode.class).returnResult().getResponseBody() //
+				.stream().map(suggestion -> suggestion.get("name").asText()) //
+				.collect(Collectors.toList());
+	}
+
+	private static List<ItemTypeahead.Suggestion> names(int count, int firstId) {
+		Random random = new Random(count);
+		return IntStream.range(firstId, firstId + count) //
+				.mapToObj(id -> new ItemTypeahead.Suggestion(id, randomName(random))) //
+				.collect(Collectors.toList());
+	}
+
+	private static String randomName(Random random) {
+		return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+				+ random.nextInt(10_000);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Exports rows from a file-backed database, so the table itself does not sit on the heap, and checks that the
+ * persistence context never holds more than the item being written. The million-row run is a benchmark, left to
+ * {@code mvn test -Pbenchmarks}.
+ */
+@SpringBootTest(properties = { "spring.datasource.url=jdbc:h2:file:./target/large-export;DB_CLOSE_ON_EXIT=FALSE",
+		"spring.jpa.hibernate.ddl-auto=create-drop" })
+public class LargeItemExportTest {
+
+	private static final Logger log = LoggerFactory.getLogger(LargeItemExportTest.class);
+
+	private static final int FIRST_ID = 10_000_000;
+
+	@Autowired ItemExporter exporter;
+
+	@Autowired EntityManager entityManager;
+
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	@AfterEach
+	void deleteRows() {
+		this.jdbcTemplate.update("delete from item where id >= ?", FIRST_ID);
+	}
+
+	@Test
+	void exportKeepsAtMostOneManagedEntity() throws IOException {
+		exportKeepsAtMostOneManagedEntity(20_000);
+	}
+
+	@Test
+	@Tag("benchmark")
+	void millionRowExportKeepsAtMostOneManagedEntity() throws IOException {
+		exportKeepsAtMostOneManagedEntity(1_000_000);
+	}
+
+	private void exportKeepsAtMostOneManagedEntity(int rows) throws IOException {
+		this.jdbcTemplate.update("insert into item (id, name, description, price) " //
+				+ "select x, 'bulk-' || x, 'bulk item', 9.99 from system_range(?, ?)", FIRST_ID, FIRST_ID + rows - 1);
+		PersistenceContextProbe out = new PersistenceContextProbe();
+
+		long exported = this.exporter.export(out);
+
+		log.info("exported {} items, {} bytes, at most {} managed entities", exported, out.bytes, out.maxManaged);
+
+		assertThat(exported).isGreaterThanOrEqualTo(rows);
+		assertThat(out.lines).isEqualTo(exported);
+		assertThat(out.maxManaged).isLessThanOrEqualTo(1);
+	}
+
+	/**
+	 * Discards the export but counts it, sampling the size of the exporter's persistence context on every buffer
+	 * flush.
+	 */
+	private class PersistenceContextProbe extends OutputStream {
+
+		long bytes;
+		long lines;
+		int maxManaged;
+
+		@Override
+		public void write(int b) {
+			count(b);
+			sample();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				count(b[i]);
+			}
+			sample();
+		}
+
+		private void count(int b) {
+			this.bytes++;
+			if (b == '\n') {
+				this.lines++;
+			}
+		}
+
+		private void sample() {
+			int managed = entityManager.unwrap(Session.class).getStatistics().getEntityCount();
+			this.maxManaged = Math.max(this.maxManaged, managed);
+		}
+	}
+}
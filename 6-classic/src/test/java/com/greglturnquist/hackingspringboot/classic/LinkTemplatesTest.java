@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import com.greglturnquist.hackingspringboot.classic.LinkTemplates.LinkTemplate;
+
+/**
+ * Template links must be identical to the ones {@code linkTo(methodOn(...))} produces, while costing a fraction of
+ * the time and allocation per link.
+ */
+@SpringBootTest
+public class LinkTemplatesTest {
+
+	private static final Logger log = LoggerFactory.getLogger(LinkTemplatesTest.class);
+
+	private static final int LINKS = 20_000;
+
+	@Autowired LinkTemplates linkTemplates;
+
+	@BeforeEach
+	void bindRequest() {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/hypermedia/items");
+		request.setServerName("shop.example.com");
+		request.setServerPort(8443);
+		request.setScheme("https");
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+	}
+
+	@AfterEach
+	void unbindRequest() {
+		RequestContextHolder.resetRequestAttributes();
+	}
+
+	@Test
+	void templateLinksMatchMethodOnLinks() {
+		LinkTemplate itemLink = this.linkTemplates.forMethod(HypermediaItemController.class, "findOne");
+		LinkTemplate itemsLink = this.linkTemplates.forMethod(HypermediaItemController.class, "findAll");
+		HypermediaItemController controller = methodOn(HypermediaItemController.class);
+
+		assertThat(itemLink.expand(IanaLinkRelations.SELF, 42)) //
+				.extracting(Link::getHref, Link::getRel) //
+				.containsExactly(linkTo(controller.findOne(42)).toUri().toString(), IanaLinkRelations.SELF);
+		assertThat(itemLink.expandHref(42)).isEqualTo("https://shop.example.com:8443/hypermedia/items/42");
+		assertThat(itemsLink.expandHref()).isEqualTo(linkTo(controller.findAll()).toUri().toString());
+	}
+
+	@Test
+	void pathVariablesAreEncoded() {
+		LinkTemplate itemLink = this.linkTemplates.forMethod(AffordancesItemController.class, "findOne");
+
+		assertThat(itemLink.expandHref("a b/c")).endsWith("/affordances/items/a%20b%2Fc");
+	}
+
+	@Test
+	void wrongArityAndUnknownMethodsAreRejected() {
+		LinkTemplate itemLink = this.linkTemplates.forMethod(HypermediaItemController.class, "findOne");
+
+		assertThatIllegalArgumentException().isThrownBy(() -> itemLink.expandHref());
+		assertThatIllegalArgumentException() //
+				.isThrownBy(() -> this.linkTemplates.forMethod(HypermediaItemController.class, "noSuchMethod"));
+	}
+
+	@Test
+	void overloadedHandlersAreNamedByTheirParameterTypes() throws NoSuchMethodException {
+		RequestMappingHandlerMapping mapping = new RequestMappingHandlerMapping();
+		Parts parts = new Parts();
+		mapping.registerMapping(RequestMappingInfo.paths("/parts/{id}").build(), parts,
+				Parts.class.getDeclaredMethod("find", Integer.class));
+		mapping.registerMapping(RequestMappingInfo.paths("/parts/{id}/revisions/{revision}").build(), parts,
+				Parts.class.getDeclaredMethod("find", Integer.class, Integer.class));
+		LinkTemplates templates = new LinkTemplates(mapping);
+
+		assertThatIllegalArgumentException().isThrownBy(() -> templates.forMethod(Parts.class, "find")) //
+				.withMessageContaining("overloaded");
+		assertThat(templates.forMethod(Parts.class, "find", Integer.class).expandHref(7)).endsWith("/parts/7");
+		assertThat(templates.forMethod(Parts.class, "find", Integer.class, Integer.class).expandHref(7, 2)) //
+				.endsWith("/parts/7/revisions/2");
+	}
+
+	@Test
+	void regexVariablesEndAtTheirOwnBrace() {
+		assertThat(new LinkTemplate("/parts/{id:[0-9]{3}}/revisions/{revision}").expandHref(123, 4)) //
+				.isEqualTo("https://shop.example.com:8443/parts/123/revisions/4");
+		assertThatIllegalArgumentException().isThrownBy(() -> new LinkTemplate("/parts/{id"));
+	}
+
+	@Test
+	void templateLinksAreCheaperThanMethodOn() {
+		LinkTemplate itemLink = this.linkTemplates.forMethod(HypermediaItemController.class, "findOne");
+
+		Cost methodOn = measure(id -> linkTo(methodOn(HypermediaItemController.class).findOne(id)).withSelfRel());
+		Cost template = measure(id -> itemLink.expand(IanaLinkRelations.SELF, id));
+
+		log.info("methodOn: {} ns/link, {} bytes/link", methodOn.nanosPerLink, methodOn.bytesPerLink);
+		log.info("template: {} ns/link, {} bytes/link", template.nanosPerLink, template.bytesPerLink);
+
+		assertThat(template.bytesPerLink).isLessThan(methodOn.bytesPerLink / 2);
+	}
+
+	private static Cost measure(IntFunction<Link> linkFactory) {
+		for (int i = 0; i < LINKS; i++) { // warm up
+			linkFactory.apply(i);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+
+		int sink = 0;
+		for (int i = 0; i < LINKS; i++) {
+			sink += linkFactory.apply(i).getHref().length();
+		}
+
+		long elapsed = System.nanoTime() - start;
+		long allocated = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+		assertThat(sink).isPositive();
+
+		return new Cost(elapsed / LINKS, allocated / LINKS);
+	}
+
+	static class Parts {
+
+		void find(Integer id) {
+		}
+
+		void find(Integer id, Integer revision) {
+		}
+	}
+
+	private static class Cost {
+
+		final long nanosPerLink;
+		final long bytesPerLink;
+
+		Cost(long nanosPerLink, long bytesPerLink) {
+			this.nanosPerLink = nanosPerLink;
+			this.bytesPerLink = bytesPerLink;
+		}
+	}
+}
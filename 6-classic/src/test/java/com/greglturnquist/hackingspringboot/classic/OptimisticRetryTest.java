@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class OptimisticRetryTest {
+
+	MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	OptimisticRetry retry = new OptimisticRetry(3, Duration.ofMillis(1), this.meterRegistry);
+
+	@Test
+	void conflictsAreRetriedUntilTheUpdateGoesThrough() {
+		AtomicInteger calls = new AtomicInteger();
+
+		this.retry.run("add", () -> {
+			if (calls.incrementAndGet() < 3) {
+				throw new ObjectOptimisticLockingFailureException(Cart.class, "cart");
+			}
+		});
+
+		assertThat(calls).hasValue(3);
+		assertThat(this.meterRegistry.get("cart.update.conflicts").tag("operation", "add").counter().count()).isEqualTo(2);
+		assertThat(this.meterRegistry.get("cart.update.attempts").summary().max()).isEqualTo(3);
+	}
+
+	@Test
+	void lastConflictIsRethrownOnceAttemptsRunOut() {
+		AtomicInteger calls = new AtomicInteger();
+
+		assertThatExceptionOfType(DuplicateKeyException.class).isThrownBy(() -> this.retry.run("add", () -> {
+			calls.incrementAndGet();
+			throw new DuplicateKeyException("duplicate cart");
+		}));
+
+		assertThat(calls).hasValue(3);
+		assertThat(this.meterRegistry.get("cart.update.retries.exhausted").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void onlyDuplicateKeysAmongIntegrityViolationsAreRetried() {
+		AtomicInteger calls = new AtomicInteger();
+
+		this.retry.run("add", () -> {
+			if (calls.incrementAndGet() < 2) {
+				throw integrityViolation("23505"); // unique index: a concurrent first insert won
+			}
+		});
+		assertThat(calls).hasValue(2);
+
+		calls.set(0);
+		assertThatExceptionOfType(DataIntegrityViolationException.class).isThrownBy(() -> this.retry.run("add", () -> {
+			calls.incrementAndGet();
+			throw integrityViolation("23506"); // foreign key: the item is gone
+		}));
+		assertThat(calls).hasValue(1);
+	}
+
+	@Test
+	void otherFailuresAreNotRetried() {
+		AtomicInteger calls = new AtomicInteger();
+
+		assertThatExceptionOfType(InvalidDataAccessApiUsageException.class).isThrownBy(() -> this.retry.run("remove", () -> {
+			calls.incrementAndGet();
+			throw new InvalidDataAccessApiUsageException("bug");
+		}));
+
+		assertThat(calls).hasValue(1);
+	}
+
+	private static DataIntegrityViolationException integrityViolation(String sqlState) {
+		return new DataIntegrityViolationException("could not execute statement",
+				new ConstraintViolationException("constraint violated", new SQLException("violated", sqlState), "c"));
+	}
+}
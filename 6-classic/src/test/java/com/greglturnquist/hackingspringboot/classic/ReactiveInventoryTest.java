@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+import reactor.core.publisher.BaseSubscriber;
+
+/**
+ * Exercises the reactive facade with a page size of 2, so that streaming the catalog takes several pages.
+ */
+@SpringBootTest(properties = { "reactive.jpa.page-size=2",
+		"spring.jpa.properties.hibernate.generate_statistics=true" })
+@AutoConfigureMockMvc
+public class ReactiveInventoryTest {
+
+	WebTestClient webTestClient;
+
+	@Autowired ReactiveInventoryService service;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired CartRepository cartRepository;
+
+	@Autowired EntityManagerFactory entityManagerFactory;
+
+	List<Item> items = new ArrayList<>();
+
+	String cartId = "reactive-" + UUID.randomUUID();
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+		IntStream.range(0, 5) //
+				.forEach(i -> this.items.add(this.itemRepository.save(new Item("reactive-" + i, "paged", i))));
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.cartRepository.findById(this.cartId).ifPresent(this.cartRepository::delete);
+		this.itemRepository.deleteAll(this.items);
+	}
+
+	@Test
+	void catalogStreamsAsNdjsonInIdOrder() {
+		List<Item> streamed = this.webTestClient.get().uri("/reactive/items") //
+				.accept(MediaType.APPLICATION_NDJSON) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON) //
+				.returnResult(Item.class).getResponseBody() //
+				.collectList().block();
+
+		assertThat(streamed).extracting(Item::getId).isEqualTo(allIds());
+	}
+
+	@Test
+	void catalogStreamsAsServerSentEvents() {
+		String body = this.webTestClient.get().uri("/reactive/items") //
+				.accept(MediaType.TEXT_EVENT_STREAM) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM) //
+				.expectBody(String.class).returnResult().getResponseBody();
+
+		Item last = this.items.get(this.items.size() - 1);
+		assertThat(body).contains("id:" + last.getId() + "\nevent:item\ndata:{");
+		assertThat(body).contains("\"name\":\"" + last.getName() + "\"");
+	}
+
+	@Test
+	void pagesAreOnlyReadAsTheSubscriberAsksForMore() throws InterruptedException {
+		Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+
+		BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+		OneAtATime subscriber = new OneAtATime(threads);
+		this.service.findAllItems().subscribe(subscriber);
+
+		assertThat(threads.poll(10, TimeUnit.SECONDS)).startsWith("jpa");
+		assertThat(threads.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		assertThat(statistics.getQueryExecutionCount()).isEqualTo(1);
+
+		subscriber.request(2); // the rest of the first page, then the first item of the second
+		assertThat(threads.poll(10, TimeUnit.SECONDS)).isNotNull();
+		assertThat(threads.poll(10, TimeUnit.SECONDS)).isNotNull();
+		assertThat(statistics.getQueryExecutionCount()).isEqualTo(2);
+
+		subscriber.dispose();
+	}
+
+	@Test
+	void cartsCanBeChangedAndReadWithoutBlocking() {
+		Integer itemId = this.items.get(0).getId();
+
+		this.webTestClient.post().uri("/reactive/carts/{cartId}/add/{itemId}", this.cartId, itemId) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$.lines[0].quantity").isEqualTo(1);
+
+		this.webTestClient.get().uri("/reactive/carts/{id}", this.cartId) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$.lines[0].itemId").isEqualTo(itemId) //
+				.jsonPath("$.lines[0].quantity").isEqualTo(1);
+
+		this.webTestClient.get().uri("/reactive/carts/{id}", "no-such-cart") //
+				.exchange() //
+				.expectStatus().isNotFound();
+		this.webTestClient.get().uri("/reactive/items/{id}", -1) //
+				.exchange() //
+				.expectStatus().isNotFound();
+	}
+
+	private List<Integer> allIds() {
+		return StreamSupport.stream(this.itemRepository.findAll().spliterator(), false) //
+				.map(Item::getId) //
+				.sorted() //
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Asks for one item up front and records the thread each item arrives on.
+	 */
+	static class OneAtATime extends BaseSubscriber<Item> {
+
+		private final BlockingQueue<String> threads;
+
+		OneAtATime(BlockingQueue<String> threads) {
+			this.threads = threads;
+		}
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+			subscription.request(1);
+		}
+
+		@Override
+		protected void hookOnNext(Item item) {
+			this.threads.add(Thread.currentThread().getName());
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link RequestExecutionConfig} runs requests on virtual threads, or refuses to start where there are none.
+ */
+public class RequestExecutionConfigTest {
+
+	@Test
+	void withoutVirtualThreadsTheModeFailsFast() {
+		assumeFalse(RequestExecutionConfig.virtualThreadsAvailable(), "this JVM has virtual threads");
+
+		assertThatIllegalStateException().isThrownBy(RequestExecutionConfig::threadPerTask) //
+				.withMessageContaining("needs virtual threads") //
+				.withMessageContaining(RequestExecutionConfig.MODE + "=platform");
+	}
+
+	@Test
+	void withVirtualThreadsEveryRequestGetsOne() throws Exception {
+		assumeTrue(RequestExecutionConfig.virtualThreadsAvailable(), "this JVM has no virtual threads");
+
+		ExecutorService executor = RequestExecutionConfig.threadPerTask();
+		try {
+			Future<Object> virtual = executor.submit(() -> Thread.class.getMethod("isVirtual") //
+					.invoke(Thread.currentThread()));
+			assertThat(virtual.get(10, TimeUnit.SECONDS)).isEqualTo(true);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
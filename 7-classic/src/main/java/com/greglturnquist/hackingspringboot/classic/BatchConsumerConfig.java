@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Container factory for {@link BatchingItemConsumer}. Each consumer hands over up to {@code items.amqp.batch.size}
+ * messages at once, or fewer once no new message has arrived within {@code items.amqp.batch.receive-timeout}
+ * milliseconds. Acks are manual so the listener can settle a batch as a whole or message by message.
+ */
+@Configuration
+@ConditionalOnProperty(name = BatchConsumerConfig.ENABLED, havingValue = "true")
+public class BatchConsumerConfig {
+
+	static final String ENABLED = "items.amqp.batch.enabled";
+
+	@Bean
+	SimpleRabbitListenerContainerFactory batchListenerContainerFactory( //
+			SimpleRabbitListenerContainerFactoryConfigurer configurer, //
+			ConnectionFactory connectionFactory, //
+			@Value("${items.amqp.batch.size:100}") int batchSize, //
+			@Value("${items.amqp.batch.receive-timeout:200}") long receiveTimeout) {
+
+		SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+		configurer.configure(factory, connectionFactory);
+		factory.setBatchListener(true);
+		factory.setConsumerBatchEnabled(true);
+		factory.setBatchSize(batchSize);
+		factory.setPrefetchCount(batchSize);
+		factory.setReceiveTimeout(receiveTimeout);
+		factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+		return factory;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Service;
+
+import com.rabbitmq.client.Channel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Batch counterpart to {@link SpringAmqpItemService}, active when {@code items.amqp.batch.enabled=true}. A whole batch
+ * of new items is saved in one transaction, with JDBC batching, and acked with a single multiple-ack.
+ * <p>
+ * Only bad data is dropped. If the batch fails on an item that can never be saved, every message is retried in its own
+ * transaction, and the ones that still fail that way are rejected without requeue. Any other failure, such as the
+ * database being unreachable, sends the messages back to the queue to be tried again, as the single-message listener
+ * does.
+ * <p>
+ * Acks are manual, so whatever a save throws is caught: a delivery left unsettled would hold its place in the
+ * channel's unacked window until the connection closes.
+ */
+@Service
+@ConditionalOnProperty(name = BatchConsumerConfig.ENABLED, havingValue = "true")
+public class BatchingItemConsumer {
+
+	private static final Logger log = LoggerFactory.getLogger(BatchingItemConsumer.class);
+
+	private final ItemCatalog catalog;
+	private final Timer batchTimer;
+	private final DistributionSummary batchSizes;
+	private final Counter saved;
+	private final Counter rejected;
+	private final Counter requeued;
+	private final Counter fallbacks;
+
+	public BatchingItemConsumer(ItemCatalog catalog, MeterRegistry meterRegistry) {
+		this.catalog = catalog;
+		this.batchTimer = Timer.builder("items.amqp.batch.duration") //
+				.description("Time to persist and settle one batch of new-item messages") //
+				.publishPercentileHistogram() //
+				.register(meterRegistry);
+		this.batchSizes = DistributionSummary.builder("items.amqp.batch.size") //
+				.description("Messages per batch") //
+				.register(meterRegistry);
+		this.saved = Counter.builder("items.amqp.items").tag("outcome", "saved").register(meterRegistry);
+		this.rejected = Counter.builder("items.amqp.items").tag("outcome", "rejected").register(meterRegistry);
+		this.requeued = Counter.builder("items.amqp.items").tag("outcome", "requeued").register(meterRegistry);
+		this.fallbacks = Counter.builder("items.amqp.batch.fallbacks") //
+				.description("Batches that had to be retried one message at a time") //
+				.register(meterRegistry);
+	}
+
+	@RabbitListener( //
+			containerFactory = "batchListenerContainerFactory", //
+			bindings = @QueueBinding( //
+					value = @Queue, //
+					exchange = @Exchange(value = "hacking-spring-boot", type = ExchangeTypes.TOPIC), //
+					key = "new-items-spring-amqp"))
+	public void processNewItemsInBatches(List<Message<Item>> messages, Channel channel) throws IOException {
+		long start = System.nanoTime();
+		this.batchSizes.record(messages.size());
+
+		List<Item> items = messages.stream().map(Message::getPayload).collect(Collectors.toList());
+		List<Integer> ids = items.stream().map(Item::getId).collect(Collectors.toList());
+
+		try {
+			this.catalog.saveAll(items);
+			channel.basicAck(deliveryTag(messages.get(messages.size() - 1)), true);
+			this.saved.increment(items.size());
+		} catch (RuntimeException e) {
+			String reason = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+			if (isBadData(e)) {
+				log.warn("Batch of {} failed ({}), retrying one by one", items.size(), reason);
+				this.fallbacks.increment();
+
+				for (int i = 0; i < messages.size(); i++) {
+					Item item = items.get(i);
+					item.setId(ids.get(i)); // undo ids assigned by the rolled back batch
+					processOne(item, deliveryTag(messages.get(i)), channel);
+				}
+			} else {
+				log.warn("Batch of {} failed ({}), requeueing it", items.size(), reason);
+				channel.basicNack(deliveryTag(messages.get(messages.size() - 1)), true, true);
+				this.requeued.increment(items.size());
+			}
+		}
+
+		this.batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	private void processOne(Item item, long deliveryTag, Channel channel) throws IOException {
+		try {
+			this.catalog.save(item);
+			channel.basicAck(deliveryTag, false);
+			this.saved.increment();
+		} catch (RuntimeException e) {
+			if (isBadData(e)) {
+				log.error("Rejecting " + item, e);
+				channel.basicNack(deliveryTag, false, false);
+				this.rejected.increment();
+			} else {
+				log.warn("Requeueing {} ({})", item, NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+				channel.basicNack(deliveryTag, false, true);
+				this.requeued.increment();
+			}
+		}
+	}
+
+	/**
+	 * Whether the failure lies in the message itself, so that trying it again can only fail again.
+	 */
+	static boolean isBadData(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof DataIntegrityViolationException || cause instanceof MessageConversionException
+					|| cause instanceof org.springframework.messaging.converter.MessageConversionException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long deliveryTag(Message<?> message) {
+		return message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Read-through cache in front of {@link ItemRepository}. The whole catalog is cached as one immutable snapshot and
+ * single items are cached by id. Every write that goes through here refreshes the item entry and drops the snapshot,
+ * so the next {@link #findAll()} rebuilds it.
+ * <p>
+ * Writes also publish an {@link ItemChange} for {@link ItemChangeFeed}, inside the write's transaction, so a write whose
+ * listeners fail is rolled back rather than left half done.
+ */
+@Component
+public class ItemCatalog {
+
+	static final String CATALOG = "catalog";
+	static final String ITEMS = "items";
+
+	private final ItemRepository repository;
+	private final ApplicationEventPublisher publisher;
+	private final CacheManager cacheManager;
+
+	public ItemCatalog(ItemRepository repository, ApplicationEventPublisher publisher, CacheManager cacheManager) {
+		this.repository = repository;
+		this.publisher = publisher;
+		this.cacheManager = cacheManager;
+	}
+
+	@Cacheable(cacheNames = CATALOG, key = "'all'")
+	public List<Item> findAll() {
+		return Collections.unmodifiableList(StreamSupport.stream(this.repository.findAll().spliterator(), false) //
+				.collect(Collectors.toList()));
+	}
+
+	// a miss is not cached, or an item created behind the catalog's back would stay missing until it expired
+	@Cacheable(cacheNames = ITEMS, key = "#id", unless = "#result == null")
+	public Optional<Item> findById(Integer id) {
+		return this.repository.findById(id);
+	}
+
+	@Caching( //
+			put = @CachePut(cacheNames = ITEMS, key = "#result.id"), //
+			evict = @CacheEvict(cacheNames = CATALOG, allEntries = true))
+	@Transactional
+	public Item save(Item item) {
+		boolean created = item.getId() == null;
+		Item saved = this.repository.save(item);
+		this.publisher.publishEvent(created ? ItemChange.created(saved) : ItemChange.updated(saved));
+		return saved;
+	}
+
+	@CacheEvict(cacheNames = CATALOG, allEntries = true)
+	@Transactional
+	public List<Item> saveAll(List<Item> items) {
+		List<Boolean> created = items.stream().map(item -> item.getId() == null).collect(Collectors.toList());
+		List<Item> saved = StreamSupport.stream(this.repository.saveAll(items).spliterator(), false) //
+				.collect(Collectors.toList());
+		for (int i = 0; i < saved.size(); i++) {
+			Item item = saved.get(i);
+			this.publisher.publishEvent(created.get(i) ? ItemChange.created(item) : ItemChange.updated(item));
+		}
+		refresh(saved);
+		return saved;
+	}
+
+	/**
+	 * What {@code @CachePut} does for {@link #save(Item)}, item by item, once the transaction commits.
+	 */
+	private void refresh(List<Item> saved) {
+		Cache items = this.cacheManager.getCache(ITEMS);
+		if (items != null) {
+			Cache afterCommit = new TransactionAwareCacheDecorator(items);
+			saved.forEach(item -> afterCommit.put(item.getId(), item));
+		}
+	}
+
+	@Caching(evict = { //
+			@CacheEvict(cacheNames = ITEMS, key = "#id"), //
+			@CacheEvict(cacheNames = CATALOG, allEntries = true) })
+	public void deleteById(Integer id) {
+		this.repository.deleteById(id);
+		this.publisher.publishEvent(ItemChange.deleted(id));
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * An item was created, updated or deleted. Published as an application event by {@link ItemCatalog} and fanned out
+ * to subscribers by {@link ItemChangeFeed}. Deletions carry only the id.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class ItemChange {
+
+	public enum Type {
+		CREATED, UPDATED, DELETED
+	}
+
+	private final Type type;
+	private final Integer itemId;
+	private final Item item;
+
+	private ItemChange(Type type, Integer itemId, Item item) {
+		this.type = type;
+		this.itemId = itemId;
+		this.item = item;
+	}
+
+	static ItemChange created(Item item) {
+		return new ItemChange(Type.CREATED, item.getId(), item);
+	}
+
+	static ItemChange updated(Item item) {
+		return new ItemChange(Type.UPDATED, item.getId(), item);
+	}
+
+	static ItemChange deleted(Integer itemId) {
+		return new ItemChange(Type.DELETED, itemId, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public Integer getItemId() {
+		return itemId;
+	}
+
+	public Item getItem() {
+		return item;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (o == null || getClass() != o.getClass())
+			return false;
+		ItemChange that = (ItemChange) o;
+		return type == that.type && Objects.equals(itemId, that.itemId) && Objects.equals(item, that.item);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(type, itemId, item);
+	}
+
+	@Override
+	public String toString() {
+		return "ItemChange{" + "type=" + type + ", itemId=" + itemId + '}';
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-sent events of every item created, updated or deleted, so clients can stop polling {@code /api/items}. A
+ * reconnecting {@code EventSource} sends {@code Last-Event-ID} on its own and picks up where it left off.
+ */
+@RestController
+public class ItemChangeController {
+
+	private final ItemChangeFeed feed;
+
+	ItemChangeController(ItemChangeFeed feed) {
+		this.feed = feed;
+	}
+
+	@GetMapping(value = "/api/items/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	SseEmitter changes(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+		return this.feed.subscribe(lastEventId);
+	}
+}
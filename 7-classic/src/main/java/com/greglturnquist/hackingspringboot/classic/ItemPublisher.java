@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Publishes new items with correlated publisher confirms, without waiting for the broker on the caller's thread.
+ * Every publish gets a correlation id whose status can be looked up until a while after it has been settled. At most
+ * {@code items.amqp.publish.max-in-flight} publishes may await their confirm; beyond that {@link #publish(Item)}
+ * refuses instead of queueing. A confirm that never shows up is given up on after
+ * {@code items.amqp.publish.confirm-timeout}.
+ * <p>
+ * The broker acks a message it could not route to any queue just like one it delivered, so publishes are mandatory:
+ * an unroutable message comes back as a return ahead of its ack, and is reported as failed rather than confirmed.
+ */
+@Service
+public class ItemPublisher {
+
+	private static final Logger log = LoggerFactory.getLogger(ItemPublisher.class);
+
+	static final String EXCHANGE = "hacking-spring-boot";
+	static final String ROUTING_KEY = "new-items-spring-amqp";
+
+	private final RabbitOperations template;
+	private final Semaphore inFlight;
+	private final Duration confirmTimeout;
+	private final Map<String, PublishStatus> pending = new ConcurrentHashMap<>();
+	private final Cache<String, PublishStatus> settled;
+
+	public ItemPublisher(RabbitOperations template, //
+			@Value("${items.amqp.publish.max-in-flight:256}") int maxInFlight, //
+			@Value("${items.amqp.publish.confirm-timeout:30s}") Duration confirmTimeout) {
+		this.template = template;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.confirmTimeout = confirmTimeout;
+		this.settled = Caffeine.newBuilder() //
+				.maximumSize(10_000) //
+				.expireAfterWrite(Duration.ofMinutes(10)) //
+				.build();
+	}
+
+	/**
+	 * Send {@code item} and return its correlation id, or nothing if too many publishes are already awaiting a confirm.
+	 */
+	public Optional<String> publish(Item item) {
+		if (!this.inFlight.tryAcquire()) {
+			expireOverdue();
+			if (!this.inFlight.tryAcquire()) {
+				return Optional.empty();
+			}
+		}
+
+		String id = UUID.randomUUID().toString();
+		CorrelationData correlationData = new CorrelationData(id);
+		this.pending.put(id, PublishStatus.pending(id));
+
+		try {
+			this.template.convertAndSend(EXCHANGE, ROUTING_KEY, item, correlationData);
+		} catch (RuntimeException e) {
+			settle(PublishStatus.failed(id, e.getMessage()));
+			throw e;
+		}
+
+		correlationData.getFuture().addCallback( //
+				confirm -> settle(outcome(correlationData, confirm)), //
+				e -> settle(PublishStatus.failed(id, e.getMessage())));
+
+		return Optional.of(id);
+	}
+
+	public Optional<PublishStatus> status(String id) {
+		expireOverdue();
+
+		PublishStatus status = this.pending.get(id);
+		return status != null ? Optional.of(status) : Optional.ofNullable(this.settled.getIfPresent(id));
+	}
+
+	int inFlight() {
+		return this.pending.size();
+	}
+
+	private void settle(PublishStatus status) {
+		if (this.pending.remove(status.getId()) != null) {
+			this.settled.put(status.getId(), status);
+			this.inFlight.release();
+		}
+	}
+
+	// a return always arrives before the confirm for the same message
+	private static PublishStatus outcome(CorrelationData correlationData, CorrelationData.Confirm confirm) {
+		String id = correlationData.getId();
+		if (!confirm.isAck()) {
+			return PublishStatus.nacked(id, confirm.getReason());
+		}
+		ReturnedMessage returned = correlationData.getReturned();
+		if (returned != null) {
+			return PublishStatus.failed(id, "Returned by the broker: " + returned.getReplyCode() + " "
+					+ returned.getReplyText());
+		}
+		return PublishStatus.confirmed(id);
+	}
+
+	private void expireOverdue() {
+		long cutoff = System.currentTimeMillis() - this.confirmTimeout.toMillis();
+		this.pending.values().stream() //
+				.filter(status -> status.getTimestamp() < cutoff) //
+				.forEach(status -> {
+					log.warn("No publisher confirm for {} after {}", status.getId(), this.confirmTimeout);
+					settle(PublishStatus.timedOut(status.getId()));
+				});
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Where a single {@link ItemPublisher} publish stands, as far as publisher confirms tell.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class PublishStatus {
+
+	public enum State {
+		PENDING, CONFIRMED, NACKED, FAILED, TIMED_OUT
+	}
+
+	private final String id;
+	private final State state;
+	private final String reason;
+	private final long timestamp;
+
+	private PublishStatus(String id, State state, String reason) {
+		this.id = id;
+		this.state = state;
+		this.reason = reason;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	static PublishStatus pending(String id) {
+		return new PublishStatus(id, State.PENDING, null);
+	}
+
+	static PublishStatus confirmed(String id) {
+		return new PublishStatus(id, State.CONFIRMED, null);
+	}
+
+	static PublishStatus nacked(String id, String reason) {
+		return new PublishStatus(id, State.NACKED, reason);
+	}
+
+	static PublishStatus failed(String id, String reason) {
+		return new PublishStatus(id, State.FAILED, reason);
+	}
+
+	static PublishStatus timedOut(String id) {
+		return new PublishStatus(id, State.TIMED_OUT, null);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		PublishStatus that = (PublishStatus) o;
+		return timestamp == that.timestamp && Objects.equals(id, that.id) && state == that.state
+				&& Objects.equals(reason, that.reason);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, state, reason, timestamp);
+	}
+
+	@Override
+	public String toString() {
+		return "PublishStatus{" + "id='" + id + '\'' + ", state=" + state + ", reason='" + reason + '\'' + ", timestamp="
+				+ timestamp + '}';
+	}
+}
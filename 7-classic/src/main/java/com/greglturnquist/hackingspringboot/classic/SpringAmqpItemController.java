@@ -20,8 +20,13 @@ import java.net.URI;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.AmqpException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
@@ -36,19 +41,32 @@ public class SpringAmqpItemController {
 	private static final Logger log = //
 			LoggerFactory.getLogger(SpringAmqpItemController.class);
 
-	private final AmqpTemplate template; // <2>
+	private final ItemPublisher publisher; // <2>
 
-	public SpringAmqpItemController(AmqpTemplate template) {
-		this.template = template;
+	public SpringAmqpItemController(ItemPublisher publisher) {
+		this.publisher = publisher;
 	}
 	// end::code[]
 
 	// tag::post[]
 	@PostMapping("/items") // <1>
 	ResponseEntity<?> addNewItemUsingSpringAmqp(@RequestBody Item item) { // <2>
-		this.template.convertAndSend( // <3>
-				"hacking-spring-boot", "new-items-spring-amqp", item);
-		return ResponseEntity.created(URI.create("/items")).build(); // <4>
+		return this.publisher.publish(item) // <3>
+				.<ResponseEntity<?>> map(id -> ResponseEntity.created(URI.create("/items/confirms/" + id)).build()) // <4>
+				.orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE) //
+						.header(HttpHeaders.RETRY_AFTER, "1") //
+						.build());
 	}
 	// end::post[]
+
+	@GetMapping("/items/confirms/{id}")
+	ResponseEntity<PublishStatus> confirmStatus(@PathVariable String id) {
+		return ResponseEntity.of(this.publisher.status(id));
+	}
+
+	@ExceptionHandler(AmqpException.class)
+	ResponseEntity<?> brokerUnavailable(AmqpException e) {
+		log.warn("Could not publish", e);
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+	}
 }
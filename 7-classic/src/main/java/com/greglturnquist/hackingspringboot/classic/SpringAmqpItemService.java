@@ -23,6 +23,7 @@ import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 /**
@@ -30,15 +31,16 @@ import org.springframework.stereotype.Service;
  */
 // tag::code[]
 @Service // <1>
+@ConditionalOnProperty(name = BatchConsumerConfig.ENABLED, havingValue = "false", matchIfMissing = true)
 public class SpringAmqpItemService {
 
 	private static final Logger log = //
 			LoggerFactory.getLogger(SpringAmqpItemService.class);
 
-	private final ItemRepository repository; // <2>
+	private final ItemCatalog catalog; // <2>
 
-	public SpringAmqpItemService(ItemRepository repository) {
-		this.repository = repository;
+	public SpringAmqpItemService(ItemCatalog catalog) {
+		this.catalog = catalog;
 	}
 	// end::code[]
 
@@ -52,7 +54,7 @@ public class SpringAmqpItemService {
 					key = "new-items-spring-amqp")) // <5>
 	public void processNewItemsViaSpringAmqp(Item item) { // <6>
 		log.debug("Consuming => " + item);
-		this.repository.save(item); // <7>
+		this.catalog.save(item); // <7>
 	}
 	// end::listener[]
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs {@link BatchingItemConsumer} in a real listener container against {@link InJvmBroker}, so no RabbitMQ is
+ * needed.
+ */
+@SpringBootTest(properties = { "items.amqp.batch.enabled=true", "items.amqp.batch.size=10",
+		"items.amqp.batch.receive-timeout=100" })
+@Import(InJvmBroker.Config.class)
+public class BatchingItemConsumerTest {
+
+	static final String UNAVAILABLE = "unavailable";
+
+	@Autowired InJvmBroker broker;
+
+	@Autowired ItemRepository repository;
+
+	@Autowired ItemCatalog catalog;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	@Autowired ItemChangeFeed changeFeed;
+
+	@Autowired(required = false) SpringAmqpItemService singleMessageService;
+
+	@AfterEach
+	void tearDown() {
+		this.repository.deleteAll();
+	}
+
+	@Test
+	void onlyTheBatchingListenerIsActive() {
+		assertThat(this.singleMessageService).isNull();
+	}
+
+	@Test
+	void batchIsSavedTogetherAndAckedTogether() throws Exception {
+		awaitConsumer();
+		double batchesBefore = this.meterRegistry.get("items.amqp.batch.size").summary().count();
+
+		List<Long> tags = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			tags.add(this.broker.deliver(new Item("batched-" + i, "from the broker", 1.0 + i)));
+		}
+
+		awaitSettled(tags);
+
+		assertThat(tags).allSatisfy(tag -> assertThat(this.broker.outcome(tag)).isEqualTo("ack"));
+		assertThat(this.repository.findAll()).extracting(Item::getName).hasSize(25).contains("batched-0", "batched-24");
+		assertThat(this.meterRegistry.get("items.amqp.batch.size").summary().count() - batchesBefore) //
+				.isBetween(3.0, 25.0);
+		assertThat(this.meterRegistry.get("items.amqp.batch.size").summary().max()).isLessThanOrEqualTo(10.0);
+		assertThat(this.meterRegistry.get("items.amqp.batch.duration").timer().count()).isPositive();
+	}
+
+	@Test
+	void failedBatchFallsBackToOneMessageAtATime() throws Exception {
+		awaitConsumer();
+		double fallbacksBefore = this.meterRegistry.get("items.amqp.batch.fallbacks").counter().count();
+		String tooLong = new String(new char[300]).replace('\0', 'x');
+
+		long first = this.broker.deliver(new Item("good-1", "fine", 1.0));
+		long bad = this.broker.deliver(new Item(tooLong, "name does not fit the column", 1.0));
+		long last = this.broker.deliver(new Item("good-2", "fine", 1.0));
+
+		awaitSettled(LongStream.of(first, bad, last).boxed().collect(Collectors.toList()));
+
+		assertThat(this.broker.outcome(first)).isEqualTo("ack");
+		assertThat(this.broker.outcome(bad)).isEqualTo("nack");
+		assertThat(this.broker.outcome(last)).isEqualTo("ack");
+		assertThat(this.repository.findAll()).extracting(Item::getName).containsExactlyInAnyOrder("good-1", "good-2");
+		assertThat(this.meterRegistry.get("items.amqp.batch.fallbacks").counter().count()).isGreaterThan(fallbacksBefore);
+		assertThat(this.meterRegistry.get("items.amqp.items").tag("outcome", "rejected").counter().count()).isPositive();
+	}
+
+	@Test
+	void failuresOtherThanBadDataAreRequeued() throws Exception {
+		awaitConsumer();
+
+		List<Long> tags = LongStream.of( //
+				this.broker.deliver(new Item("good-1", "fine", 1.0)), //
+				this.broker.deliver(new Item(UNAVAILABLE, "the database is down", 1.0)), //
+				this.broker.deliver(new Item("good-2", "fine", 1.0))) //
+				.boxed().collect(Collectors.toList());
+
+		awaitSettled(tags);
+
+		// nothing is dropped: whatever batch the failure landed in goes back to the queue as a whole
+		assertThat(this.broker.outcome(tags.get(1))).isEqualTo("requeue");
+		assertThat(tags).extracting(this.broker::outcome).isSubsetOf("ack", "requeue");
+		List<String> saved = new ArrayList<>();
+		this.repository.findAll().forEach(item -> saved.add(item.getName()));
+		assertThat(saved).doesNotContain(UNAVAILABLE);
+		assertThat(saved).hasSize((int) tags.stream().filter(tag -> "ack".equals(this.broker.outcome(tag))).count());
+		assertThat(this.meterRegistry.get("items.amqp.items").tag("outcome", "requeued").counter().count())
+				.isPositive();
+	}
+
+	@Test
+	void batchesRefreshTheItemsTheyUpdate() throws Exception {
+		awaitConsumer();
+		Item item = this.catalog.save(new Item("cached", "before the batch", 1.0));
+		assertThat(this.catalog.findById(item.getId())).get().extracting(Item::getName).isEqualTo("cached");
+
+		Item update = new Item("updated", "by the batch", 2.0);
+		update.setId(item.getId());
+		awaitSettled(Collections.singletonList(this.broker.deliver(update)));
+
+		assertThat(this.catalog.findById(item.getId())).get().extracting(Item::getName).isEqualTo("updated");
+	}
+
+	@Test
+	void savedBatchesAreAnnouncedOnTheChangeFeed() throws Exception {
+		awaitConsumer();
+		Queue<String> events = new ConcurrentLinkedQueue<>();
+		SseEmitter subscriber = new SseEmitter() {
+			@Override
+			public void send(SseEventBuilder builder) {
+				builder.build().stream() //
+						.map(data -> data.getData().toString()) //
+						.filter(data -> data.startsWith("id:")) //
+						.forEach(events::add);
+			}
+		};
+		this.changeFeed.subscribe(subscriber, null);
+
+		List<Long> tags = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			tags.add(this.broker.deliver(new Item("announced-" + i, "from the broker", 1.0)));
+		}
+		awaitSettled(tags);
+		await(() -> events.size() == 3);
+
+		assertThat(events).allSatisfy(event -> assertThat(event).contains("event:created"));
+		subscriber.complete();
+	}
+
+	private void awaitConsumer() throws InterruptedException {
+		await(this.broker::hasConsumers);
+	}
+
+	private void awaitSettled(List<Long> tags) throws InterruptedException {
+		await(() -> tags.stream().allMatch(tag -> this.broker.outcome(tag) != null));
+	}
+
+	private void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				fail("Timed out waiting for the listener container");
+			}
+			Thread.sleep(20);
+		}
+	}
+
+	/**
+	 * Fails saves of one item as if the database had gone away.
+	 */
+	@TestConfiguration
+	static class UnavailableDatabase {
+
+		@EventListener
+		void refuse(ItemChange change) {
+			if (UNAVAILABLE.equals(change.getItem().getName())) {
+				throw new TransientDataAccessResourceException("connection refused");
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.BDDMockito.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.AMQImpl;
+
+/**
+ * Just enough of a RabbitMQ broker, in memory, for a real listener container to consume from: a mocked
+ * {@link ConnectionFactory} whose channel registers consumers, lets the test deliver messages to them, and records
+ * every ack, nack and requeue. Pull it into a test with {@code @Import(InJvmBroker.Config.class)}.
+ */
+class InJvmBroker {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final AtomicLong deliveryTags = new AtomicLong();
+	private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+	private final Map<Long, String> settled = new ConcurrentHashMap<>();
+	private final ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+
+	InJvmBroker() {
+		try {
+			Channel channel = mock(Channel.class);
+			given(channel.isOpen()).willReturn(true);
+			given(channel.queueDeclarePassive(anyString())) //
+					.willAnswer(invocation -> new AMQImpl.Queue.DeclareOk(invocation.getArgument(0), 0, 0));
+			given(channel.queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), any())) //
+					.willAnswer(invocation -> new AMQImpl.Queue.DeclareOk(invocation.getArgument(0), 0, 0));
+			given(channel.basicConsume(anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any())) //
+					.willAnswer(invocation -> {
+						String tag = "consumer-" + this.consumers.size();
+						Consumer consumer = invocation.getArgument(6);
+						this.consumers.add(consumer);
+						consumer.handleConsumeOk(tag);
+						return tag;
+					});
+			willAnswer(invocation -> settle(invocation.getArgument(0), invocation.getArgument(1), "ack")) //
+					.given(channel).basicAck(anyLong(), anyBoolean());
+			willAnswer(invocation -> settle(invocation.getArgument(0), invocation.getArgument(1),
+					invocation.<Boolean> getArgument(2) ? "requeue" : "nack")) //
+					.given(channel).basicNack(anyLong(), anyBoolean(), anyBoolean());
+
+			Connection connection = mock(Connection.class);
+			given(connection.isOpen()).willReturn(true);
+			given(connection.createChannel(anyBoolean())).willReturn(channel);
+			given(this.connectionFactory.createConnection()).willReturn(connection);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	ConnectionFactory connectionFactory() {
+		return this.connectionFactory;
+	}
+
+	boolean hasConsumers() {
+		return !this.consumers.isEmpty();
+	}
+
+	/**
+	 * Deliver {@code item} as JSON to the first consumer and return its delivery tag.
+	 */
+	long deliver(Item item) throws IOException {
+		long deliveryTag = this.deliveryTags.incrementAndGet();
+		AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder() //
+				.contentType(MessageProperties.CONTENT_TYPE_JSON) //
+				.contentEncoding("UTF-8") //
+				.headers(Collections.singletonMap("__TypeId__", Item.class.getName())) //
+				.build();
+		Consumer consumer = this.consumers.get(0);
+		consumer.handleDelivery("consumer-0", //
+				new Envelope(deliveryTag, false, "hacking-spring-boot", "new-items-spring-amqp"), //
+				properties, json(item));
+		return deliveryTag;
+	}
+
+	/**
+	 * Outcome for a delivery tag: {@code "ack"}, {@code "nack"}, {@code "requeue"} or {@code null} while unsettled.
+	 */
+	String outcome(long deliveryTag) {
+		return this.settled.get(deliveryTag);
+	}
+
+	private Object settle(long deliveryTag, boolean multiple, String outcome) {
+		if (multiple) {
+			for (long tag = 1; tag <= deliveryTag; tag++) {
+				this.settled.putIfAbsent(tag, outcome);
+			}
+		} else {
+			this.settled.putIfAbsent(deliveryTag, outcome);
+		}
+		return null;
+	}
+
+	private byte[] json(Item item) throws JsonProcessingException {
+		return this.mapper.writeValueAsBytes(item);
+	}
+
+	@TestConfiguration
+	static class Config {
+
+		@Bean
+		InJvmBroker inJvmBroker() {
+			return new InJvmBroker();
+		}
+
+		@Bean
+		@Primary
+		ConnectionFactory inJvmConnectionFactory(InJvmBroker broker) {
+			return broker.connectionFactory();
+		}
+	}
+}
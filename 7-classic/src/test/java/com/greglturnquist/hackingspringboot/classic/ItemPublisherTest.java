@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.BDDMockito.*;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+/**
+ * Drives the publish pipeline with a mocked template whose confirms and returns the test settles by hand, so the
+ * pending, confirmed, nacked, returned and back-pressure paths can each be observed.
+ */
+@SpringBootTest(properties = "items.amqp.publish.max-in-flight=2")
+@AutoConfigureMockMvc
+@Import(InJvmBroker.Config.class)
+public class ItemPublisherTest {
+
+	WebTestClient webTestClient;
+
+	@MockBean RabbitTemplate template;
+
+	List<CorrelationData> sent = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+
+		willAnswer(invocation -> this.sent.add(invocation.getArgument(3))) //
+				.given(this.template).convertAndSend(eq(ItemPublisher.EXCHANGE), eq(ItemPublisher.ROUTING_KEY),
+						any(Item.class), any(CorrelationData.class));
+	}
+
+	@Test
+	void publishIsPendingUntilTheBrokerConfirms() {
+		String location = publish();
+
+		status(location).jsonPath("$.state").isEqualTo("PENDING");
+
+		confirm(this.sent.get(0), true, null);
+
+		status(location).jsonPath("$.state").isEqualTo("CONFIRMED");
+	}
+
+	@Test
+	void nackIsReportedWithItsReason() {
+		String location = publish();
+
+		confirm(this.sent.get(0), false, "queue full");
+
+		status(location) //
+				.jsonPath("$.state").isEqualTo("NACKED") //
+				.jsonPath("$.reason").isEqualTo("queue full");
+	}
+
+	@Test
+	void unroutableMessageFailsDespiteTheAck() {
+		String location = publish();
+
+		CorrelationData correlationData = this.sent.get(0);
+		correlationData.setReturned(new ReturnedMessage(new Message(new byte[0], new MessageProperties()), 312,
+				"NO_ROUTE", ItemPublisher.EXCHANGE, ItemPublisher.ROUTING_KEY));
+		confirm(correlationData, true, null);
+
+		status(location) //
+				.jsonPath("$.state").isEqualTo("FAILED") //
+				.jsonPath("$.reason").isEqualTo("Returned by the broker: 312 NO_ROUTE");
+	}
+
+	@Test
+	void publishesBeyondTheInFlightLimitAreRefused() {
+		publish();
+		publish();
+
+		this.webTestClient.post().uri("/items") //
+				.bodyValue(new Item("third", "over the limit", 1.0)) //
+				.exchange() //
+				.expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE) //
+				.expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1");
+
+		confirm(this.sent.get(0), true, null);
+
+		publish();
+		assertThat(this.sent).hasSize(3);
+
+		this.sent.subList(1, 3).forEach(correlationData -> confirm(correlationData, true, null));
+	}
+
+	@Test
+	void unreachableBrokerIsUnavailableAndReleasesItsSlot() {
+		willThrow(new AmqpConnectException(new ConnectException("refused"))) //
+				.given(this.template).convertAndSend(anyString(), anyString(), any(Item.class), any(CorrelationData.class));
+
+		for (int i = 0; i < 3; i++) {
+			this.webTestClient.post().uri("/items") //
+					.bodyValue(new Item("unsent", "broker down", 1.0)) //
+					.exchange() //
+					.expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE) //
+					.expectHeader().doesNotExist(HttpHeaders.RETRY_AFTER);
+		}
+	}
+
+	@Test
+	void unknownCorrelationIdIsNotFound() {
+		this.webTestClient.get().uri("/items/confirms/no-such-id") //
+				.exchange() //
+				.expectStatus().isNotFound();
+	}
+
+	private String publish() {
+		return this.webTestClient.post().uri("/items") //
+				.bodyValue(new Item("Alf alarm clock", "nothing important", 19.99)) //
+				.exchange() //
+				.expectStatus().isCreated() //
+				.expectHeader().value(HttpHeaders.LOCATION, location -> assertThat(location).startsWith("/items/confirms/")) //
+				.returnResult(Void.class).getResponseHeaders().getLocation().toString();
+	}
+
+	private WebTestClient.BodyContentSpec status(String location) {
+		return this.webTestClient.get().uri(location) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody();
+	}
+
+	private static void confirm(CorrelationData correlationData, boolean ack, String reason) {
+		correlationData.getFuture().set(new CorrelationData.Confirm(ack, reason));
+	}
+}
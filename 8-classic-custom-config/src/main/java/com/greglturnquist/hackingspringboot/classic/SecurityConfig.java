@@ -15,8 +15,10 @@
  */
 package com.greglturnquist.hackingspringboot.classic;
 
+import java.time.Duration;
 import java.util.Arrays;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -26,6 +28,8 @@ import org.springframework.security.config.annotation.web.configuration.WebSecur
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.crypto.password.PasswordEncoder;
 
 /**
  * @author Greg Turnquist
@@ -36,14 +40,21 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 	// end::code[]
 
 	@Bean
-	public UserDetailsService userDetailsService(UserRepository repository) { // <1>
-		return username -> repository.findByName(username) // <2>
-				.map(user -> User.withDefaultPasswordEncoder() // <3>
-						.username(user.getName()) //
-						.password(user.getPassword()) //
+	public UserDetailsService userDetailsService(UserRepository repository, //
+			@Value("${users.cache.maximum-size:1000}") long maximumSize, //
+			@Value("${users.cache.time-to-live:5m}") Duration timeToLive) { // <1>
+		return new CachedUserDetailsService(username -> repository.findByName(username) // <2>
+				.map(user -> User.withUsername(user.getName()) // <3>
+						.password(user.getPassword()) // stored encoded
 						.authorities(user.getRoles().toArray(new String[0])) //
 						.build()) // <4>
-				.orElseThrow(() -> new UsernameNotFoundException("No user named " + username));
+				.orElseThrow(() -> new UsernameNotFoundException("No user named " + username)), //
+				maximumSize, timeToLive);
+	}
+
+	@Bean
+	PasswordEncoder passwordEncoder() {
+		return PasswordEncoderFactories.createDelegatingPasswordEncoder();
 	}
 
 	// tag::custom-policy[]
@@ -72,13 +83,13 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 	}
 
 	@Bean
-	CommandLineRunner userLoader(UserRepository repository) {
+	CommandLineRunner userLoader(UserRepository repository, PasswordEncoder passwordEncoder) {
 		return args -> {
 			repository.save(new com.greglturnquist.hackingspringboot.classic.User( //
-					"greg", "password", Arrays.asList(role(USER))));
+					"greg", passwordEncoder.encode("password"), Arrays.asList(role(USER))));
 
 			repository.save(new com.greglturnquist.hackingspringboot.classic.User( //
-					"manager", "password", Arrays.asList(role(USER), role(INVENTORY))));
+					"manager", passwordEncoder.encode("password"), Arrays.asList(role(USER), role(INVENTORY))));
 		};
 	}
 	// end::users[]
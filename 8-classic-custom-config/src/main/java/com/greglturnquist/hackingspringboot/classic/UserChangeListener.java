@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Forgets every cached login once a {@link User} is added, changed or removed. Users change rarely, so clearing the
+ * lot beats working out which names, old or new, are affected.
+ * <p>
+ * This listens to Hibernate rather than being a JPA entity listener, because changing only a user's roles updates
+ * their element collection without updating the user, and JPA's {@code @PostUpdate} never hears of it.
+ */
+@Component
+class UserChangeListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener,
+		PostCollectionRecreateEventListener, PostCollectionUpdateEventListener, PostCollectionRemoveEventListener {
+
+	private final EntityManagerFactory entityManagerFactory;
+	private final ObjectProvider<CachedUserDetailsService> userDetailsService;
+
+	UserChangeListener(EntityManagerFactory entityManagerFactory,
+			ObjectProvider<CachedUserDetailsService> userDetailsService) {
+		this.entityManagerFactory = entityManagerFactory;
+		this.userDetailsService = userDetailsService;
+	}
+
+	@PostConstruct
+	void register() {
+		EventListenerRegistry registry = this.entityManagerFactory.unwrap(SessionFactoryImplementor.class) //
+				.getServiceRegistry() //
+				.getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_INSERT, this);
+		registry.appendListeners(EventType.POST_UPDATE, this);
+		registry.appendListeners(EventType.POST_DELETE, this);
+		registry.appendListeners(EventType.POST_COLLECTION_RECREATE, this);
+		registry.appendListeners(EventType.POST_COLLECTION_UPDATE, this);
+		registry.appendListeners(EventType.POST_COLLECTION_REMOVE, this);
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		changed(event.getEntity());
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		changed(event.getEntity());
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		changed(event.getEntity());
+	}
+
+	@Override
+	public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+		changed(event);
+	}
+
+	@Override
+	public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+		changed(event);
+	}
+
+	@Override
+	public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+		changed(event);
+	}
+
+	@Override
+	public boolean requiresPostCommitHandling(EntityPersister persister) {
+		return false;
+	}
+
+	/**
+	 * The misspelt original, still abstract in Hibernate 5.4, which only calls it through
+	 * {@link #requiresPostCommitHandling(EntityPersister)}.
+	 */
+	@Override
+	@Deprecated
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return requiresPostCommitHandling(persister);
+	}
+
+	private void changed(AbstractCollectionEvent event) {
+		changed(event.getAffectedOwnerOrNull());
+	}
+
+	private void changed(Object entity) {
+		if (entity instanceof User) {
+			afterCommit(() -> this.userDetailsService.ifAvailable(CachedUserDetailsService::evictAll));
+		}
+	}
+
+	private static void afterCommit(Runnable action) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+}
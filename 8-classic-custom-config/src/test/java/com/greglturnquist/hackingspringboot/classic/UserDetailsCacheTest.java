@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * A login is looked up once, kept by {@link CachedUserDetailsService}, and forgotten as soon as the user changes.
+ */
+@SpringBootTest
+public class UserDetailsCacheTest {
+
+	@Autowired UserDetailsService userDetailsService;
+
+	@Autowired PasswordEncoder passwordEncoder;
+
+	@Autowired UserRepository userRepository;
+
+	CachedUserDetailsService cache;
+
+	DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+
+	@BeforeEach
+	void setUp() {
+		this.cache = (CachedUserDetailsService) this.userDetailsService;
+		this.cache.evictAll();
+		this.provider.setUserDetailsService(this.userDetailsService);
+		this.provider.setPasswordEncoder(this.passwordEncoder);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.userRepository.findByName("cached-user").ifPresent(this.userRepository::delete);
+	}
+
+	@Test
+	void loginsAreCachedWithEncodedPasswords() {
+		assertThat(this.userRepository.findByName("greg")).get().extracting(User::getPassword).asString()
+				.startsWith("{bcrypt}");
+
+		// the cached copy keeps its password, though each authentication erases the one it was handed
+		for (int i = 0; i < 3; i++) {
+			assertThat(authenticate("greg", "password").isAuthenticated()).isTrue();
+		}
+		assertThat(this.cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	void changingAUserForgetsCachedLogins() {
+		this.userRepository.save(new User("cached-user", this.passwordEncoder.encode("password"),
+				new ArrayList<>(Arrays.asList("ROLE_USER"))));
+		assertThat(authenticate("cached-user", "password").getAuthorities()).extracting(Object::toString)
+				.containsExactly("ROLE_USER");
+
+		// only the roles change
+		User user = this.userRepository.findByName("cached-user").get();
+		user.setRoles(new ArrayList<>(Arrays.asList("ROLE_USER", "ROLE_INVENTORY")));
+		this.userRepository.save(user);
+		assertThat(this.cache.size()).isZero();
+		assertThat(authenticate("cached-user", "password").getAuthorities()).extracting(Object::toString)
+				.containsExactlyInAnyOrder("ROLE_USER", "ROLE_INVENTORY");
+
+		user = this.userRepository.findByName("cached-user").get();
+		user.setPassword(this.passwordEncoder.encode("changed"));
+		this.userRepository.save(user);
+		assertThat(this.cache.size()).isZero();
+		assertThatExceptionOfType(BadCredentialsException.class)
+				.isThrownBy(() -> authenticate("cached-user", "password"));
+		assertThat(authenticate("cached-user", "changed").isAuthenticated()).isTrue();
+	}
+
+	private Authentication authenticate(String username, String password) {
+		return this.provider.authenticate(new UsernamePasswordAuthenticationToken(username, password));
+	}
+}
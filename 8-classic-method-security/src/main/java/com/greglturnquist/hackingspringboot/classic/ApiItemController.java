@@ -21,9 +21,7 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
 
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
@@ -37,7 +35,6 @@ import org.springframework.hateoas.mediatype.alps.Type;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -53,15 +50,12 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class ApiItemController {
 
-	// tag::inventory[]
-	private static final SimpleGrantedAuthority ROLE_INVENTORY = //
-			new SimpleGrantedAuthority("ROLE_" + SecurityConfig.INVENTORY);
-	// end::inventory[]
-
 	private final ItemRepository repository;
+	private final ItemModelAssembler assembler;
 
-	public ApiItemController(ItemRepository repository) {
+	public ApiItemController(ItemRepository repository, ItemModelAssembler assembler) {
 		this.repository = repository;
+		this.assembler = assembler;
 	}
 	// end::intro[]
 
@@ -84,50 +78,16 @@ public class ApiItemController {
 	// tag::find-all[]
 	@GetMapping("/api/items")
 	CollectionModel<EntityModel<Item>> findAll(Authentication auth) {
-		ApiItemController controller = methodOn(ApiItemController.class);
-
-		Link selfLink = linkTo(controller.findAll(auth)).withSelfRel();
-
-		Links allLinks;
-
-		if (auth.getAuthorities().contains(ROLE_INVENTORY)) {
-			Link addNewLink = linkTo(controller.addNewItem(null, auth)).withRel("add");
-
-			allLinks = Links.of(selfLink, addNewLink);
-		} else {
-			allLinks = Links.of(selfLink);
-		}
-
-		List<EntityModel<Item>> items = StreamSupport.stream(this.repository.findAll().spliterator(), false) //
-				.map(item -> findOne(item.getId(), auth)) //
-				.collect(Collectors.toList());
-
-		return CollectionModel.of(items, allLinks);
+		return this.assembler.forUser(auth) // one role check, one set of links to fill in
+				.toCollectionModel(this.repository.findAll());
 	}
 	// end::find-all[]
 
 	// tag::find-one[]
 	@GetMapping("/api/items/{id}")
 	EntityModel<Item> findOne(@PathVariable Integer id, Authentication auth) {
-		ApiItemController controller = methodOn(ApiItemController.class);
-
-		Link selfLink = linkTo(controller.findOne(id, auth)).withSelfRel();
-
-		Link aggregateLink = linkTo(controller.findAll(auth)) //
-				.withRel(IanaLinkRelations.ITEM);
-
-		Links allLinks; // <1>
-
-		if (auth.getAuthorities().contains(ROLE_INVENTORY)) { // <2>
-			Link deleteLink = linkTo(controller.deleteItem(id)).withRel("delete");
-
-			allLinks = Links.of(selfLink, aggregateLink, deleteLink);
-		} else { // <3>
-			allLinks = Links.of(selfLink, aggregateLink);
-		}
-
-		return this.repository.findById(id) // <4>
-				.map(item -> EntityModel.of(item, allLinks)) //
+		return this.repository.findById(id) // <1>
+				.map(this.assembler.forUser(auth)::toModel) // <2>
 				.orElseThrow(() -> new IllegalStateException("Couldn't find item " + id));
 	}
 
@@ -139,7 +99,7 @@ public class ApiItemController {
 	ResponseEntity<?> addNewItem(@RequestBody Item item, Authentication auth) { // <3>
 		Item savedItem = this.repository.save(item);
 
-		EntityModel<Item> newModel = findOne(savedItem.getId(), auth);
+		EntityModel<Item> newModel = this.assembler.forUser(auth).toModel(savedItem);
 
 		return ResponseEntity.created(newModel //
 				.getRequiredLink(IanaLinkRelations.SELF) //
@@ -167,7 +127,7 @@ public class ApiItemController {
 
 		Item savedItem = this.repository.save(newItem);
 
-		EntityModel<Item> newModel = findOne(savedItem.getId(), auth);
+		EntityModel<Item> newModel = this.assembler.forUser(auth).toModel(savedItem);
 
 		return ResponseEntity.noContent() // <6>
 				.location(newModel.getRequiredLink(IanaLinkRelations.SELF).toUri()).build();
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Signs and checks the application's own bearer tokens: HS256 JWTs naming the user and carrying their roles, under a
+ * key from {@code users.token.secret}. A request bearing one is authenticated from the token alone, with no user
+ * lookup, password check or session. There is no default key, so the application will not start without one.
+ * <p>
+ * The price is that a token outlives changes to its user: removed roles or a new password take effect only once it
+ * expires, after {@code users.token.time-to-live}.
+ */
+@Component
+class BearerTokens {
+
+	static final String ROLES = "roles";
+
+	private final SecretKey key;
+	private final JWSSigner signer;
+	private final Duration timeToLive;
+
+	BearerTokens(@Value("${users.token.secret:}") String secret, //
+			@Value("${users.token.time-to-live:15m}") Duration timeToLive) {
+		if (!StringUtils.hasText(secret)) {
+			throw new IllegalArgumentException("users.token.secret must be set to a base64 key of at least 256 bits");
+		}
+		this.key = new SecretKeySpec(Base64.getDecoder().decode(secret), "HmacSHA256");
+		try {
+			this.signer = new MACSigner(this.key);
+		} catch (JOSEException e) {
+			throw new IllegalArgumentException("users.token.secret must be at least 256 bits", e);
+		}
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * A token for the given user, carrying their authorities as they stand now.
+	 */
+	String issue(Authentication authentication) {
+		List<String> roles = authentication.getAuthorities().stream() //
+				.map(GrantedAuthority::getAuthority) //
+				.collect(Collectors.toList());
+		Instant now = Instant.now();
+		JWTClaimsSet claims = new JWTClaimsSet.Builder() //
+				.subject(authentication.getName()) //
+				.claim(ROLES, roles) //
+				.issueTime(Date.from(now)) //
+				.expirationTime(Date.from(now.plus(this.timeToLive))) //
+				.build();
+
+		SignedJWT token = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+		try {
+			token.sign(this.signer);
+		} catch (JOSEException e) {
+			throw new IllegalStateException(e);
+		}
+		return token.serialize();
+	}
+
+	Duration getTimeToLive() {
+		return this.timeToLive;
+	}
+
+	/**
+	 * Accepts tokens signed with this key that have not expired.
+	 */
+	JwtDecoder decoder() {
+		return NimbusJwtDecoder.withSecretKey(this.key).macAlgorithm(MacAlgorithm.HS256).build();
+	}
+
+	/**
+	 * Grants the roles claim as it is, since the roles already carry their {@code ROLE_} prefix.
+	 */
+	static JwtAuthenticationConverter authenticationConverter() {
+		JwtGrantedAuthoritiesConverter authorities = new JwtGrantedAuthoritiesConverter();
+		authorities.setAuthoritiesClaimName(ROLES);
+		authorities.setAuthorityPrefix("");
+
+		JwtAuthenticationConverter converter = new JwtAuthenticationConverter();
+		converter.setJwtGrantedAuthoritiesConverter(authorities);
+		return converter;
+	}
+}
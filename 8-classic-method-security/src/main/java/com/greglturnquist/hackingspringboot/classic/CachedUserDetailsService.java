@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.time.Duration;
+
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Remembers what another {@link UserDetailsService} said about each user, for a while. HTTP Basic clients
+ * authenticate on every request, and without this each of them is a database query.
+ * <p>
+ * The cache is bounded and entries expire, so a change made behind the application's back is picked up eventually.
+ * Changes made through JPA clear it at once, by way of {@link UserChangeListener}. Unknown users are not cached.
+ */
+class CachedUserDetailsService implements UserDetailsService {
+
+	private final UserDetailsService delegate;
+	private final Cache<String, UserDetails> users;
+
+	CachedUserDetailsService(UserDetailsService delegate, long maximumSize, Duration timeToLive) {
+		this.delegate = delegate;
+		this.users = Caffeine.newBuilder() //
+				.maximumSize(maximumSize) //
+				.expireAfterWrite(timeToLive) //
+				.build();
+	}
+
+	@Override
+	public UserDetails loadUserByUsername(String username) {
+		UserDetails user = this.users.get(username, this.delegate::loadUserByUsername);
+
+		// a copy, since Spring Security erases the password of the one it authenticates
+		return User.withUserDetails(user).build();
+	}
+
+	void evictAll() {
+		this.users.invalidateAll();
+	}
+
+	long size() {
+		return this.users.estimatedSize();
+	}
+}
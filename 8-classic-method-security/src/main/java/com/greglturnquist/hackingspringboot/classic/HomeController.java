@@ -41,8 +41,8 @@ public class HomeController {
 		model.addAttribute("items", //
 				this.inventoryService.getInventory());
 		model.addAttribute("cart", //
-				this.inventoryService.getCart(cartName(auth)) //
-						.orElseGet(() -> new Cart(cartName(auth)))); // <2>
+				this.inventoryService.getCartView(cartName(auth)) //
+						.orElseGet(() -> CartView.empty(cartName(auth)))); // <2>
 		model.addAttribute("auth", auth);
 
 		return "home";
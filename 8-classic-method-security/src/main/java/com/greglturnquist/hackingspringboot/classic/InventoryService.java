@@ -42,6 +42,10 @@ class InventoryService {
 		return this.cartRepository.findById(cartId);
 	}
 
+	public Optional<CartView> getCartView(String cartId) {
+		return this.cartRepository.findCartWithItemsById(cartId).map(CartView::of);
+	}
+
 	public Iterable<Item> getInventory() {
 		return this.itemRepository.findAll();
 	}
@@ -56,7 +60,7 @@ class InventoryService {
 
 	Cart addItemToCart(String cartId, Integer itemId) {
 		Cart cart = this.cartRepository.findById(cartId) //
-				.orElseGet(() -> new Cart("My Cart")); // <3>
+				.orElseGet(() -> new Cart(cartId)); // <3>
 
 		cart.getCartItems().stream() //
 				.filter(cartItem -> cartItem.getItem().getId().equals(itemId)) //
@@ -69,6 +73,7 @@ class InventoryService {
 					this.itemRepository.findById(itemId) //
 							.map(item -> new CartItem(item)) //
 							.map(cartItem -> {
+								cartItem.setCart(cart);
 								cart.getCartItems().add(cartItem);
 								return cart;
 							}) //
@@ -82,7 +87,7 @@ class InventoryService {
 	Cart removeOneFromCart(String cartId, Integer itemId) {
 
 		Cart cart = this.cartRepository.findById(cartId) //
-				.orElseGet(() -> new Cart("My Cart")); // <3>
+				.orElseGet(() -> new Cart(cartId)); // <3>
 
 		cart.getCartItems().stream() //
 				.filter(cartItem -> cartItem.getItem().getId().equals(itemId)) //
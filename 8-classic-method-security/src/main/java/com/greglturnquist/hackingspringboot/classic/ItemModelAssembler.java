@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.hateoas.server.RepresentationModelAssembler;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import com.greglturnquist.hackingspringboot.classic.LinkTemplates.LinkTemplate;
+
+/**
+ * Turns items into the representations {@link ApiItemController} serves, with the links the caller's roles allow.
+ * <p>
+ * Which links appear depends only on whether the caller has the {@code INVENTORY} role, so both sets of links are
+ * laid out once, up front. {@link #forUser(Authentication)} then checks the role and resolves the base URI once per
+ * request, and the assembler it returns only fills in each item's id.
+ */
+@Component
+class ItemModelAssembler {
+
+	// tag::inventory[]
+	static final SimpleGrantedAuthority ROLE_INVENTORY = //
+			new SimpleGrantedAuthority("ROLE_" + SecurityConfig.INVENTORY);
+	// end::inventory[]
+
+	static final LinkRelation ADD = LinkRelation.of("add");
+	static final LinkRelation DELETE = LinkRelation.of("delete");
+
+	private final Shape user;
+	private final Shape inventory;
+
+	ItemModelAssembler(LinkTemplates linkTemplates) {
+		LinkTemplate item = linkTemplates.forMethod(ApiItemController.class, "findOne");
+		LinkTemplate items = linkTemplates.forMethod(ApiItemController.class, "findAll");
+		LinkTemplate add = linkTemplates.forMethod(ApiItemController.class, "addNewItem");
+		LinkTemplate delete = linkTemplates.forMethod(ApiItemController.class, "deleteItem");
+
+		this.user = new Shape() //
+				.item(IanaLinkRelations.SELF, item) //
+				.item(IanaLinkRelations.ITEM, items) //
+				.collection(IanaLinkRelations.SELF, items);
+		this.inventory = new Shape() //
+				.item(IanaLinkRelations.SELF, item) //
+				.item(IanaLinkRelations.ITEM, items) //
+				.item(DELETE, delete) //
+				.collection(IanaLinkRelations.SELF, items) //
+				.collection(ADD, add);
+	}
+
+	/**
+	 * An assembler for the current request, with links for the given user's roles.
+	 */
+	ItemModels forUser(Authentication auth) {
+		Shape shape = auth.getAuthorities().contains(ROLE_INVENTORY) ? this.inventory : this.user;
+		return new ItemModels(shape, LinkTemplates.currentBaseUri());
+	}
+
+	/**
+	 * One request's assembler. Links that do not name an item are built once and shared by every item.
+	 */
+	static final class ItemModels implements RepresentationModelAssembler<Item, EntityModel<Item>> {
+
+		private final Shape shape;
+		private final String baseUri;
+		private final Link[] shared;
+		private final List<Link> collectionLinks;
+
+		private ItemModels(Shape shape, String baseUri) {
+			this.shape = shape;
+			this.baseUri = baseUri;
+
+			this.shared = new Link[shape.itemTemplates.size()];
+			for (int i = 0; i < this.shared.length; i++) {
+				LinkTemplate template = shape.itemTemplates.get(i);
+				if (template.getParameterCount() == 0) {
+					this.shared[i] = template.expandFrom(baseUri, shape.itemRelations.get(i));
+				}
+			}
+
+			this.collectionLinks = new ArrayList<>(shape.collectionTemplates.size());
+			for (int i = 0; i < shape.collectionTemplates.size(); i++) {
+				this.collectionLinks.add(shape.collectionTemplates.get(i).expandFrom(baseUri,
+						shape.collectionRelations.get(i)));
+			}
+		}
+
+		@Override
+		public EntityModel<Item> toModel(Item item) {
+			Link[] links = new Link[this.shared.length];
+			for (int i = 0; i < links.length; i++) {
+				links[i] = this.shared[i] != null //
+						? this.shared[i] //
+						: this.shape.itemTemplates.get(i).expandFrom(this.baseUri, this.shape.itemRelations.get(i),
+								item.getId());
+			}
+			return EntityModel.of(item, links);
+		}
+
+		@Override
+		public CollectionModel<EntityModel<Item>> toCollectionModel(Iterable<? extends Item> items) {
+			List<EntityModel<Item>> models = new ArrayList<>();
+			for (Item item : items) {
+				models.add(toModel(item));
+			}
+			return CollectionModel.of(models, this.collectionLinks);
+		}
+	}
+
+	/**
+	 * The links for one combination of roles, in order, as templates.
+	 */
+	private static final class Shape {
+
+		private final List<LinkRelation> itemRelations = new ArrayList<>();
+		private final List<LinkTemplate> itemTemplates = new ArrayList<>();
+		private final List<LinkRelation> collectionRelations = new ArrayList<>();
+		private final List<LinkTemplate> collectionTemplates = new ArrayList<>();
+
+		Shape item(LinkRelation relation, LinkTemplate template) {
+			this.itemRelations.add(relation);
+			this.itemTemplates.add(template);
+			return this;
+		}
+
+		Shape collection(LinkRelation relation, LinkTemplate template) {
+			this.collectionRelations.add(relation);
+			this.collectionTemplates.add(template);
+			return this;
+		}
+	}
+}
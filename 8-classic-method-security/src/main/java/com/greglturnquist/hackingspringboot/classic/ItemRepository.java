@@ -16,12 +16,23 @@
 
 package com.greglturnquist.hackingspringboot.classic;
 
+import static org.hibernate.jpa.QueryHints.*;
+
 import java.util.Optional;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 public interface ItemRepository extends CrudRepository<Item, Integer> {
 
+	// both are answered from the query cache until an item is written
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
 	Optional<Item> findByName(String name);
 
+	@Override
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+	Iterable<Item> findAll();
+
 }
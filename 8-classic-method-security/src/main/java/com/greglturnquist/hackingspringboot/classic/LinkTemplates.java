@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Builds links to controller methods without going through {@code linkTo(methodOn(...))}. Each method's URI template
+ * is read once from the registered request mappings; producing a link is then the current request's base URI
+ * (resolved once per request) followed by the template with its path variables substituted in.
+ */
+@Component
+public class LinkTemplates {
+
+	private static final String BASE_URI = LinkTemplates.class.getName() + ".BASE_URI";
+
+	private final Map<Method, String> patterns = new HashMap<>();
+
+	public LinkTemplates(@Qualifier("requestMappingHandlerMapping") RequestMappingHandlerMapping mapping) {
+		mapping.getHandlerMethods().forEach((info, handlerMethod) -> info.getPatternValues().stream() //
+				.findFirst() //
+				.ifPresent(pattern -> this.patterns.put(handlerMethod.getMethod(), pattern)));
+	}
+
+	/**
+	 * Look up the template for a handler method. Meant to be called once, when the controller is constructed.
+	 * Parameter types are only needed to pick one of several overloaded handlers.
+	 */
+	public LinkTemplate forMethod(Class<?> controller, String methodName, Class<?>... parameterTypes) {
+		List<String> matches = this.patterns.entrySet().stream() //
+				.filter(entry -> entry.getKey().getDeclaringClass().equals(controller)) //
+				.filter(entry -> entry.getKey().getName().equals(methodName)) //
+				.filter(entry -> parameterTypes.length == 0
+						|| Arrays.equals(entry.getKey().getParameterTypes(), parameterTypes)) //
+				.map(Map.Entry::getValue) //
+				.collect(Collectors.toList());
+
+		if (matches.isEmpty()) {
+			throw new IllegalArgumentException(
+					"No request mapping for " + controller.getSimpleName() + "." + methodName);
+		}
+		if (matches.size() > 1) {
+			throw new IllegalArgumentException(controller.getSimpleName() + "." + methodName
+					+ " is overloaded; pass the parameter types of the one to link to");
+		}
+		return new LinkTemplate(matches.get(0));
+	}
+
+	static String currentBaseUri() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+
+		if (attributes == null) {
+			return "";
+		}
+
+		String baseUri = (String) attributes.getAttribute(BASE_URI, RequestAttributes.SCOPE_REQUEST);
+
+		if (baseUri == null) {
+			baseUri = ServletUriComponentsBuilder.fromCurrentServletMapping().build().toUriString();
+			attributes.setAttribute(BASE_URI, baseUri, RequestAttributes.SCOPE_REQUEST);
+		}
+
+		return baseUri;
+	}
+
+	/**
+	 * A pre-parsed URI template such as {@code /api/items/{id}}, split into its literal parts so expansion is plain
+	 * string concatenation. A variable ends at its matching brace, so a regex such as {@code {id:[0-9]{3}}} stays part
+	 * of it.
+	 */
+	public static final class LinkTemplate {
+
+		private final String pattern;
+		private final String[] literals;
+
+		LinkTemplate(String pattern) {
+			this.pattern = pattern;
+
+			List<String> parts = new ArrayList<>();
+			int start = 0;
+			int open;
+			while ((open = pattern.indexOf('{', start)) >= 0) {
+				parts.add(pattern.substring(start, open));
+				start = closingBrace(pattern, open) + 1;
+			}
+			parts.add(pattern.substring(start));
+
+			this.literals = parts.toArray(new String[0]);
+		}
+
+		public Link expand(LinkRelation relation, Object... parameters) {
+			return Link.of(expandHref(parameters), relation);
+		}
+
+		/**
+		 * Expand against a base URI the caller already resolved, for callers producing many links per request.
+		 */
+		public Link expandFrom(String baseUri, LinkRelation relation, Object... parameters) {
+			return Link.of(expandHrefFrom(baseUri, parameters), relation);
+		}
+
+		public String expandHref(Object... parameters) {
+			return expandHrefFrom(currentBaseUri(), parameters);
+		}
+
+		public int getParameterCount() {
+			return this.literals.length - 1;
+		}
+
+		private String expandHrefFrom(String baseUri, Object... parameters) {
+			if (parameters.length != getParameterCount()) {
+				throw new IllegalArgumentException(
+						this.pattern + " takes " + getParameterCount() + " parameters, got " + parameters.length);
+			}
+
+			StringBuilder href = new StringBuilder(baseUri).append(this.literals[0]);
+			for (int i = 0; i < parameters.length; i++) {
+				href.append(UriUtils.encodePathSegment(String.valueOf(parameters[i]), StandardCharsets.UTF_8)) //
+						.append(this.literals[i + 1]);
+			}
+			return href.toString();
+		}
+
+		@Override
+		public String toString() {
+			return "LinkTemplate{" + "pattern='" + pattern + '\'' + '}';
+		}
+
+		private static int closingBrace(String pattern, int open) {
+			int depth = 0;
+			for (int i = open; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (c == '{') {
+					depth++;
+				} else if (c == '}' && --depth == 0) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("Unclosed variable in " + pattern);
+		}
+	}
+}
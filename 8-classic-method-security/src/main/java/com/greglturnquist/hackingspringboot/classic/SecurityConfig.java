@@ -15,17 +15,25 @@
  */
 package com.greglturnquist.hackingspringboot.classic;
 
+import java.time.Duration;
 import java.util.Arrays;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
  * @author Greg Turnquist
@@ -37,15 +45,42 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 	// end::code[]
 
 	@Bean
-	public UserDetailsService userDetailsService(UserRepository repository) { // <1>
-		return username -> repository.findByName(username) // <2>
-				.map(user -> User.withDefaultPasswordEncoder() // <3>
-						.username(user.getName()) //
-						.password(user.getPassword()) //
+	public UserDetailsService userDetailsService(UserRepository repository, //
+			@Value("${users.cache.maximum-size:1000}") long maximumSize, //
+			@Value("${users.cache.time-to-live:5m}") Duration timeToLive) { // <1>
+		return new CachedUserDetailsService(username -> repository.findByName(username) // <2>
+				.map(user -> User.withUsername(user.getName()) // <3>
+						.password(user.getPassword()) // stored encoded
 						.authorities(user.getRoles().toArray(new String[0])) //
 						.build()) // <4>
-				.orElseThrow(() -> new UsernameNotFoundException("Couldn't find user " + username));
+				.orElseThrow(() -> new UsernameNotFoundException("Couldn't find user " + username)), //
+				maximumSize, timeToLive);
+	}
+
+	@Bean
+	PasswordEncoder passwordEncoder() {
+		return PasswordEncoderFactories.createDelegatingPasswordEncoder();
+	}
+
+	// tag::verified-credentials[]
+	@Bean // the only AuthenticationProvider, so Spring Security authenticates everyone through it
+	VerifiedCredentialsCache verifiedCredentialsCache(UserDetailsService userDetailsService,
+			PasswordEncoder passwordEncoder, MeterRegistry meterRegistry, //
+			@Value("${users.credentials-cache.maximum-size:10000}") long maximumSize, //
+			@Value("${users.credentials-cache.time-to-live:1m}") Duration timeToLive) {
+		DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+		provider.setUserDetailsService(userDetailsService);
+		provider.setPasswordEncoder(passwordEncoder);
+		return new VerifiedCredentialsCache(provider, maximumSize, timeToLive, meterRegistry);
+	}
+	// end::verified-credentials[]
+
+	// tag::bearer-tokens[]
+	@Bean
+	JwtDecoder jwtDecoder(BearerTokens bearerTokens) {
+		return bearerTokens.decoder();
 	}
+	// end::bearer-tokens[]
 
 	// tag::custom-policy[]
 
@@ -58,6 +93,8 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 				.and() //
 				.formLogin() //
 				.and() //
+				.oauth2ResourceServer(resourceServer -> resourceServer //
+						.jwt(jwt -> jwt.jwtAuthenticationConverter(BearerTokens.authenticationConverter()))) //
 				.csrf().disable();
 	}
 	// end::custom-policy[]
@@ -71,13 +108,13 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 	static final String INVENTORY = "INVENTORY";
 
 	@Bean
-	CommandLineRunner userLoader(UserRepository repository) {
+	CommandLineRunner userLoader(UserRepository repository, PasswordEncoder passwordEncoder) {
 		return args -> {
 			repository.save(new com.greglturnquist.hackingspringboot.classic.User( //
-					"greg", "password", Arrays.asList(role(USER))));
+					"greg", passwordEncoder.encode("password"), Arrays.asList(role(USER))));
 
 			repository.save(new com.greglturnquist.hackingspringboot.classic.User( //
-					"manager", "password", Arrays.asList(role(USER), role(INVENTORY))));
+					"manager", passwordEncoder.encode("password"), Arrays.asList(role(USER), role(INVENTORY))));
 		};
 	}
 	// end::users[]
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Hands a client who logged in with a password a {@link BearerTokens bearer token} for the API, in the shape of an
+ * OAuth 2.0 token response.
+ */
+@RestController
+class TokenController {
+
+	private final BearerTokens bearerTokens;
+
+	TokenController(BearerTokens bearerTokens) {
+		this.bearerTokens = bearerTokens;
+	}
+
+	@PostMapping("/api/token")
+	ResponseEntity<Map<String, Object>> token(Authentication auth) {
+		// a token minting its own successor would never pick up a change to its user
+		if (auth instanceof JwtAuthenticationToken) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		}
+
+		Map<String, Object> token = new LinkedHashMap<>();
+		token.put("access_token", this.bearerTokens.issue(auth));
+		token.put("token_type", "Bearer");
+		token.put("expires_in", this.bearerTokens.getTimeToLive().getSeconds());
+		return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(token);
+	}
+}
@@ -24,6 +24,9 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * @author Greg Turnquist
  */
@@ -34,6 +37,7 @@ public class User {
 	private @Id @GeneratedValue Integer id;
 	private String name;
 	private String password;
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user-roles") // read at every login, rarely changed
 	private @ElementCollection(fetch = FetchType.EAGER) List<String> roles;
 
 	protected User() {} // <1>
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Remembers, for a short while, which username and password pairs another {@link AuthenticationProvider} accepted,
+ * so an HTTP Basic client sending the same credentials again skips the password encoder's deliberately slow check.
+ * <p>
+ * Entries are keyed by an HMAC of the credentials under a key made up at startup, so the cache never holds a password
+ * or anything that can be checked against one offline. Only successes are cached: a wrong password always costs the
+ * full check. Changes to any user clear the cache, by way of {@link UserChangeListener}.
+ * <p>
+ * The {@code cache.gets} meters for {@value #NAME} give the hit rate; {@code security.credentials.verification} times
+ * the checks made, and {@code security.credentials.cpu.saved} adds up the CPU time the hits did not spend.
+ */
+class VerifiedCredentialsCache implements AuthenticationProvider {
+
+	static final String NAME = "verified-credentials";
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final AuthenticationProvider delegate;
+	private final SecretKeySpec key;
+	private final ThreadLocal<Mac> macs;
+	private final Cache<String, Authentication> verified;
+	private final Timer verification;
+	private final Counter saved;
+
+	VerifiedCredentialsCache(AuthenticationProvider delegate, long maximumSize, Duration timeToLive,
+			MeterRegistry meterRegistry) {
+		this.delegate = delegate;
+
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		this.key = new SecretKeySpec(secret, "HmacSHA256");
+		this.macs = ThreadLocal.withInitial(this::newMac);
+
+		this.verified = Caffeine.newBuilder() //
+				.maximumSize(maximumSize) //
+				.expireAfterWrite(timeToLive) //
+				.recordStats() //
+				.build();
+		CaffeineCacheMetrics.monitor(meterRegistry, this.verified, NAME);
+		this.verification = Timer.builder("security.credentials.verification") //
+				.description("CPU time spent checking credentials the cache did not know") //
+				.register(meterRegistry);
+		this.saved = Counter.builder("security.credentials.cpu.saved") //
+				.description("CPU time the cached credentials would have taken to check") //
+				.baseUnit("seconds") //
+				.register(meterRegistry);
+	}
+
+	@Override
+	public Authentication authenticate(Authentication authentication) {
+		String key = key(authentication.getName(), String.valueOf(authentication.getCredentials()));
+
+		Authentication verified = this.verified.getIfPresent(key);
+		if (verified != null) {
+			this.saved.increment(this.verification.mean(TimeUnit.SECONDS));
+			UsernamePasswordAuthenticationToken result = new UsernamePasswordAuthenticationToken(
+					verified.getPrincipal(), authentication.getCredentials(), verified.getAuthorities());
+			result.setDetails(authentication.getDetails());
+			return result;
+		}
+
+		long start = cpuTime();
+		try {
+			Authentication result = this.delegate.authenticate(authentication);
+			if (result != null && result.isAuthenticated()) {
+				this.verified.put(key, result);
+			}
+			return result;
+		} finally {
+			this.verification.record(cpuTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@Override
+	public boolean supports(Class<?> authentication) {
+		return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+	}
+
+	void evictAll() {
+		this.verified.invalidateAll();
+	}
+
+	long size() {
+		return this.verified.estimatedSize();
+	}
+
+	// the username's length goes first, so no other split of the same characters gives the same key
+	private String key(String username, String password) {
+		byte[] name = username.getBytes(StandardCharsets.UTF_8);
+		Mac mac = this.macs.get();
+		mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(name.length).array());
+		mac.update(name);
+		return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private Mac newMac() {
+		try {
+			Mac mac = Mac.getInstance(this.key.getAlgorithm());
+			mac.init(this.key);
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+}
@@ -0,0 +1,9 @@
+-- The tables as Hibernate generated them from Item, Cart, CartItem and User before Flyway took over.
+
+create sequence hibernate_sequence start with 1 increment by 1;
+
+create table cart (id varchar(255) not null, primary key (id));
+create table cart_item (id integer not null, quantity integer not null, cart_id varchar(255), item_id integer, primary key (id));
+create table item (id integer not null, description varchar(255), name varchar(255), price double not null, primary key (id));
+create table user (id integer not null, name varchar(255), password varchar(255), primary key (id));
+create table user_roles (user_id integer not null, roles varchar(255));
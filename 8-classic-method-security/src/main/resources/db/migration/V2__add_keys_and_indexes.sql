@@ -0,0 +1,18 @@
+-- Indexes for the lookups made on every request. They come before the foreign keys, which then use them rather than
+-- each getting an index of their own.
+
+-- a cart's lines are read by cart_id, and a cart holds at most one line per item
+create index ix_cart_item_cart on cart_item (cart_id);
+create index ix_cart_item_item on cart_item (item_id);
+alter table cart_item add constraint uk_cart_item_cart_item unique (cart_id, item_id);
+
+-- UserDetailsService finds users by name, then loads their roles
+alter table user add constraint uk_user_name unique (name);
+create index ix_user_roles_user on user_roles (user_id);
+
+-- ItemRepository.findByName
+create index ix_item_name on item (name);
+
+alter table cart_item add constraint fk_cart_item_cart foreign key (cart_id) references cart;
+alter table cart_item add constraint fk_cart_item_item foreign key (item_id) references item;
+alter table user_roles add constraint fk_user_roles_user foreign key (user_id) references user;
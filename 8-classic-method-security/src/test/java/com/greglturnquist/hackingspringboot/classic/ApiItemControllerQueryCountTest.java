@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+/**
+ * Listing {@code /api/items} must issue one query per request no matter how large the catalog is.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+public class ApiItemControllerQueryCountTest {
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemRepository repository;
+
+	Statistics statistics;
+
+	List<Item> created = new ArrayList<>();
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc, @Autowired EntityManagerFactory entityManagerFactory) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc) //
+				.codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024)) //
+				.build();
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.repository.deleteAll(this.created);
+	}
+
+	@Test
+	@WithMockUser(username = "alice")
+	void listingWithoutInventoryAuthorityIsOneQuery() {
+		Integer id = fill(500);
+
+		this.webTestClient.get().uri("/api/items") //
+				.accept(MediaTypes.HAL_JSON) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$._embedded.itemList[?(@.id == " + id + ")]._links.self.href") //
+				.isEqualTo("http://localhost/api/items/" + id) //
+				.jsonPath("$._embedded.itemList[?(@.id == " + id + ")]._links.delete").doesNotExist();
+
+		assertThat(this.statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	@WithMockUser(username = "bob", roles = { "INVENTORY" })
+	void listingWithInventoryAuthorityIsOneQuery() {
+		Integer id = fill(500);
+
+		this.webTestClient.get().uri("/api/items") //
+				.accept(MediaTypes.HAL_JSON) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody() //
+				.jsonPath("$._embedded.itemList[?(@.id == " + id + ")]._links.delete.href") //
+				.isEqualTo("http://localhost/api/items/delete/" + id);
+
+		assertThat(this.statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	private Integer fill(int size) {
+		for (int i = 0; i < size; i++) {
+			this.created.add(this.repository.save(new Item("query-count-" + i, "catalog item", 1.99)));
+		}
+		this.statistics.clear();
+		return this.created.get(size - 1).getId();
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.time.Duration;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import com.jayway.jsonpath.JsonPath;
+
+/**
+ * Bearer tokens from {@code POST /api/token} carry the user's roles, so the API authorizes them with no database,
+ * password check or session, and they are signed with a key that has to be configured. The benchmark compares them
+ * with HTTP Basic, with and without the password check.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class BearerTokenTest {
+
+	private static final Logger log = LoggerFactory.getLogger(BearerTokenTest.class);
+
+	private static final int CHECKED_ROUNDS = 20;
+
+	private static final int ROUNDS = 500;
+
+	@Autowired MockMvc mockMvc;
+
+	@Autowired JwtDecoder jwtDecoder;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired CachedUserDetailsService userDetailsService;
+
+	@Autowired VerifiedCredentialsCache credentials;
+
+	Statistics statistics;
+
+	@BeforeEach
+	void setUp(@Autowired EntityManagerFactory entityManagerFactory) {
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.itemRepository.findByName("Token lamp").ifPresent(this.itemRepository::delete);
+	}
+
+	@Test
+	void tokensCarryTheUsersRoles() {
+		String token = token("manager");
+
+		Jwt jwt = this.jwtDecoder.decode(token);
+		assertThat(jwt.getSubject()).isEqualTo("manager");
+		assertThat(jwt.getClaimAsStringList(BearerTokens.ROLES)).containsExactlyInAnyOrder("ROLE_USER",
+				"ROLE_INVENTORY");
+		assertThat(Duration.between(jwt.getIssuedAt(), jwt.getExpiresAt())).isEqualTo(Duration.ofMinutes(15));
+	}
+
+	@Test
+	void tokensAuthenticateWithoutLookupsOrSessions() {
+		String token = token("manager");
+		this.userDetailsService.evictAll();
+		this.credentials.evictAll();
+		this.statistics.clear();
+
+		MvcResult result = perform(get("/api").header(HttpHeaders.AUTHORIZATION, "Bearer " + token), status().isOk());
+
+		assertThat(this.statistics.getPrepareStatementCount()).isZero();
+		assertThat(this.userDetailsService.size()).isZero();
+		assertThat(this.credentials.size()).isZero();
+		assertThat(result.getRequest().getSession(false)).isNull();
+	}
+
+	@Test
+	void tokensDecideLinksAndMethodSecurity() {
+		String manager = "Bearer " + token("manager");
+		String greg = "Bearer " + token("greg");
+		String item = "{\"name\":\"Token lamp\",\"description\":\"lit by a token\",\"price\":9.99}";
+
+		assertThat(body(perform(get("/api/items").header(HttpHeaders.AUTHORIZATION, manager), status().isOk())))
+				.contains("\"add\"");
+		assertThat(body(perform(get("/api/items").header(HttpHeaders.AUTHORIZATION, greg), status().isOk())))
+				.doesNotContain("\"add\"");
+
+		perform(post("/api/items/add").header(HttpHeaders.AUTHORIZATION, greg) //
+				.contentType(MediaType.APPLICATION_JSON).content(item), status().isForbidden());
+		perform(post("/api/items/add").header(HttpHeaders.AUTHORIZATION, manager) //
+				.contentType(MediaType.APPLICATION_JSON).content(item), status().isCreated());
+	}
+
+	@Test
+	void onlyGoodTokensAreAccepted(@Value("${users.token.secret}") String secret) {
+		String token = token("greg");
+		String expired = new BearerTokens(secret, Duration.ofMinutes(-5)).issue(authentication("greg"));
+		String forged = token.substring(0, token.lastIndexOf('.') + 1) + "AAAA";
+
+		perform(get("/api").header(HttpHeaders.AUTHORIZATION, "Bearer " + expired), status().isUnauthorized());
+		perform(get("/api").header(HttpHeaders.AUTHORIZATION, "Bearer " + forged), status().isUnauthorized());
+
+		// a token cannot renew itself past a change to its user
+		perform(post("/api/token").header(HttpHeaders.AUTHORIZATION, "Bearer " + token), status().isForbidden());
+	}
+
+	@Test
+	void tokensNeedASecret() {
+		assertThatIllegalArgumentException().isThrownBy(() -> new BearerTokens("", Duration.ofMinutes(15)))
+				.withMessageContaining("users.token.secret");
+	}
+
+	@Test
+	void bearerTokensSkipWhatHttpBasicDoes() {
+		RequestBuilder basic = get("/api").with(httpBasic("greg", "password"));
+		RequestBuilder bearer = get("/api").header(HttpHeaders.AUTHORIZATION, "Bearer " + token("greg"));
+		perform(basic, status().isOk());
+
+		long checked = time(CHECKED_ROUNDS, () -> {
+			this.credentials.evictAll();
+			perform(basic, status().isOk());
+		});
+		long verified = time(ROUNDS, () -> perform(basic, status().isOk()));
+		this.userDetailsService.evictAll();
+		this.credentials.evictAll();
+		this.statistics.clear();
+		long tokens = time(ROUNDS, () -> perform(bearer, status().isOk()));
+		assertThat(this.statistics.getPrepareStatementCount()).isZero();
+		assertThat(this.userDetailsService.size()).isZero();
+		assertThat(this.credentials.size()).isZero();
+
+		log.info("GET /api: HTTP Basic with a password check {} per second, "
+				+ "with verified credentials {} per second, bearer token {} per second",
+				perSecond(CHECKED_ROUNDS, checked), perSecond(ROUNDS, verified), perSecond(ROUNDS, tokens));
+	}
+
+	private String token(String username) {
+		MvcResult result = perform(post("/api/token").with(httpBasic(username, "password")), status().isOk());
+		assertThat(result.getResponse().getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("no-store");
+		return JsonPath.read(body(result), "$.access_token");
+	}
+
+	private Authentication authentication(String username) {
+		return new UsernamePasswordAuthenticationToken(username, null,
+				this.userDetailsService.loadUserByUsername(username).getAuthorities());
+	}
+
+	private MvcResult perform(RequestBuilder request, ResultMatcher status) {
+		try {
+			return this.mockMvc.perform(request).andExpect(status).andReturn();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String body(MvcResult result) {
+		try {
+			return result.getResponse().getContentAsString();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static long time(int rounds, Runnable request) {
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			request.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long perSecond(int rounds, long nanos) {
+		return rounds * 1_000_000_000L / nanos;
+	}
+}
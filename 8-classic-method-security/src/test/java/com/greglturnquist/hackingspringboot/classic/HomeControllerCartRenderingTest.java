@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+/**
+ * Rendering the home page must cost the same number of statements whether the cart holds one line or two hundred.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+public class HomeControllerCartRenderingTest {
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired CartRepository cartRepository;
+
+	Statistics statistics;
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc, @Autowired EntityManagerFactory entityManagerFactory) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@Test
+	@WithMockUser(username = "small")
+	void renderingASmallCart() {
+		fillCart("small's Cart", 1);
+
+		assertThat(statementsToRenderHome("small's Cart", 1)).isEqualTo(2);
+	}
+
+	@Test
+	@WithMockUser(username = "large")
+	void renderingALargeCartIssuesTheSameNumberOfStatements() {
+		fillCart("large's Cart", 200);
+
+		assertThat(statementsToRenderHome("large's Cart", 200)).isEqualTo(2);
+	}
+
+	private void fillCart(String cartId, int lines) {
+		Cart cart = new Cart(cartId);
+		List<CartItem> cartItems = new ArrayList<>();
+		for (int i = 0; i < lines; i++) {
+			CartItem cartItem = new CartItem(this.itemRepository.save(new Item("item-" + i, "rendering item", 1.99)));
+			cartItem.setCart(cart);
+			cartItems.add(cartItem);
+		}
+		cart.setCartItems(cartItems);
+		this.cartRepository.save(cart);
+	}
+
+	private long statementsToRenderHome(String cartId, int lines) {
+		this.statistics.clear();
+
+		this.webTestClient.get().uri("/") //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody(String.class) //
+				.consumeWith(exchangeResult -> assertThat(exchangeResult.getResponseBody()) //
+						.contains("action=\"/remove/")) //
+				.returnResult();
+
+		long statements = this.statistics.getPrepareStatementCount();
+
+		assertThat(this.cartRepository.findCartWithItemsById(cartId)) //
+				.hasValueSatisfying(cart -> assertThat(cart.getCartItems()).hasSize(lines));
+
+		return statements;
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.flywaydb.core.Flyway;
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs the lookups made on every request, records the SQL Hibernate sends for them, and has H2 {@code EXPLAIN}
+ * each statement. Any table scan fails the test, so dropping or breaking an index in a migration is caught here.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+		+ "com.greglturnquist.hackingspringboot.classic.HotQueryPlanTest$RecordingInspector")
+public class HotQueryPlanTest {
+
+	private static final Pattern TABLE = Pattern.compile("(?:FROM|JOIN) \"PUBLIC\"\\.\"(\\w+)\"");
+
+	@Autowired UserRepository userRepository;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired CartRepository cartRepository;
+
+	@Autowired InventoryService inventoryService;
+
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	@Autowired TransactionTemplate transactionTemplate;
+
+	@AfterEach
+	void tearDown() {
+		if (this.cartRepository.existsById("Plan Cart")) {
+			this.cartRepository.deleteById("Plan Cart");
+		}
+	}
+
+	@Test
+	void migrationsAreApplied(@Autowired Flyway flyway) {
+		assertThat(flyway.info().applied()) //
+				.extracting(migration -> migration.getVersion().getVersion()) //
+				.containsExactly("1", "2");
+		assertThat(flyway.info().pending()).isEmpty();
+	}
+
+	@Test
+	void hotQueriesUseIndexes(@Autowired EntityManagerFactory entityManagerFactory) {
+		Item item = this.itemRepository.findByName("Alf alarm clock").get();
+
+		// the plans are the database's, so nothing may be answered from the second-level cache
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAll();
+		RecordingInspector.STATEMENTS.clear();
+		this.userRepository.findByName("greg");
+		this.itemRepository.findByName("Smurf TV tray");
+		addToCart(item); // a new cart
+		addToCart(item); // then one with lines to look through
+		this.inventoryService.getCartView("Plan Cart");
+
+		List<String> selects = RecordingInspector.STATEMENTS.stream() //
+				.filter(sql -> sql.toLowerCase(Locale.ROOT).startsWith("select")) //
+				.distinct() //
+				.collect(Collectors.toList());
+		Set<String> tables = new TreeSet<>();
+		for (String sql : selects) {
+			String plan = explain(sql);
+			assertThat(plan).as(sql).doesNotContainIgnoringCase("tableScan");
+			for (Matcher table = TABLE.matcher(plan); table.find();) {
+				tables.add(table.group(1));
+			}
+		}
+
+		// every table on the hot paths was read, and none of them by a scan
+		assertThat(tables).containsExactly("CART", "CART_ITEM", "ITEM", "USER", "USER_ROLES");
+	}
+
+	@Test
+	void aCartHoldsOneLinePerItem() {
+		Item item = this.itemRepository.findByName("Alf alarm clock").get();
+		addToCart(item);
+
+		assertThatExceptionOfType(DataIntegrityViolationException.class).isThrownBy(() -> this.jdbcTemplate.update(
+				"insert into cart_item (id, quantity, cart_id, item_id) values (next value for hibernate_sequence, 1, ?, ?)",
+				"Plan Cart", item.getId()));
+	}
+
+	@Test
+	void userNamesAreUnique() {
+		assertThatExceptionOfType(DataIntegrityViolationException.class).isThrownBy(() -> this.jdbcTemplate.update(
+				"insert into user (id, name, password) values (next value for hibernate_sequence, 'greg', 'again')"));
+	}
+
+	// inside a transaction, like the open session a web request gets
+	private void addToCart(Item item) {
+		this.transactionTemplate.executeWithoutResult(status -> this.inventoryService.addItemToCart("Plan Cart",
+				item.getId()));
+	}
+
+	private String explain(String sql) {
+		return String.join("\n", this.jdbcTemplate.queryForList("explain " + sql, String.class));
+	}
+
+	/**
+	 * Keeps every statement Hibernate prepares. Hibernate creates this itself, by class name.
+	 */
+	public static class RecordingInspector implements StatementInspector {
+
+		static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+		@Override
+		public String inspect(String sql) {
+			STATEMENTS.add(sql);
+			return sql;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Links;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.greglturnquist.hackingspringboot.classic.LinkTemplates.LinkTemplate;
+
+/**
+ * {@link ItemModelAssembler} gives a 10k-item listing the same links as building them item by item, checking the
+ * caller's roles once rather than once per item. The benchmark times both, and the whole {@code GET /api/items}, for
+ * USER and INVENTORY.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ItemModelAssemblerTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ItemModelAssemblerTest.class);
+
+	private static final int FIRST_ID = 10_000_000;
+
+	private static final int ITEMS = 10_000;
+
+	private static final int ROUNDS = 20;
+
+	@Autowired ItemModelAssembler assembler;
+
+	@Autowired LinkTemplates linkTemplates;
+
+	@Autowired ItemRepository repository;
+
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	@Autowired EntityManagerFactory entityManagerFactory;
+
+	@Autowired MockMvc mockMvc;
+
+	List<Item> items;
+
+	@BeforeEach
+	void setUp() {
+		this.jdbcTemplate.update("insert into item (id, name, description, price) " //
+				+ "select x, 'Listed ' || (x - ?), 'assembled item', 4.99 from system_range(?, ?)", //
+				FIRST_ID, FIRST_ID, FIRST_ID + ITEMS - 1);
+		evictCaches(); // the rows went in behind Hibernate's back
+		this.items = StreamSupport.stream(this.repository.findAll().spliterator(), false) //
+				.collect(Collectors.toList());
+
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+	}
+
+	@AfterEach
+	void tearDown() {
+		RequestContextHolder.resetRequestAttributes();
+		this.jdbcTemplate.update("delete from item where id >= ?", FIRST_ID);
+		evictCaches();
+	}
+
+	@Test
+	void linksMatchItemByItemAssemblyWithOneRoleCheck() {
+		for (CountingAuthentication auth : new CountingAuthentication[] { withUserRole(), withInventoryRole() }) {
+			CollectionModel<EntityModel<Item>> assembled = this.assembler.forUser(auth).toCollectionModel(this.items);
+			assertThat(auth.checks).isEqualTo(1);
+
+			List<EntityModel<Item>> expected = itemByItem(auth);
+			assertThat(assembled.getContent()).hasSize(this.items.size());
+			assertThat(links(assembled.getContent())).isEqualTo(links(expected));
+		}
+
+		Item lastItem = this.items.get(this.items.size() - 1);
+		EntityModel<Item> last = this.assembler.forUser(withInventoryRole()).toModel(lastItem);
+		assertThat(last.getLinks()).extracting(Link::getHref).containsExactly( //
+				"http://localhost/api/items/" + lastItem.getId(), //
+				"http://localhost/api/items", //
+				"http://localhost/api/items/delete/" + lastItem.getId());
+		assertThat(this.assembler.forUser(withInventoryRole()).toCollectionModel(this.items).getLinks()) //
+				.extracting(Link::getRel).extracting(Object::toString).containsExactly("self", "add");
+		assertThat(this.assembler.forUser(withUserRole()).toCollectionModel(this.items).getLinks()) //
+				.extracting(Link::getRel).extracting(Object::toString).containsExactly("self");
+	}
+
+	@Test
+	void assembledListingsCheckTheRoleOncePerListing() {
+		for (CountingAuthentication auth : new CountingAuthentication[] { withUserRole(), withInventoryRole() }) {
+			itemByItem(auth);
+			assertThat(auth.checks).isEqualTo(this.items.size());
+
+			auth.checks = 0;
+			this.assembler.forUser(auth).toCollectionModel(this.items);
+			this.assembler.forUser(auth).toCollectionModel(this.items);
+			assertThat(auth.checks).isEqualTo(2);
+		}
+	}
+
+	@Test
+	@Tag("benchmark")
+	void assembledListingsVersusItemByItem() {
+		for (CountingAuthentication auth : new CountingAuthentication[] { withUserRole(), withInventoryRole() }) {
+			String role = auth.getAuthorities().size() > 1 ? "INVENTORY" : "USER";
+
+			this.assembler.forUser(auth).toCollectionModel(this.items);
+			itemByItem(auth);
+			auth.checks = 0;
+			long itemByItem = time(() -> itemByItem(auth));
+			assertThat(auth.checks).isEqualTo(ROUNDS * this.items.size());
+			auth.checks = 0;
+			long assembled = time(() -> this.assembler.forUser(auth).toCollectionModel(this.items));
+			assertThat(auth.checks).isEqualTo(ROUNDS);
+
+			long listing = time(() -> {
+				try {
+					this.mockMvc.perform(get("/api/items").accept(MediaTypes.HAL_JSON) //
+							.with(user("lister").roles(role))) //
+							.andExpect(status().isOk());
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+
+			log.info("{} items as {}: links item by item {} ms, assembled {} ms; GET /api/items {} ms",
+					this.items.size(), role, itemByItem / 1_000_000 / ROUNDS, assembled / 1_000_000 / ROUNDS,
+					listing / 1_000_000 / ROUNDS);
+		}
+	}
+
+	/**
+	 * What the controller did before: the role checked, and every link built from scratch, for each item.
+	 */
+	private List<EntityModel<Item>> itemByItem(Authentication auth) {
+		LinkTemplate itemLink = this.linkTemplates.forMethod(ApiItemController.class, "findOne");
+		LinkTemplate itemsLink = this.linkTemplates.forMethod(ApiItemController.class, "findAll");
+		LinkTemplate deleteLink = this.linkTemplates.forMethod(ApiItemController.class, "deleteItem");
+
+		List<EntityModel<Item>> models = new ArrayList<>();
+		for (Item item : this.items) {
+			Link selfLink = itemLink.expand(IanaLinkRelations.SELF, item.getId());
+			Link aggregateLink = itemsLink.expand(IanaLinkRelations.ITEM);
+			Links allLinks = auth.getAuthorities().contains(ItemModelAssembler.ROLE_INVENTORY) //
+					? Links.of(selfLink, aggregateLink, deleteLink.expand(ItemModelAssembler.DELETE, item.getId())) //
+					: Links.of(selfLink, aggregateLink);
+			models.add(EntityModel.of(item, allLinks));
+		}
+		return models;
+	}
+
+	private void evictCaches() {
+		this.entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+	}
+
+	private static List<List<Link>> links(Collection<EntityModel<Item>> models) {
+		return models.stream() //
+				.map(model -> model.getLinks().toList()) //
+				.collect(Collectors.toList());
+	}
+
+	private static long time(Runnable listing) {
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			listing.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static CountingAuthentication withUserRole() {
+		return new CountingAuthentication("ROLE_USER");
+	}
+
+	private static CountingAuthentication withInventoryRole() {
+		return new CountingAuthentication("ROLE_USER", "ROLE_INVENTORY");
+	}
+
+	/**
+	 * Counts how often anyone asks for its authorities.
+	 */
+	static class CountingAuthentication extends TestingAuthenticationToken {
+
+		int checks;
+
+		CountingAuthentication(String... authorities) {
+			super("lister", "password", authorities);
+		}
+
+		@Override
+		public Collection<GrantedAuthority> getAuthorities() {
+			this.checks++;
+			return super.getAuthorities();
+		}
+	}
+}
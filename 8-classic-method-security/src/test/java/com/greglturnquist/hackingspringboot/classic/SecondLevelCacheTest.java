@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Once the catalog has been read, rendering the home page again, or adding a known item to a cart, takes items from
+ * the second-level cache instead of the database.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class SecondLevelCacheTest {
+
+	static final String ITEM_REGION = "items";
+	static final String ROLES_REGION = "user-roles";
+
+	WebTestClient webTestClient;
+
+	@Autowired ItemRepository itemRepository;
+
+	@Autowired CartRepository cartRepository;
+
+	@Autowired UserRepository userRepository;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	Statistics statistics;
+
+	List<Item> created = new ArrayList<>();
+
+	@BeforeEach
+	void setUp(@Autowired MockMvc mockMvc, @Autowired EntityManagerFactory entityManagerFactory) {
+		this.webTestClient = MockMvcWebTestClient.bindTo(mockMvc).build();
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.cartRepository.findById("cached's Cart").ifPresent(this.cartRepository::delete);
+		this.itemRepository.deleteAll(this.created);
+	}
+
+	@Test
+	@WithMockUser(username = "cached")
+	void repeatedCartRendersComeFromTheCache() {
+		for (int i = 0; i < 20; i++) {
+			Item item = create("cached-" + i);
+			addToCart(item);
+		}
+		renderHome(20); // reads the catalog into the cache
+
+		this.statistics.clear();
+		renderHome(20);
+
+		// only the cart, which changes with every click, is read again
+		assertThat(this.statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(this.statistics.getQueryCacheHitCount()).isEqualTo(1);
+		assertThat(region(ITEM_REGION).getHitCount()).isGreaterThanOrEqualTo(20);
+		assertThat(region(ITEM_REGION).getMissCount()).isZero();
+
+		this.statistics.clear();
+		addToCart(create("cached-extra"));
+		assertThat(region(ITEM_REGION).getHitCount()).isEqualTo(1);
+		assertThat(region(ITEM_REGION).getMissCount()).isZero();
+	}
+
+	@Test
+	void writesAreSeenAtOnce() {
+		Item item = create("Lava lamp");
+		assertThat(this.itemRepository.findByName("Lava lamp")).hasValue(item);
+		assertThat(this.itemRepository.findById(item.getId())).hasValue(item);
+
+		item.setName("Plasma lamp");
+		this.itemRepository.save(item);
+
+		assertThat(this.itemRepository.findByName("Lava lamp")).isEmpty();
+		assertThat(this.itemRepository.findByName("Plasma lamp")).hasValue(item);
+		assertThat(this.itemRepository.findById(item.getId())).get().extracting(Item::getName)
+				.isEqualTo("Plasma lamp");
+		assertThat(this.itemRepository.findAll()).contains(item);
+	}
+
+	@Test
+	void rolesAreCachedAndRegionsAreMetered() {
+		this.userRepository.findByName("manager");
+		this.statistics.clear();
+
+		assertThat(this.userRepository.findByName("manager")).get().extracting(User::getRoles).asList()
+				.containsExactly("ROLE_USER", "ROLE_INVENTORY");
+		assertThat(region(ROLES_REGION).getHitCount()).isEqualTo(1);
+
+		this.itemRepository.findById(create("metered").getId());
+		assertThat(this.meterRegistry.get("hibernate.second.level.cache.requests") //
+				.tag("region", ITEM_REGION) //
+				.tag("result", "hit") //
+				.functionCounter().count()).isPositive();
+	}
+
+	private Item create(String name) {
+		Item item = this.itemRepository.save(new Item(name, "cached item", 1.99));
+		this.created.add(item);
+		return item;
+	}
+
+	private void addToCart(Item item) {
+		this.webTestClient.post().uri("/add/{id}", item.getId()) //
+				.exchange() //
+				.expectStatus().is3xxRedirection();
+	}
+
+	private void renderHome(int lines) {
+		this.webTestClient.get().uri("/") //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody(String.class) //
+				.consumeWith(exchangeResult -> assertThat(exchangeResult.getResponseBody()) //
+						.contains("action=\"/remove/" + this.created.get(lines - 1).getId()));
+	}
+
+	private CacheRegionStatistics region(String name) {
+		return this.statistics.getDomainDataRegionStatistics(name);
+	}
+}
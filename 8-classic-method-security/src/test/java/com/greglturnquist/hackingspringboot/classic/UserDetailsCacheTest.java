@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * A login is looked up once and then served from {@link CachedUserDetailsService} until the user changes. It is
+ * compared with the lookup this application used to do: a query, and a freshly encoded password, for every request.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class UserDetailsCacheTest {
+
+	private static final Logger log = LoggerFactory.getLogger(UserDetailsCacheTest.class);
+
+	private static final int ROUNDS = 20;
+
+	@Autowired UserDetailsService userDetailsService;
+
+	@Autowired PasswordEncoder passwordEncoder;
+
+	@Autowired UserRepository userRepository;
+
+	@Autowired MockMvc mockMvc;
+
+	CachedUserDetailsService cache;
+
+	Statistics statistics;
+
+	List<User> created = new ArrayList<>();
+
+	@BeforeEach
+	void setUp(@Autowired EntityManagerFactory entityManagerFactory) {
+		this.cache = (CachedUserDetailsService) this.userDetailsService;
+		this.cache.evictAll();
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.userRepository.deleteAll(this.created);
+	}
+
+	@Test
+	void passwordsAreStoredEncoded() {
+		assertThat(this.userRepository.findByName("greg")).get().extracting(User::getPassword).asString()
+				.startsWith("{bcrypt}");
+	}
+
+	@Test
+	void warmLoginsSkipTheDatabase() {
+		AuthenticationProvider provider = provider(this.userDetailsService);
+		authenticate(provider, "greg");
+
+		this.statistics.clear();
+		for (int i = 0; i < 3; i++) {
+			// the cached copy keeps its password, though each authentication erases the one it was handed
+			assertThat(authenticate(provider, "greg").getAuthorities()).extracting(Object::toString)
+					.containsExactly("ROLE_USER");
+		}
+		assertThat(this.statistics.getPrepareStatementCount()).isZero();
+		assertThat(this.cache.size()).isEqualTo(1);
+
+		assertThatExceptionOfType(BadCredentialsException.class)
+				.isThrownBy(() -> provider.authenticate(new UsernamePasswordAuthenticationToken("greg", "wrong")));
+		assertThatExceptionOfType(UsernameNotFoundException.class)
+				.isThrownBy(() -> this.userDetailsService.loadUserByUsername("nobody"));
+		assertThat(this.cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	void changingAUserForgetsCachedLogins() {
+		User user = create("cached-user");
+		AuthenticationProvider provider = provider(this.userDetailsService);
+		assertThat(authenticate(provider, "cached-user").getAuthorities()).extracting(Object::toString)
+				.containsExactly("ROLE_USER");
+
+		// only the roles change
+		user = this.userRepository.findByName("cached-user").get();
+		user.setRoles(new ArrayList<>(Arrays.asList("ROLE_USER", "ROLE_INVENTORY")));
+		this.userRepository.save(user);
+		assertThat(this.cache.size()).isZero();
+		assertThat(authenticate(provider, "cached-user").getAuthorities()).extracting(Object::toString)
+				.containsExactlyInAnyOrder("ROLE_USER", "ROLE_INVENTORY");
+
+		user = this.userRepository.findByName("cached-user").get();
+		user.setPassword(this.passwordEncoder.encode("changed"));
+		this.userRepository.save(user);
+		assertThat(this.cache.size()).isZero();
+		assertThatExceptionOfType(BadCredentialsException.class)
+				.isThrownBy(() -> authenticate(provider, "cached-user"));
+		assertThat(provider.authenticate(new UsernamePasswordAuthenticationToken("cached-user", "changed")))
+				.extracting(Authentication::isAuthenticated).isEqualTo(true);
+
+		this.userRepository.delete(user);
+		this.created.remove(user);
+		assertThat(this.cache.size()).isZero();
+		assertThatExceptionOfType(BadCredentialsException.class)
+				.isThrownBy(() -> authenticate(provider, "cached-user"));
+	}
+
+	@Test
+	void cachedLoginsSkipThePerRequestLookup() {
+		// what every request used to cost: a query, and a bcrypt encode of the plaintext password
+		AuthenticationProvider before = provider(username -> this.userRepository.findByName(username) //
+				.map(user -> org.springframework.security.core.userdetails.User.withUsername(user.getName()) //
+						.password(this.passwordEncoder.encode("password")) //
+						.authorities(user.getRoles().toArray(new String[0])) //
+						.build()) //
+				.orElseThrow(() -> new UsernameNotFoundException("Couldn't find user " + username)));
+		AuthenticationProvider after = provider(this.userDetailsService);
+		authenticate(before, "greg");
+		authenticate(after, "greg");
+
+		this.statistics.clear();
+		long beforeNanos = time(() -> authenticate(before, "greg"));
+		long queries = this.statistics.getPrepareStatementCount();
+		this.statistics.clear();
+		long afterNanos = time(() -> authenticate(after, "greg"));
+		assertThat(queries).isEqualTo(ROUNDS);
+		assertThat(this.statistics.getPrepareStatementCount()).isZero();
+
+		long requestNanos = time(() -> {
+			try {
+				this.mockMvc.perform(get("/api").with(httpBasic("greg", "password"))).andExpect(status().isOk());
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		log.info("{} logins: per-request lookup {} per second, cached {} per second; HTTP Basic GET /api {} per second",
+				ROUNDS, perSecond(beforeNanos), perSecond(afterNanos), perSecond(requestNanos));
+	}
+
+	private User create(String name) {
+		User user = this.userRepository.save(new User(name, this.passwordEncoder.encode("password"),
+				new ArrayList<>(Arrays.asList("ROLE_USER"))));
+		this.created.add(user);
+		return user;
+	}
+
+	private AuthenticationProvider provider(UserDetailsService userDetailsService) {
+		DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+		provider.setUserDetailsService(userDetailsService);
+		provider.setPasswordEncoder(this.passwordEncoder);
+		return provider;
+	}
+
+	private static Authentication authenticate(AuthenticationProvider provider, String username) {
+		return provider.authenticate(new UsernamePasswordAuthenticationToken(username, "password"));
+	}
+
+	private static long time(Runnable login) {
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			login.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long perSecond(long nanos) {
+		return ROUNDS * 1_000_000_000L / nanos;
+	}
+}
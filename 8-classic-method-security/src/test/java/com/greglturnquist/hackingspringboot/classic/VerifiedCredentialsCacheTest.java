@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.hackingspringboot.classic;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * HTTP Basic clients sending the same credentials again are let in by {@link VerifiedCredentialsCache} without
+ * another bcrypt check, until the user changes. The benchmark logs the request rate with and without the cache.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class VerifiedCredentialsCacheTest {
+
+	private static final Logger log = LoggerFactory.getLogger(VerifiedCredentialsCacheTest.class);
+
+	private static final int ROUNDS = 20;
+
+	@Autowired MockMvc mockMvc;
+
+	@Autowired VerifiedCredentialsCache credentials;
+
+	@Autowired UserRepository userRepository;
+
+	@Autowired PasswordEncoder passwordEncoder;
+
+	@Autowired MeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setUp() {
+		this.credentials.evictAll();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.userRepository.findByName("verified").ifPresent(this.userRepository::delete);
+	}
+
+	@Test
+	void repeatedLoginsSkipThePasswordCheck() {
+		double hits = gets("hit");
+		double misses = gets("miss");
+		long checks = checks();
+		double saved = saved();
+
+		for (int i = 0; i < 4; i++) {
+			request("greg", "password", status().isOk());
+		}
+
+		assertThat(this.credentials.size()).isEqualTo(1);
+		assertThat(gets("hit") - hits).isEqualTo(3);
+		assertThat(gets("miss") - misses).isEqualTo(1);
+		assertThat(checks() - checks).isEqualTo(1);
+		assertThat(saved()).isGreaterThan(saved);
+	}
+
+	@Test
+	void wrongPasswordsAreCheckedEveryTime() {
+		long checks = checks();
+
+		request("greg", "wrong", status().isUnauthorized());
+		request("greg", "wrong", status().isUnauthorized());
+		request("nobody", "password", status().isUnauthorized());
+
+		assertThat(this.credentials.size()).isZero();
+		assertThat(checks() - checks).isEqualTo(3);
+	}
+
+	@Test
+	void changingAUserForgetsVerifiedCredentials() {
+		this.userRepository.save(new User("verified", this.passwordEncoder.encode("password"),
+				new ArrayList<>(Arrays.asList("ROLE_USER"))));
+		request("verified", "password", status().isOk());
+		assertThat(this.credentials.size()).isEqualTo(1);
+
+		User user = this.userRepository.findByName("verified").get();
+		user.setRoles(new ArrayList<>(Arrays.asList("ROLE_USER", "ROLE_INVENTORY")));
+		this.userRepository.save(user);
+		assertThat(this.credentials.size()).isZero();
+
+		request("verified", "password", status().isOk());
+		user = this.userRepository.findByName("verified").get();
+		user.setPassword(this.passwordEncoder.encode("changed"));
+		this.userRepository.save(user);
+		assertThat(this.credentials.size()).isZero();
+
+		request("verified", "password", status().isUnauthorized());
+		request("verified", "changed", status().isOk());
+	}
+
+	@Test
+	@Tag("benchmark")
+	void verifiedCredentialsVersusPasswordChecks() {
+		request("greg", "password", status().isOk());
+		long checks = checks();
+		double saved = saved();
+
+		long uncached = time(() -> {
+			this.credentials.evictAll();
+			request("greg", "password", status().isOk());
+		});
+		assertThat(checks() - checks).isEqualTo(ROUNDS);
+
+		double hits = gets("hit");
+		long cached = time(() -> request("greg", "password", status().isOk()));
+		assertThat(checks() - checks).isEqualTo(ROUNDS);
+		assertThat(gets("hit") - hits).isEqualTo(ROUNDS);
+
+		// timings depend on the machine, so they are reported rather than compared
+		log.info("HTTP Basic GET /api, {} requests: password checked {} per second, "
+				+ "verified credentials {} per second; {} ms of CPU saved, {} ms per check", ROUNDS,
+				perSecond(uncached), perSecond(cached), (long) ((saved() - saved) * 1000),
+				(long) timer().mean(TimeUnit.MILLISECONDS));
+	}
+
+	private void request(String username, String password, ResultMatcher status) {
+		try {
+			this.mockMvc.perform(get("/api").with(httpBasic(username, password))).andExpect(status);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private double gets(String result) {
+		return this.meterRegistry.get("cache.gets") //
+				.tag("cache", VerifiedCredentialsCache.NAME) //
+				.tag("result", result) //
+				.functionCounter().count();
+	}
+
+	private long checks() {
+		return timer().count();
+	}
+
+	private Timer timer() {
+		return this.meterRegistry.get("security.credentials.verification").timer();
+	}
+
+	private double saved() {
+		return this.meterRegistry.get("security.credentials.cpu.saved").counter().count();
+	}
+
+	private static long time(Runnable request) {
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			request.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long perSecond(long nanos) {
+		return ROUNDS * 1_000_000_000L / nanos;
+	}
+}
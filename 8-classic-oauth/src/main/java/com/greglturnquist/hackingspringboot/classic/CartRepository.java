@@ -15,6 +15,9 @@
  */
 package com.greglturnquist.hackingspringboot.classic;
 
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
 /**
@@ -22,6 +25,9 @@ import org.springframework.data.repository.CrudRepository;
  */
 // tag::code[]
 public interface CartRepository extends CrudRepository<Cart, String> {
+	// end::code[]
 
+	// cart, lines and items in one statement, for read-only rendering
+	@Query("select distinct c from Cart c left join fetch c.cartItems ci left join fetch ci.item where c.id = ?1")
+	Optional<Cart> findCartWithItemsById(String id);
 }
-// end::code[]
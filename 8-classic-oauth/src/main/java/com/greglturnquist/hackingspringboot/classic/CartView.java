@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.greglturnquist.hackingspringboot.classic;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Flat, read-only snapshot of a {@link Cart} for rendering. Built from a cart whose lines and items were fetched in one
+ * query, so walking it never touches the database.
+ */
+public final class CartView {
+
+	private final String id;
+	private final List<Line> lines;
+
+	CartView(String id, List<Line> lines) {
+		this.id = id;
+		this.lines = Collections.unmodifiableList(lines);
+	}
+
+	static CartView of(Cart cart) {
+		return new CartView(cart.getId(), cart.getCartItems().stream() //
+				.map(Line::of) //
+				.collect(Collectors.toList()));
+	}
+
+	static CartView empty(String id) {
+		return new CartView(id, Collections.emptyList());
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public List<Line> getLines() {
+		return lines;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (o == null || getClass() != o.getClass())
+			return false;
+		CartView cartView = (CartView) o;
+		return Objects.equals(id, cartView.id) && Objects.equals(lines, cartView.lines);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, lines);
+	}
+
+	@Override
+	public String toString() {
+		return "CartView{" + "id='" + id + '\'' + ", lines=" + lines + '}';
+	}
+
+	/**
+	 * One line of the cart, with the {@link Item} columns the views need copied in.
+	 */
+	public static final class Line {
+
+		private final Integer itemId;
+		private final String itemName;
+		private final double price;
+		private final int quantity;
+
+		Line(Integer itemId, String itemName, double price, int quantity) {
+			this.itemId = itemId;
+			this.itemName = itemName;
+			this.price = price;
+			this.quantity = quantity;
+		}
+
+		static Line of(CartItem cartItem) {
+			Item item = cartItem.getItem();
+			return new Line(item.getId(), item.getName(), item.getPrice(), cartItem.getQuantity());
+		}
+
+		public Integer getItemId() {
+			return itemId;
+		}
+
+		public String getItemName() {
+			return itemName;
+		}
+
+		public double getPrice() {
+			return price;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (o == null || getClass() != o.getClass())
+				return false;
+			Line line = (Line) o;
+			return Double.compare(line.price, price) == 0 && quantity == line.quantity
+					&& Objects.equals(itemId, line.itemId) && Objects.equals(itemName, line.itemName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(itemId, itemName, price, quantity);
+		}
+
+		@Override
+		public String toString() {
+			return "Line{" + "itemId=" + itemId + ", itemName='" + itemName + '\'' + ", price=" + price + ", quantity="
+					+ quantity + '}';
+		}
+	}
+}
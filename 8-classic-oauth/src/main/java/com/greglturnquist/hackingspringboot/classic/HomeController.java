@@ -46,8 +46,8 @@ public class HomeController {
 			@RegisteredOAuth2AuthorizedClient OAuth2AuthorizedClient authorizedClient,
 			@AuthenticationPrincipal OAuth2User oauth2User, Model model) { // <1>
 		model.addAttribute("items", this.inventoryService.getInventory());
-		model.addAttribute("cart", this.inventoryService.getCart(cartName(oauth2User)) // <2>
-				.orElseGet(() -> new Cart(cartName(oauth2User))));
+		model.addAttribute("cart", this.inventoryService.getCartView(cartName(oauth2User)) // <2>
+				.orElseGet(() -> CartView.empty(cartName(oauth2User))));
 
 		// Fetching authentication details is a little more complex
 		model.addAttribute("userName", oauth2User.getName());
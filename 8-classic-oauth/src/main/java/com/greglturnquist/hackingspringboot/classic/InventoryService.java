@@ -42,6 +42,10 @@ class InventoryService {
 		return this.cartRepository.findById(cartId);
 	}
 
+	public Optional<CartView> getCartView(String cartId) {
+		return this.cartRepository.findCartWithItemsById(cartId).map(CartView::of);
+	}
+
 	public Iterable<Item> getInventory() {
 		return this.itemRepository.findAll();
 	}